@@ -39,6 +39,7 @@ public class FileDownloadService {
     private File dbFileRoot;
     private int port;
     private HttpServer hs;
+    private FileReturningHandler handler;
 
     public FileDownloadService(File dbFileRoot, int port) {
         this.dbFileRoot = dbFileRoot;
@@ -52,7 +53,8 @@ public class FileDownloadService {
     public void start() throws IOException {
         if (hs == null) {
             hs = HttpServer.create(new InetSocketAddress(port), 0);
-            hs.createContext("/", new FileReturningHandler(dbFileRoot));
+            handler = new FileReturningHandler(dbFileRoot);
+            hs.createContext("/", handler);
         }
         hs.start();
     }
@@ -61,5 +63,8 @@ public class FileDownloadService {
         if (hs != null) {
             hs.stop(10);
         }
+        if (handler != null) {
+            handler.stop();
+        }
     }
 }
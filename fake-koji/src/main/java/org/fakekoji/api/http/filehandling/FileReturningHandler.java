@@ -23,29 +23,57 @@
  */
 package org.fakekoji.api.http.filehandling;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import hudson.plugins.scm.koji.Constants;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.fakekoji.xmlrpc.server.JavaServerConstants;
 
@@ -58,10 +86,70 @@ import org.fakekoji.xmlrpc.server.JavaServerConstants;
 public class FileReturningHandler implements HttpHandler {
 
     public static final boolean wasteIoOnLastModifiedByDirContent = false;
+    /**
+     * Maximal number of concurrently served requests. Requests over it wait
+     * in queue of limited size, requests over both limits are answered by
+     * 503.
+     */
+    private static final int WORKERS = Integer.getInteger("otool.fakekoji.download.workers", 64);
+    private static final int QUEUE_LIMIT = Integer.getInteger("otool.fakekoji.download.queueLimit", 256);
+    /**
+     * 503 is sent by few dedicated threads, not by the thread dispatching
+     * all connections, which would be stalled by any client not reading the
+     * response just when the server is overloaded. Only if even their queue
+     * is full, the dispatcher answers itself.
+     */
+    private static final int REJECTION_THREADS = 2;
+    private static final int REJECTION_QUEUE_LIMIT = 1024;
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    /**
+     * Maximal number of cached listings.
+     */
+    private static final int LISTING_CACHE_SIZE = Integer.getInteger("otool.fakekoji.download.listingCacheSize", 64);
+    private static final long RACY_MTIME_WINDOW_MILLIS = 2000;
+    private static final int LISTING_BUFFER_SIZE = 0x10000; // 64K
+
     private final File root;
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor rejections;
+    private final Map<String, ListingHolder> listings = new ConcurrentHashMap<>();
 
     public FileReturningHandler(File dbFileRoot) {
+        this(dbFileRoot, WORKERS, QUEUE_LIMIT);
+    }
+
+    FileReturningHandler(File dbFileRoot, int workers, int queueLimit) {
         this.root = dbFileRoot;
+        this.executor = new ThreadPoolExecutor(
+                workers,
+                workers,
+                60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueLimit)),
+                createThreadFactory("fileDownload-")
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+        this.rejections = new ThreadPoolExecutor(
+                REJECTION_THREADS,
+                REJECTION_THREADS,
+                60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(REJECTION_QUEUE_LIMIT),
+                createThreadFactory("fileDownload-rejecter-")
+        );
+        this.rejections.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory createThreadFactory(final String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
     }
 
     private static final Logger LOGGER = Logger.getLogger(JavaServerConstants.FAKE_KOJI_LOGGER);
@@ -74,9 +162,44 @@ public class FileReturningHandler implements HttpHandler {
 
     @Override
     public void handle(HttpExchange t) throws IOException {
-        //moving result toseparate thread is increasing performance by 1000%
-        RequestRunner rr = new RequestRunner(t);
-        new Thread(rr).start();
+        //moving result to worker thread is increasing performance by 1000%
+        try {
+            executor.execute(new RequestRunner(t));
+        } catch (RejectedExecutionException ex) {
+            LOGGER.warning("Too many requests, rejecting " + t.getRequestURI());
+            try {
+                rejections.execute(() -> reject(t));
+            } catch (RejectedExecutionException full) {
+                reject(t);
+            }
+        }
+    }
+
+    private static void reject(HttpExchange t) {
+        try {
+            t.getResponseHeaders().add("Retry-After", "1");
+            t.sendResponseHeaders(503, -1);
+        } catch (IOException ex) {
+            LOGGER.info("Failed to reject " + t.getRequestURI() + ": " + ex);
+        } finally {
+            t.close();
+        }
+    }
+
+    /**
+     * Stops accepting new requests, running ones are finished.
+     */
+    public void stop() {
+        executor.shutdown();
+        rejections.shutdown();
+    }
+
+    int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    int getQueueSize() {
+        return executor.getQueue().size();
     }
 
     private class RequestRunner implements Runnable {
@@ -92,7 +215,10 @@ public class FileReturningHandler implements HttpHandler {
             try {
                 runImpl();
             } catch (IOException ex) {
-                throw new RuntimeException(ex);
+                // mostly client closing connection in middle of download
+                LOGGER.info("Failed to serve " + t.getRequestURI() + ": " + ex);
+            } finally {
+                t.close();
             }
         }
 
@@ -129,37 +255,35 @@ public class FileReturningHandler implements HttpHandler {
 
     }
 
-    private static void sentFullLIst(File ff, final String requestedFile, HttpExchange t) throws IOException {
+    private void sentFullLIst(File ff, final String requestedFile, HttpExchange t) throws IOException {
         File f = ff.getParentFile();
         LOGGER.info(f.getAbsolutePath() + " listing all files!");
-        String init = "<html>\n  <body>\n";
-        StringBuilder sb1 = generateHtmlFromFileList(requestedFile, f, new ComparatorByVersion());
-        StringBuilder sb2 = generateHtmlFromFileList(requestedFile, f, new ComparatorByLastModified());
-        String close = "  </body>\n</html>\n";
-        String result = init + sb1.toString() + "<hr/>" + sb2 + close;
-        long size = result.length(); //yahnot perfect, ets assuemno one will use this on chinese chars
-        t.sendResponseHeaders(200, size);
-        try (OutputStream os = t.getResponseBody()) {
-            os.write(result.getBytes());
-        }
-
+        final Listing listing = getListing("ALL " + requestedFile, () -> walkFileTree(requestedFile, f));
+        sendListing(t, requestedFile, listing, false);
     }
 
-    private static List<FileInfo> getRecursiveFileList(final String requestedFile, final File f) throws IOException {
-        List<FileInfo> list = new ArrayList();
+    /**
+     * Single walk of whole subtree, which records mtime of each directory,
+     * so the listing can be reused until some of them changes.
+     */
+    private static Listing walkFileTree(final String requestedFile, final File f) throws IOException {
+        final long started = System.currentTimeMillis();
+        final Map<File, Long> dirStamps = new HashMap<>();
+        final List<FileInfo> list = new ArrayList<>();
+        final String rf = new File(requestedFile).getParent();
         Files.walkFileTree(f.toPath(), new FileVisitor<Path>() {
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dirStamps.put(dir.toFile(), attrs.lastModifiedTime().toMillis());
                 return FileVisitResult.CONTINUE;
             }
 
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
                 String fileChunk = file.toAbsolutePath().toString().substring(f.getAbsolutePath().length());
-                String rf = new File(requestedFile).getParent();
                 String path = "/" + rf + "/" + fileChunk;
                 path = path.replaceAll("/+", "/");
-                list.add(new FileInfo(fileChunk, path, file));
+                list.add(new FileInfo(fileChunk, path, file, 0, attrs.lastModifiedTime().toMillis(), attrs.size()));
                 return FileVisitResult.CONTINUE;
             }
 
@@ -173,40 +297,274 @@ public class FileReturningHandler implements HttpHandler {
                 return FileVisitResult.CONTINUE;
             }
         });
-        return list;
-    }
-
-    private static StringBuilder generateHtmlFromFileList(final String requestedFile, final File f, Comparator c) throws IOException {
-        final StringBuilder resultHtml = new StringBuilder();
-        final InfoProvider provider = (InfoProvider) c;
-        resultHtml.append("  <h2>").append(requestedFile);
-        resultHtml.append(provider.getTitle());
-        resultHtml.append("</h2>\n");
-        resultHtml.append("    <a href=\"").append(new File(requestedFile).getParent()).append("\">");
-        resultHtml.append("..");
-        resultHtml.append("    </a><br/>\n");
-        List<FileInfo> fileList = getRecursiveFileList(requestedFile, f);
-        Collections.sort(fileList, c);
-        for (FileInfo file : fileList) {
-            resultHtml.append("    <a href=\"").append(file.getPath()).append("\">");
-            resultHtml.append(file.getFileChunk());
-            resultHtml.append("    </a>");
-            resultHtml.append(provider.getInfo(file));
-            resultHtml.append("<br/>\n");
-        }
-        return resultHtml;
+        LOGGER.info(f.getAbsolutePath() + " walked in " + (System.currentTimeMillis() - started) + "ms, " + list.size() + " files");
+        return new Listing(dirStamps, list, started);
+    }
+
+    private Listing getListing(final String key, final ListingSupplier walk) throws IOException {
+        final ListingHolder holder = listings.computeIfAbsent(key, k -> new ListingHolder());
+        final Listing listing = holder.get(walk);
+        if (listings.size() > LISTING_CACHE_SIZE) {
+            listings.entrySet()
+                    .stream()
+                    .min(Comparator.comparingLong(entry -> entry.getValue().lastUsed))
+                    .ifPresent(eldest -> listings.remove(eldest.getKey(), eldest.getValue()));
+        }
+        return listing;
+    }
+
+    /**
+     * Streams the listing (chunked, as its length is not known ahead) as
+     * html, or as json if requested by format=json. Optional offset and
+     * limit parameters select page of it.
+     */
+    private static void sendListing(HttpExchange t, String requestedFile, Listing listing, boolean withAll) throws IOException {
+        final Map<String, String> query = parseQuery(t.getRequestURI().getRawQuery());
+        final int offset = parseInt(query.get("offset"), 0);
+        final int limit = parseInt(query.get("limit"), Integer.MAX_VALUE);
+        final boolean json = "json".equals(query.get("format"));
+        t.getResponseHeaders().add("Content-Type", json ? "application/json; charset=UTF-8" : "text/html; charset=UTF-8");
+        if ("HEAD".equals(t.getRequestMethod())) {
+            t.sendResponseHeaders(200, -1);
+            return;
+        }
+        t.sendResponseHeaders(200, 0);
+        try (OutputStream os = new BufferedOutputStream(t.getResponseBody(), LISTING_BUFFER_SIZE)) {
+            if (json) {
+                final List<FileInfo> files = "lastModified".equals(query.get("sort"))
+                        ? listing.getByLastModified()
+                        : listing.getByVersion();
+                writeJson(os, requestedFile, files, offset, limit);
+            } else {
+                final Writer w = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+                w.write("<html>\n  <body>\n");
+                writeHtml(w, requestedFile, listing.getByVersion(), new ComparatorByVersion(), withAll, offset, limit);
+                w.write("<hr/>");
+                writeHtml(w, requestedFile, listing.getByLastModified(), new ComparatorByLastModified(), withAll, offset, limit);
+                if (withAll && wasteIoOnLastModifiedByDirContent) {
+                    w.write("<hr/>");
+                    final List<FileInfo> byDirContent = new ArrayList<>(listing.getByVersion());
+                    byDirContent.sort(new ComparatorByLastModifiedDirContent());
+                    writeHtml(w, requestedFile, byDirContent, new ComparatorByLastModifiedDirContent(), withAll, offset, limit);
+                }
+                w.write("  </body>\n</html>\n");
+                w.flush();
+            }
+        }
+    }
+
+    private static void writeHtml(Writer w, String requestedFile, List<FileInfo> files, InfoProvider provider, boolean withAll, int offset, int limit) throws IOException {
+        w.write("  <h2>" + requestedFile + provider.getTitle() + "</h2>\n");
+        w.write("    <a href=\"" + new File(requestedFile).getParent() + "\">..    </a><br/>\n");
+        if (withAll) {
+            final String path = ("/" + requestedFile + "/ALL").replaceAll("/+", "/");
+            w.write("    <a href=\"" + path + "\">ALL    </a><br/>\n");
+        }
+        final int to = (int) Math.min(files.size(), (long) offset + limit);
+        for (int i = Math.max(0, offset); i < to; i++) {
+            final FileInfo file = files.get(i);
+            w.write("    <a href=\"" + file.getPath() + "\">" + file.getFileChunk() + "    </a>" + provider.getInfo(file) + "<br/>\n");
+        }
+        if (to < files.size()) {
+            w.write("    <a href=\"?offset=" + to + "&amp;limit=" + limit + "\">next    </a><br/>\n");
+        }
+    }
+
+    private static void writeJson(OutputStream os, String requestedFile, List<FileInfo> files, int offset, int limit) throws IOException {
+        final JsonGenerator json = new JsonFactory().createGenerator(os, JsonEncoding.UTF8);
+        json.writeStartObject();
+        json.writeStringField("path", requestedFile);
+        json.writeNumberField("total", files.size());
+        json.writeNumberField("offset", offset);
+        json.writeArrayFieldStart("files");
+        final int to = (int) Math.min(files.size(), (long) offset + limit);
+        for (int i = Math.max(0, offset); i < to; i++) {
+            final FileInfo file = files.get(i);
+            json.writeStartObject();
+            json.writeStringField("name", file.getFileChunk());
+            json.writeStringField("path", file.getPath());
+            json.writeNumberField("size", file.getSize());
+            json.writeNumberField("lastModified", file.getLastModified());
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+        json.flush();
+    }
+
+    static Map<String, String> parseQuery(String rawQuery) throws IOException {
+        final Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            final int eq = pair.indexOf('=');
+            if (eq > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
     }
 
     private static void sentFile(File f, HttpExchange t) throws IOException {
-        long size = f.length();
+        final long size = f.length();
+        final long lastModified = f.lastModified();
+        final String etag = etag(size, lastModified);
+        final Headers requestHeaders = t.getRequestHeaders();
+        final Headers responseHeaders = t.getResponseHeaders();
         LOGGER.info(f.getAbsolutePath() + " is " + size + " bytes long");
-        t.sendResponseHeaders(200, size);
+        responseHeaders.add("Accept-Ranges", "bytes");
+        responseHeaders.add("ETag", etag);
+        responseHeaders.add("Last-Modified", HTTP_DATE.format(Instant.ofEpochMilli(lastModified)));
+        if (isNotModified(requestHeaders.getFirst("If-None-Match"), requestHeaders.getFirst("If-Modified-Since"), etag, lastModified)) {
+            LOGGER.info(f.getAbsolutePath() + " not modified");
+            t.sendResponseHeaders(304, -1);
+            return;
+        }
+        final String rangeHeader = requestHeaders.getFirst("Range");
+        final long[] range = isRangeApplicable(requestHeaders.getFirst("If-Range"), etag, lastModified)
+                ? parseRange(rangeHeader, size)
+                : null;
+        if (range != null && range.length == 0) {
+            LOGGER.info("unsatisfiable range " + rangeHeader + " of " + f.getAbsolutePath());
+            responseHeaders.add("Content-Range", "bytes */" + size);
+            t.sendResponseHeaders(416, -1);
+            return;
+        }
+        final long first = range == null ? 0 : range[0];
+        final long length = range == null ? size : range[1] - range[0] + 1;
+        final int code = range == null ? 200 : 206;
+        if (range != null) {
+            LOGGER.info("sending bytes " + range[0] + "-" + range[1] + " of " + f.getAbsolutePath());
+            responseHeaders.add("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+        }
+        if ("HEAD".equals(t.getRequestMethod())) {
+            // HttpServer does not send length of HEAD responses by itself
+            responseHeaders.set("Content-Length", Long.toString(length));
+            t.sendResponseHeaders(code, -1);
+            return;
+        }
+        t.sendResponseHeaders(code, length == 0 ? -1 : length);
         try (OutputStream os = t.getResponseBody();
-             InputStream is = new FileInputStream(f)) {
-            copy(is, os);
+             FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            transfer(channel, first, length, os);
+        }
+    }
+
+    /**
+     * Sends part of file by {@link FileChannel#transferTo}. HttpServer does
+     * not expose its socket channel, so the target is always a channel
+     * wrapping the response stream, and jdk copies the data through its own
+     * buffer rather than by the kernel. It only spares the read loop of this
+     * handler.
+     *
+     * @return number of sent bytes, less than length only if the file shrunk
+     */
+    static long transfer(FileChannel from, long position, long length, OutputStream to) throws IOException {
+        final WritableByteChannel target = Channels.newChannel(to);
+        long sent = 0;
+        while (sent < length) {
+            final long transferred = from.transferTo(position + sent, length - sent, target);
+            if (transferred <= 0) {
+                break;
+            }
+            sent += transferred;
         }
+        return sent;
     }
 
+    static String etag(long size, long lastModified) {
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+    }
+
+    /**
+     * If-None-Match takes precedence over If-Modified-Since, as http says.
+     * Dates are compared with precision of seconds, which is precision of
+     * http dates.
+     */
+    static boolean isNotModified(String ifNoneMatch, String ifModifiedSince, String etag, long lastModified) {
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                final String trimmed = candidate.trim();
+                if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        final Long since = parseHttpDate(ifModifiedSince);
+        return since != null && lastModified / 1000 <= since / 1000;
+    }
+
+    /**
+     * Range of resumed download is applicable only if the file is still the
+     * one client started to download, otherwise whole file is sent.
+     */
+    static boolean isRangeApplicable(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.trim().startsWith("\"")) {
+            return ifRange.trim().equals(etag);
+        }
+        final Long date = parseHttpDate(ifRange);
+        return date != null && date / 1000 == lastModified / 1000;
+    }
+
+    private static Long parseHttpDate(String date) {
+        if (date == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Only single range of bytes is supported, which is what resuming downloads use.
+     *
+     * @return null if whole file should be sent, empty array if the range can not be satisfied, otherwise first and
+     * last byte of the range
+     */
+    static long[] parseRange(String header, long size) {
+        if (header == null) {
+            return null;
+        }
+        final Matcher matcher = RANGE.matcher(header.trim());
+        if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+            return null;
+        }
+        long first;
+        long last;
+        if (matcher.group(1).isEmpty()) {
+            // suffix range: last n bytes
+            first = Math.max(0, size - Long.parseLong(matcher.group(2)));
+            last = size - 1;
+        } else {
+            first = Long.parseLong(matcher.group(1));
+            last = matcher.group(2).isEmpty() ? size - 1 : Math.min(Long.parseLong(matcher.group(2)), size - 1);
+        }
+        if (first >= size || first > last) {
+            return new long[0];
+        }
+        return new long[]{first, last};
+    }
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
     private static final int BUF_SIZE = 0x1000; // 4K
 
     public static long copy(InputStream from, OutputStream to)
@@ -226,45 +584,33 @@ public class FileReturningHandler implements HttpHandler {
 
     private void sentDirListing(File f, String requestedFile, HttpExchange t) throws IOException {
         LOGGER.info(f.getAbsolutePath() + " listing directory!");
-        String[] files = f.list();
-        ArrayList<FileInfo> fileInfoList = new ArrayList();
-        fileInfoList.add(0, new FileInfo("ALL", "ALL", new File(root + "/" + requestedFile + "/" + "ALL").toPath()));
-        for (int i = 0; i < files.length; i++) {
-            String fileChunk = files[i];
-            long lastModifiedDirContent = 0;
-            File file = new File(root + "/" + requestedFile + "/" + fileChunk);
-            if (file.exists()) {
-                if (Files.isDirectory(file.toPath())) {
-                    lastModifiedDirContent = getNewestDateIn(file).getTime();
-                }
-            }
-            fileInfoList.add(new FileInfo(fileChunk, fileChunk, file.toPath(), lastModifiedDirContent));
-        }
-        String init = "<html>\n  <body>\n";
-
-        StringBuilder sb1 = generateHtmlFromList(requestedFile, fileInfoList, new ComparatorByVersion());
-        StringBuilder sb2 = generateHtmlFromList(requestedFile, fileInfoList, new ComparatorByLastModified());
-        StringBuilder sb3 = new StringBuilder("");
-        if (wasteIoOnLastModifiedByDirContent) {
-            sb3 = generateHtmlFromList(requestedFile, fileInfoList, new ComparatorByLastModifiedDirContent());
-        }
-        String close = "  </body>\n</html>\n";
-        String result = init + sb1.toString() + "<hr/>" + sb2.toString() + "<hr/>" + sb3.toString() + close;
-        long size = result.length(); //yahnot perfect, ets assuemno one will use this on chinese chars
-        t.sendResponseHeaders(200, size);
-        try (OutputStream os = t.getResponseBody()) {
-            os.write(result.getBytes());
-        }
+        final Listing listing = getListing("DIR " + requestedFile, () -> listDirectory(f, requestedFile));
+        sendListing(t, requestedFile, listing, true);
     }
 
-    private void sortFileList(ArrayList<FileInfo> list, Comparator c) {
-        if (!list.get(0).getFileChunk().equals("ALL")) {
-            throw new RuntimeException("File list doesn't contain ALL file.");
+    private static Listing listDirectory(File f, String requestedFile) throws IOException {
+        final long started = System.currentTimeMillis();
+        // stamp before listing, so changes done meanwhile invalidate the listing
+        final long stamp = f.lastModified();
+        final String[] files = f.list();
+        final List<FileInfo> fileInfoList = new ArrayList<>();
+        for (String fileChunk : files == null ? new String[0] : files) {
+            final File file = new File(f, fileChunk);
+            final BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            } catch (IOException ex) {
+                // removed meanwhile
+                continue;
+            }
+            long lastModifiedDirContent = 0;
+            if (wasteIoOnLastModifiedByDirContent && attrs.isDirectory()) {
+                lastModifiedDirContent = getNewestDateIn(file).getTime();
+            }
+            final String path = ("/" + requestedFile + "/" + fileChunk).replaceAll("/+", "/");
+            fileInfoList.add(new FileInfo(fileChunk, path, file.toPath(), lastModifiedDirContent, attrs.lastModifiedTime().toMillis(), attrs.size()));
         }
-        FileInfo all = list.get(0);
-        list.remove(0);
-        Collections.sort(list, c);
-        list.add(0, all);
+        return new Listing(Collections.singletonMap(f, stamp), fileInfoList, started);
     }
 
     private static boolean areNumeric(String s1, String s2) {
@@ -296,28 +642,6 @@ public class FileReturningHandler implements HttpHandler {
         return ((Character.isDigit(first) && Character.isAlphabetic(second)) || (Character.isAlphabetic(first) && Character.isDigit(second)));
     }
 
-    private StringBuilder generateHtmlFromList(String requestedFile, ArrayList<FileInfo> s, Comparator c) throws IOException {
-        StringBuilder resultHtml = new StringBuilder();
-        InfoProvider provider = (InfoProvider) c;
-        resultHtml.append("  <h2>").append(requestedFile);
-        resultHtml.append(provider.getTitle());
-        resultHtml.append("</h2>\n");
-        resultHtml.append("    <a href=\"").append(new File(requestedFile).getParent()).append("\">");
-        resultHtml.append("..");
-        resultHtml.append("    </a><br/>\n");
-        sortFileList(s, c);
-        for (FileInfo file : s) {
-            String path = "/" + requestedFile + "/" + file.getFileChunk();
-            path = path.replaceAll("/+", "/");
-            resultHtml.append("    <a href=\"").append(path).append("\">");
-            resultHtml.append(file.getFileChunk());
-            resultHtml.append("    </a>");
-            resultHtml.append(provider.getInfo(file));
-            resultHtml.append("<br/>\n");
-        }
-        return resultHtml;
-    }
-
     private static Date getNewestDateIn(File root) throws IOException {
         File f = getNewestFile(root);
         if (f == null) {
@@ -416,19 +740,26 @@ public class FileReturningHandler implements HttpHandler {
         private final String path;
         private final Path file;
         private final long lastModifiedDirContent;
+        // -1 if not known, then read from file
+        private final long lastModified;
+        private final long size;
+        private String[] versionChunks;
 
         public FileInfo(String fileChunk, String path, Path file) {
-            this.fileChunk = fileChunk;
-            this.path = path;
-            this.file = file;
-            lastModifiedDirContent = 0;
+            this(fileChunk, path, file, 0);
         }
 
         public FileInfo(String fileChunk, String path, Path file, long lastModifiedDirContent) {
+            this(fileChunk, path, file, lastModifiedDirContent, -1, -1);
+        }
+
+        public FileInfo(String fileChunk, String path, Path file, long lastModifiedDirContent, long lastModified, long size) {
             this.fileChunk = fileChunk;
             this.path = path;
             this.file = file;
             this.lastModifiedDirContent = lastModifiedDirContent;
+            this.lastModified = lastModified;
+            this.size = size;
         }
 
         public String getPath() {
@@ -448,14 +779,92 @@ public class FileReturningHandler implements HttpHandler {
         }
 
         public long getLastModified() {
-            return file.toFile().lastModified();
+            return lastModified >= 0 ? lastModified : file.toFile().lastModified();
+        }
+
+        public long getSize() {
+            return size >= 0 ? size : file.toFile().length();
         }
 
         public long getFileSize() {
-            return file.toFile().length() / 1024l;
+            return getSize() / 1024l;
+        }
+
+        /**
+         * @return file chunk split for {@link ComparatorByVersion}, computed
+         * only once, as sorting compares each file many times
+         */
+        String[] getVersionChunks() {
+            if (versionChunks == null) {
+                versionChunks = addDots(fileChunk).split(ComparatorByVersion.NON_ALPHANUMERIC_REGEX);
+            }
+            return versionChunks;
+        }
+    }
+
+    /**
+     * Files of directory (or of whole subtree) sorted by both orders shown
+     * in listings. It stays valid until any of the listed directories
+     * changes its mtime. Files changed in place do not change mtime of their
+     * directory, so their size and time may be outdated, but uploads are
+     * renamed to their final name once complete, which does.
+     */
+    static class Listing {
+
+        private final Map<File, Long> dirStamps;
+        private final List<FileInfo> byVersion;
+        private final List<FileInfo> byLastModified;
+        private final boolean cacheable;
+
+        Listing(Map<File, Long> dirStamps, List<FileInfo> files, long started) {
+            this.dirStamps = dirStamps;
+            this.byVersion = new ArrayList<>(files);
+            this.byVersion.sort(new ComparatorByVersion());
+            this.byLastModified = new ArrayList<>(files);
+            this.byLastModified.sort(new ComparatorByLastModified());
+            // directories modified just before the walk may still be changing within the same mtime tick
+            this.cacheable = dirStamps.values().stream().allMatch(stamp -> stamp < started - RACY_MTIME_WINDOW_MILLIS);
+        }
+
+        boolean isValid() {
+            for (Map.Entry<File, Long> dir : dirStamps.entrySet()) {
+                if (dir.getKey().lastModified() != dir.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        List<FileInfo> getByVersion() {
+            return byVersion;
+        }
+
+        List<FileInfo> getByLastModified() {
+            return byLastModified;
         }
     }
 
+    private static class ListingHolder {
+
+        private Listing listing;
+        private volatile long lastUsed;
+
+        // concurrent requests of the same listing wait for single walk
+        private synchronized Listing get(ListingSupplier walk) throws IOException {
+            lastUsed = System.currentTimeMillis();
+            if (listing != null && listing.isValid()) {
+                return listing;
+            }
+            final Listing fresh = walk.get();
+            listing = fresh.cacheable ? fresh : null;
+            return fresh;
+        }
+    }
+
+    private interface ListingSupplier {
+        Listing get() throws IOException;
+    }
+
     static class ComparatorByVersion implements Comparator<FileInfo>, InfoProvider {
 
         private static final String NON_ALPHANUMERIC_REGEX = "[^a-zA-Z0-9]";
@@ -469,8 +878,8 @@ public class FileReturningHandler implements HttpHandler {
               old: jdk8u152.b01 -> (split) -> [ojdk8u152, b01]
               new: jdk8u152.b01 -> (addDots)-> jdk.8.u.152.b.01 -> (split) -> [jdk, 8, u, 152, b, 01] (numbers and letters separated)
              */
-            String[] arr1 = addDots(f1.getFileChunk()).split(NON_ALPHANUMERIC_REGEX);
-            String[] arr2 = addDots(f2.getFileChunk()).split(NON_ALPHANUMERIC_REGEX);
+            String[] arr1 = f1.getVersionChunks();
+            String[] arr2 = f2.getVersionChunks();
             int min = Math.min(arr1.length, arr2.length);
             for (int i = 0; i < min; i++) {
                 int compare = areNumeric(arr1[i], arr2[i]) ? Integer.compare(Integer.parseInt(arr2[i]), Integer.parseInt(arr1[i])) : arr1[i].compareTo(arr2[i]);
@@ -539,7 +948,7 @@ public class FileReturningHandler implements HttpHandler {
             if (f.getFileChunk().equals("ALL")) {
                 return "";
             }
-            String time = Constants.DTF2.format(LocalDateTime.ofInstant(FileTime.from(f.getFile().toFile().lastModified(), TimeUnit.MILLISECONDS).toInstant(), ZoneId.systemDefault()));
+            String time = Constants.DTF2.format(LocalDateTime.ofInstant(FileTime.from(f.getLastModified(), TimeUnit.MILLISECONDS).toInstant(), ZoneId.systemDefault()));
             time = " (" + time + ") (" + f.getFileSize() + ")";
             return time;
         }
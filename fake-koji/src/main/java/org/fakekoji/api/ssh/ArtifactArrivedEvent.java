@@ -0,0 +1,49 @@
+package org.fakekoji.api.ssh;
+
+import java.io.File;
+
+/**
+ * Published by {@link ScpService} once uploaded file is complete and renamed to its final place in the builds root.
+ * Checksums were computed while the file was streaming in, so subscribers do not have to read it again.
+ */
+public class ArtifactArrivedEvent {
+
+    private final File file;
+    private final long size;
+    private final String md5;
+    private final String sha256;
+    private final String username;
+
+    public ArtifactArrivedEvent(File file, long size, String md5, String sha256, String username) {
+        this.file = file;
+        this.size = size;
+        this.md5 = md5;
+        this.sha256 = sha256;
+        this.username = username;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getMd5() {
+        return md5;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public String toString() {
+        return file.getAbsolutePath() + " (" + size + " bytes, md5 " + md5 + ", sha256 " + sha256 + ", from " + username + ")";
+    }
+}
@@ -0,0 +1,180 @@
+package org.fakekoji.api.ssh;
+
+import org.fakekoji.core.utils.FileFileFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Stream of uploaded file. Data are written to hidden temporary file next to the target (so on the same file system),
+ * and are digested on the way. Once the upload is complete, the temporary file gets the target name atomically, so
+ * nobody sees half uploaded artifact, and "artifact arrived" event is published. Incomplete upload is deleted.
+ * <p>
+ * Upload to existing file, or to file being uploaded by other stream, is rejected right when the stream is opened, as
+ * creation of the target file did before. The target is checked again when the upload is committed.
+ */
+class IngestOutputStream extends OutputStream {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    // targets of open streams
+    private static final Set<File> UPLOADING = ConcurrentHashMap.newKeySet();
+
+    private final File target;
+    private final File tmp;
+    private final long expectedSize;
+    private final String username;
+    private final Consumer<ArtifactArrivedEvent> publisher;
+    private final OutputStream out;
+    private final MessageDigest md5;
+    private final MessageDigest sha256;
+    private long size = 0;
+    private boolean closed = false;
+
+    /**
+     * @param expectedSize size announced by client, -1 if not known
+     */
+    IngestOutputStream(
+            final File target,
+            final long expectedSize,
+            final String username,
+            final Consumer<ArtifactArrivedEvent> publisher
+    ) throws IOException {
+        this.target = target;
+        this.expectedSize = expectedSize;
+        this.username = username;
+        this.publisher = publisher;
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+        if (!UPLOADING.add(target.getAbsoluteFile())) {
+            throw new IOException(target + " is being uploaded. Overwrite is disabled right now");
+        }
+        if (target.exists()) {
+            UPLOADING.remove(target.getAbsoluteFile());
+            throw new FileAlreadyExistsException(target + " already exists. Overwrite is disabled right now");
+        }
+        File candidate;
+        OutputStream stream;
+        while (true) {
+            candidate = new File(
+                    target.getParentFile(),
+                    "." + target.getName() + "." + Long.toUnsignedString(RANDOM.nextLong()) + FileFileFilter.PARTIAL_UPLOAD_SUFFIX
+            );
+            try {
+                // not Files.createTempFile, which would make it (and so the uploaded artifact) readable only by owner
+                stream = Files.newOutputStream(candidate.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException ex) {
+                // try another name
+            } catch (IOException ex) {
+                UPLOADING.remove(target.getAbsoluteFile());
+                throw ex;
+            }
+        }
+        this.tmp = candidate;
+        this.out = stream;
+    }
+
+    File getTemporaryFile() {
+        return tmp;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        md5.update((byte) b);
+        sha256.update((byte) b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        md5.update(b, off, len);
+        sha256.update(b, off, len);
+        size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean committed = false;
+        try {
+            out.close();
+            if (expectedSize >= 0 && size != expectedSize) {
+                throw new IOException("Incomplete upload of " + target + ", " + size + " of " + expectedSize + " bytes");
+            }
+            commit();
+            committed = true;
+        } finally {
+            try {
+                if (!committed) {
+                    Files.deleteIfExists(tmp.toPath());
+                }
+            } finally {
+                UPLOADING.remove(target.getAbsoluteFile());
+            }
+        }
+        publisher.accept(new ArtifactArrivedEvent(target, size, toHex(md5.digest()), toHex(sha256.digest()), username));
+    }
+
+    /**
+     * Closes the stream without committing the upload.
+     */
+    void abort() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            out.close();
+            Files.deleteIfExists(tmp.toPath());
+        } finally {
+            UPLOADING.remove(target.getAbsoluteFile());
+        }
+    }
+
+    private void commit() throws IOException {
+        try {
+            // unlike rename, link never replaces existing file
+            Files.createLink(target.toPath(), tmp.toPath());
+        } catch (FileAlreadyExistsException ex) {
+            throw new IOException(target + " already exists. Overwrite is disabled right now", ex);
+        } catch (IOException | UnsupportedOperationException ex) {
+            // file system without hard links
+            if (target.exists()) {
+                throw new IOException(target + " already exists. Overwrite is disabled right now", ex);
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+        Files.delete(tmp.toPath());
+    }
+
+    private static String toHex(final byte[] digest) {
+        return String.format("%0" + (digest.length * 2) + "x", new BigInteger(1, digest));
+    }
+}
@@ -51,7 +51,6 @@ import org.fakekoji.xmlrpc.server.JavaServerConstants;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -73,6 +72,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -202,6 +203,7 @@ public class ScpService {
     private String[] keys;
 
     private SshServer sshServer;
+    private final List<Consumer<ArtifactArrivedEvent>> artifactListeners = new CopyOnWriteArrayList<>();
 
     public ScpService(final AccessibleSettings settings) {
         dbRoot = settings.getDbFileRoot();
@@ -229,6 +231,25 @@ public class ScpService {
         return port;
     }
 
+    /**
+     * @param listener called once uploaded file is complete and renamed to its place, so caches and indexes can be
+     *                 updated without rescanning the builds root
+     */
+    public void addArtifactListener(final Consumer<ArtifactArrivedEvent> listener) {
+        artifactListeners.add(listener);
+    }
+
+    private void publish(final ArtifactArrivedEvent event) {
+        LOGGER.info("Artifact arrived: " + event);
+        for (Consumer<ArtifactArrivedEvent> listener : artifactListeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException ex) {
+                LOGGER.warning("Artifact listener failed on " + event.getFile() + ": " + ex.getMessage());
+            }
+        }
+    }
+
 
     public void stop() throws IOException {
         if (sshServer != null) {
@@ -427,6 +448,7 @@ public class ScpService {
             public OutputStream openWrite(Session session, Path file, long l, Set<PosixFilePermission> pfp, OpenOption... options) throws IOException {
                 LOGGER.info("Accepting upload to " + file);
                 RealPaths paths = createRealPaths(file);
+                // rejected before any data are sent; the ingest stream checks it again once the directories exist
                 if (paths.fullPath.exists()) {
                     String ss = paths.fullPath.toString() + " already exists. Overwrite is disabled right now";
                     LOGGER.warning(ss);
@@ -435,14 +457,15 @@ public class ScpService {
                 File parent = paths.fullPath.getParentFile();
                 LOGGER.info("ensuring " + parent.getAbsolutePath());
                 createCorrectlyOwnedDirectoryTree(parent, session.getUsername());
-                boolean blnCreated = paths.fullPath.createNewFile();
-                if (!blnCreated) {
-                    String ss = paths.fullPath.toString() + " failed to create, exiting sooner rather than later";
-                    LOGGER.warning(ss);
-                    throw new SshException(ss);
+                // written to temporary file, which is renamed to fullPath once complete
+                IngestOutputStream ingest = new IngestOutputStream(paths.fullPath, l, session.getUsername(), ScpService.this::publish);
+                try {
+                    setOwner(ingest.getTemporaryFile().toPath(), session.getUsername());
+                } catch (IOException ex) {
+                    ingest.abort();
+                    throw ex;
                 }
-                setOwner(paths.fullPath.toPath(), session.getUsername());
-                return new FileOutputStream(paths.fullPath);
+                return ingest;
             }
 
             private void createCorrectlyOwnedDirectoryTree(File dirr, String username) throws IOException {
@@ -0,0 +1,202 @@
+package org.fakekoji.api.xmlrpc;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.fakekoji.xmlrpc.server.JavaServerConstants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Http front end of xml-rpc server with bounded pool of workers, as alternative to apache's WebServer, which starts
+ * thread for each connection and closes connections over its limit without any response.
+ * <p>
+ * Requests are accepted by jdk's HttpServer, which keeps connections alive (idle connections are closed according to
+ * sun.net.httpserver.idleInterval and sun.net.httpserver.maxIdleConnections properties). Each request is then handed
+ * to one of the workers. If all workers are busy, it waits in queue of limited size, and if even the queue is full,
+ * it is immediately answered by 503, so clients can retry later instead of piling up on the server. Workers may be
+ * virtual threads, if the jvm supports them.
+ * <p>
+ * Answering 503 still means reading the request, so it is done by few dedicated threads, never by the single thread
+ * dispatching all connections, which would otherwise be stalled by any slow client just when the server is
+ * overloaded. Only if even their queue is full, the dispatcher answers itself.
+ */
+class PooledXmlRpcServer {
+
+    private static final Logger LOGGER = Logger.getLogger(JavaServerConstants.FAKE_KOJI_LOGGER);
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_BAD_METHOD = 405;
+    private static final int HTTP_INTERNAL_ERROR = 500;
+    private static final int HTTP_UNAVAILABLE = 503;
+    private static final String RETRY_AFTER_SECONDS = "1";
+    private static final int REJECTION_THREADS = 2;
+    private static final int REJECTION_QUEUE_LIMIT = 1024;
+    // set while rejected request is answered
+    private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<>();
+
+    private final int port;
+    private final int workers;
+    private final int queueLimit;
+    private final boolean virtualThreads;
+    private final Processor processor;
+    private final XmlRpcMetrics metrics;
+    private HttpServer httpServer;
+    private ThreadPoolExecutor pool;
+    private ThreadPoolExecutor rejections;
+
+    /**
+     * Parses xml-rpc request, executes it and writes its response.
+     */
+    interface Processor {
+        void process(InputStream request, OutputStream response) throws IOException;
+    }
+
+    PooledXmlRpcServer(
+            final int port,
+            final int workers,
+            final int queueLimit,
+            final boolean virtualThreads,
+            final Processor processor,
+            final XmlRpcMetrics metrics
+    ) {
+        this.port = port;
+        this.workers = workers;
+        this.queueLimit = queueLimit;
+        this.virtualThreads = virtualThreads;
+        this.processor = processor;
+        this.metrics = metrics;
+    }
+
+    void start() throws IOException {
+        final BlockingQueue<Runnable> queue = queueLimit > 0 ? new ArrayBlockingQueue<>(queueLimit) : new SynchronousQueue<>();
+        pool = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, queue, createThreadFactory(virtualThreads, "xmlrpc-worker-"));
+        pool.allowCoreThreadTimeOut(true);
+        rejections = new ThreadPoolExecutor(REJECTION_THREADS, REJECTION_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(REJECTION_QUEUE_LIMIT), createThreadFactory(false, "xmlrpc-rejecter-"));
+        rejections.allowCoreThreadTimeOut(true);
+        httpServer = HttpServer.create(new InetSocketAddress(port), workers + queueLimit);
+        httpServer.createContext("/", this::handle);
+        httpServer.setExecutor(this::dispatch);
+        httpServer.start();
+        LOGGER.info("xml-rpc server listening on " + getPort() + " with " + workers
+                + (virtualThreads ? " virtual" : "") + " workers and queue of " + queueLimit);
+    }
+
+    void stop() {
+        if (httpServer != null) {
+            httpServer.stop(1);
+            httpServer = null;
+        }
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        if (rejections != null) {
+            rejections.shutdown();
+            rejections = null;
+        }
+    }
+
+    /**
+     * @return port the server listens on, useful if it was started on port 0
+     */
+    int getPort() {
+        return httpServer == null ? port : httpServer.getAddress().getPort();
+    }
+
+    int getActiveCount() {
+        return pool == null ? 0 : pool.getActiveCount();
+    }
+
+    int getQueueSize() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    private void dispatch(final Runnable exchange) {
+        final long queued = System.nanoTime();
+        try {
+            pool.execute(() -> {
+                metrics.recordQueueWait(System.nanoTime() - queued);
+                exchange.run();
+            });
+        } catch (RejectedExecutionException ex) {
+            metrics.recordRejected();
+            try {
+                rejections.execute(() -> reject(exchange));
+            } catch (RejectedExecutionException full) {
+                reject(exchange);
+            }
+        }
+    }
+
+    private static void reject(final Runnable exchange) {
+        REJECTED.set(Boolean.TRUE);
+        try {
+            exchange.run();
+        } finally {
+            REJECTED.remove();
+        }
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            if (REJECTED.get() != null) {
+                exchange.getResponseHeaders().add("Retry-After", RETRY_AFTER_SECONDS);
+                exchange.sendResponseHeaders(HTTP_UNAVAILABLE, -1);
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().add("Allow", "POST");
+                exchange.sendResponseHeaders(HTTP_BAD_METHOD, -1);
+                return;
+            }
+            final ByteArrayOutputStream response = new ByteArrayOutputStream();
+            try (InputStream request = exchange.getRequestBody()) {
+                processor.process(request, response);
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Failed to process xml-rpc request from " + exchange.getRemoteAddress(), ex);
+                exchange.sendResponseHeaders(HTTP_INTERNAL_ERROR, -1);
+                return;
+            }
+            // known length, so the connection can be kept alive
+            exchange.getResponseHeaders().add("Content-Type", "text/xml");
+            exchange.sendResponseHeaders(HTTP_OK, response.size());
+            try (OutputStream os = exchange.getResponseBody()) {
+                response.writeTo(os);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static ThreadFactory createThreadFactory(final boolean virtualThreads, final String namePrefix) {
+        if (virtualThreads) {
+            try {
+                // Thread.ofVirtual().factory(), by reflection, as it is not available in older jdks
+                final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                LOGGER.warning("Virtual threads are not available (" + ex + "), using platform threads");
+            }
+        }
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, namePrefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -24,8 +24,12 @@
 package org.fakekoji.api.xmlrpc;
 
 import hudson.plugins.scm.koji.Constants;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.common.ServerStreamConnection;
+import org.apache.xmlrpc.common.XmlRpcHttpRequestConfigImpl;
 import org.apache.xmlrpc.server.XmlRpcHandlerMapping;
 import org.apache.xmlrpc.server.XmlRpcServerConfigImpl;
+import org.apache.xmlrpc.server.XmlRpcStreamServer;
 import org.apache.xmlrpc.webserver.WebServer;
 import org.fakekoji.core.AccessibleSettings;
 import org.fakekoji.core.FakeKojiDB;
@@ -46,7 +50,17 @@ import org.fakekoji.xmlrpc.server.xmlrpcresponse.RPMList;
 import org.fakekoji.xmlrpc.server.xmlrpcresponse.TagSet;
 import org.fakekoji.xmlrpc.server.xmlrpcresponse.XmlRpcResponse;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -58,8 +72,36 @@ public class XmlRpcKojiService {
 
     private static final Logger LOGGER = Logger.getLogger(JavaServerConstants.FAKE_KOJI_LOGGER);
 
+    /**
+     * Period of refreshing of the shared DB. Uploads through ScpService update it immediately (see
+     * {@link #artifactArrived(File)}), the period catches other changes of the builds root.
+     */
+    private static final long DB_REFRESH_MILLIS = Long.getLong("otool.fakekoji.db.refreshMillis", 2000);
+    /**
+     * Serving engine: "apache" (default) for apache's WebServer, or "pooled" for {@link PooledXmlRpcServer} with
+     * bounded workers, request queue and keep-alive, configured by the following properties.
+     */
+    private static final String ENGINE = System.getProperty("otool.fakekoji.xmlrpc.engine", "apache");
+    private static final String ENGINE_POOLED = "pooled";
+    private static final int WORKERS = Integer.getInteger(
+            "otool.fakekoji.xmlrpc.workers",
+            Math.max(8, 2 * Runtime.getRuntime().availableProcessors())
+    );
+    private static final int QUEUE_LIMIT = Integer.getInteger("otool.fakekoji.xmlrpc.queueLimit", 512);
+    private static final boolean VIRTUAL_THREADS = Boolean.getBoolean("otool.fakekoji.xmlrpc.virtualThreads");
+    /**
+     * Period of logging of {@link XmlRpcMetrics}, 0 disables it.
+     */
+    private static final long METRICS_LOG_SECONDS = Long.getLong("otool.fakekoji.xmlrpc.metricsLogSeconds", 300);
+
     private WebServer webServer;
+    private PooledXmlRpcServer pooledServer;
     private final AccessibleSettings settings;
+    // one DB shared by all requests, created on start, kept in sync by its refresher thread
+    private volatile FakeKojiDB kojiDb;
+    private Thread dbRefresher;
+    private final XmlRpcMetrics metrics = new XmlRpcMetrics();
+    private ScheduledExecutorService metricsLogger;
 
     public XmlRpcKojiService(AccessibleSettings settings) {
         this.settings = settings;
@@ -92,62 +134,210 @@ public class XmlRpcKojiService {
         return settings.getXmlRpcPort();
     }
 
+    public XmlRpcMetrics getMetrics() {
+        return metrics;
+    }
+
     public void start() throws IOException {
-        webServer = new WebServer(settings.getXmlRpcPort());
-        webServer.setParanoid(false);
         XmlRpcServerConfigImpl config = new XmlRpcServerConfigImpl();
         config.setEnabledForExtensions(true);
-        webServer.getXmlRpcServer().setConfig(config);
 
+        if (kojiDb == null) {
+            kojiDb = new FakeKojiDB(settings);
+        }
+        if (dbRefresher == null) {
+            dbRefresher = kojiDb.startRefresher(DB_REFRESH_MILLIS);
+        }
+        final FakeKojiDB kojiDb = this.kojiDb;
         XmlRpcHandlerMapping xxx = string -> xmlRpcRequest -> {
-            LOGGER.info("Requested: " + xmlRpcRequest.getMethodName());
-            //need reinitializzing, as new  build could be added
-            FakeKojiDB kojiDb = new FakeKojiDB(settings);
-            if (xmlRpcRequest.getMethodName().equals("sample.sum")) {
-                //testing method
-                return sum(xmlRpcRequest.getParameter(0), xmlRpcRequest.getParameter(1));
-            }
-            final Object parameter = xmlRpcRequest.getParameter(0);
-
-            final XmlRpcResponse response;
-            switch (xmlRpcRequest.getMethodName()) {
-                case Constants.getPackageID:
-                    response = new PackageId(kojiDb.getPkgId(GetPackageId.create(parameter).getPackageName()));
-                    break;
-                case Constants.listBuilds:
-                    response = new BuildList(kojiDb.getProjectBuilds(ListBuilds.create(parameter).getPackageId()));
-                    break;
-                case Constants.listTags:
-                    response = new TagSet(kojiDb.getTags(ListTags.create(parameter).getBuildId()));
-                    break;
-                case Constants.listRPMs:
-                    final ListRPMs listRPMsParams = ListRPMs.create(parameter);
-                    response = new RPMList(kojiDb.getRpms(listRPMsParams.getBuildId(), listRPMsParams.getArchs()));
-                    break;
-                case Constants.listArchives:
-                    final ListArchives listArchivesParams = ListArchives.create(parameter);
-                    response = new ArchiveList(kojiDb.getArchives(listArchivesParams.getBuildId(), listArchivesParams.getArchs()));
-                    break;
-                case Constants.getBuildList:
-                    final GetBuildList getBuildListParams = GetBuildList.create(parameter);
-                    response = new FakeBuildList(kojiDb.getBuildList(getBuildListParams));
-                    break;
-                case Constants.getBuildDetail:
-                    final GetBuildDetail getBuildDetailParams = GetBuildDetail.create(parameter);
-                    response = new FakeBuildDetail(kojiDb.getBuildDetail(getBuildDetailParams));
-                    break;
-                default:
-                    return null;
+            final String methodName = xmlRpcRequest.getMethodName();
+            LOGGER.info("Requested: " + methodName);
+            final long started = System.nanoTime();
+            boolean failed = true;
+            try {
+                final Object result;
+                if (methodName.equals("sample.sum")) {
+                    //testing method
+                    result = sum(xmlRpcRequest.getParameter(0), xmlRpcRequest.getParameter(1));
+                } else {
+                    result = handle(kojiDb, methodName, xmlRpcRequest.getParameter(0));
+                }
+                failed = false;
+                return result;
+            } finally {
+                metrics.record(methodName, System.nanoTime() - started, failed);
             }
-            return response.toObject();
         };
-        webServer.getXmlRpcServer().setHandlerMapping(xxx);
-        //server.addHandler("sample", new JavaServer());
-        webServer.start();
+        if (ENGINE_POOLED.equals(ENGINE)) {
+            final XmlRpcStreamServer xmlRpcServer = new XmlRpcStreamServer() {
+            };
+            xmlRpcServer.setConfig(config);
+            xmlRpcServer.setHandlerMapping(xxx);
+            pooledServer = new PooledXmlRpcServer(
+                    settings.getXmlRpcPort(),
+                    WORKERS,
+                    QUEUE_LIMIT,
+                    VIRTUAL_THREADS,
+                    (request, response) -> execute(xmlRpcServer, request, response),
+                    metrics
+            );
+            pooledServer.start();
+        } else {
+            webServer = new WebServer(settings.getXmlRpcPort());
+            webServer.setParanoid(false);
+            webServer.getXmlRpcServer().setConfig(config);
+            webServer.getXmlRpcServer().setHandlerMapping(xxx);
+            //server.addHandler("sample", new JavaServer());
+            webServer.start();
+        }
+        if (METRICS_LOG_SECONDS > 0 && metricsLogger == null) {
+            metricsLogger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "xmlRpcMetricsLogger");
+                thread.setDaemon(true);
+                return thread;
+            });
+            metricsLogger.scheduleAtFixedRate(this::logMetrics, METRICS_LOG_SECONDS, METRICS_LOG_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void logMetrics() {
+        final PooledXmlRpcServer pooled = pooledServer;
+        LOGGER.info(metrics + (pooled == null
+                ? ""
+                : "\n  workers: " + pooled.getActiveCount() + " active, " + pooled.getQueueSize() + " queued"));
+    }
+
+    /**
+     * Runs xml-rpc request through apache's stream server, which parses it, calls the handler and writes the response
+     * (or fault, if the handler failed).
+     */
+    private static void execute(
+            final XmlRpcStreamServer xmlRpcServer,
+            final InputStream request,
+            final OutputStream response
+    ) throws IOException {
+        final XmlRpcHttpRequestConfigImpl requestConfig = new XmlRpcHttpRequestConfigImpl();
+        requestConfig.setEnabledForExtensions(true);
+        requestConfig.setEncoding(StandardCharsets.UTF_8.name());
+        try {
+            xmlRpcServer.execute(requestConfig, new ServerStreamConnection() {
+                @Override
+                public InputStream newInputStream() {
+                    return request;
+                }
+
+                @Override
+                public OutputStream newOutputStream() {
+                    return response;
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+        } catch (XmlRpcException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static Object handle(final FakeKojiDB kojiDb, final String methodName, final Object parameter) {
+        if (Constants.multicall.equals(methodName)) {
+            return multicall(kojiDb, (Object[]) parameter);
+        }
+        final XmlRpcResponse response;
+        switch (methodName) {
+            case Constants.getPackageID:
+                response = new PackageId(kojiDb.getPkgId(GetPackageId.create(parameter).getPackageName()));
+                break;
+            case Constants.listBuilds:
+                final ListBuilds listBuildsParams = ListBuilds.create(parameter);
+                if (listBuildsParams.getLimit() == null) {
+                    response = new BuildList(kojiDb.getProjectBuilds(listBuildsParams.getPackageId()));
+                } else {
+                    response = new BuildList(kojiDb.getNewestProjectBuilds(
+                            listBuildsParams.getPackageId(),
+                            listBuildsParams.getLimit(),
+                            listBuildsParams.getOffset() == null ? 0 : listBuildsParams.getOffset()
+                    ));
+                }
+                break;
+            case Constants.listTags:
+                response = new TagSet(kojiDb.getTags(ListTags.create(parameter).getBuildId()));
+                break;
+            case Constants.listRPMs:
+                final ListRPMs listRPMsParams = ListRPMs.create(parameter);
+                response = new RPMList(kojiDb.getRpms(listRPMsParams.getBuildId(), listRPMsParams.getArchs()));
+                break;
+            case Constants.listArchives:
+                final ListArchives listArchivesParams = ListArchives.create(parameter);
+                response = new ArchiveList(kojiDb.getArchives(listArchivesParams.getBuildId(), listArchivesParams.getArchs()));
+                break;
+            case Constants.getBuildList:
+                final GetBuildList getBuildListParams = GetBuildList.create(parameter);
+                response = new FakeBuildList(kojiDb.getBuildList(getBuildListParams));
+                break;
+            case Constants.getBuildDetail:
+                final GetBuildDetail getBuildDetailParams = GetBuildDetail.create(parameter);
+                response = new FakeBuildDetail(kojiDb.getBuildDetail(getBuildDetailParams));
+                break;
+            default:
+                return null;
+        }
+        return response.toObject();
+    }
+
+    /**
+     * koji's system.multicall: each call is map of methodName and params, result of each call is returned as one-item
+     * array, or as fault map if the call failed.
+     */
+    private static Object[] multicall(final FakeKojiDB kojiDb, final Object[] calls) {
+        final Object[] results = new Object[calls.length];
+        for (int i = 0; i < calls.length; i++) {
+            try {
+                final Map<String, Object> call = (Map<String, Object>) calls[i];
+                final String methodName = (String) call.get(Constants.methodName);
+                final Object[] params = (Object[]) call.get(Constants.params);
+                if (Constants.multicall.equals(methodName)) {
+                    throw new IllegalArgumentException("Nested " + Constants.multicall + " is not supported");
+                }
+                results[i] = new Object[]{handle(kojiDb, methodName, params == null || params.length == 0 ? null : params[0])};
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Call " + i + " of " + Constants.multicall + " failed", ex);
+                final Map<String, Object> fault = new HashMap<>();
+                fault.put(Constants.faultCode, 1);
+                fault.put(Constants.faultString, ex.toString());
+                results[i] = fault;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Updates the shared DB by just uploaded file, so it does not have to wait for next refresh.
+     */
+    public void artifactArrived(final File file) {
+        final FakeKojiDB db = kojiDb;
+        if (db != null) {
+            db.artifactArrived(file);
+        }
     }
 
     public void stop() {
-        webServer.shutdown();
+        if (pooledServer != null) {
+            pooledServer.stop();
+            pooledServer = null;
+        } else {
+            webServer.shutdown();
+        }
+        if (metricsLogger != null) {
+            metricsLogger.shutdown();
+            metricsLogger = null;
+            logMetrics();
+        }
+        if (dbRefresher != null) {
+            dbRefresher.interrupt();
+            dbRefresher = null;
+        }
     }
 
 }
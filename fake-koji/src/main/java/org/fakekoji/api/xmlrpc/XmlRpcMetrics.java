@@ -0,0 +1,120 @@
+package org.fakekoji.api.xmlrpc;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies of xml-rpc calls per method, and counters of the serving engine (rejected requests, time spent in queue).
+ * <p>
+ * Latencies are counted in buckets of exponentially growing bounds, so percentiles are known only up to the bound of
+ * their bucket, but recording is cheap and lock free.
+ */
+public class XmlRpcMetrics {
+
+    private static final long[] BUCKET_BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private final Map<String, Latencies> methods = new ConcurrentHashMap<>();
+    private final Latencies queueWaits = new Latencies();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param method xml-rpc method name
+     * @param nanos  time spent by the call
+     * @param failed whether the call threw an exception
+     */
+    public void record(final String method, final long nanos, final boolean failed) {
+        methods.computeIfAbsent(method, m -> new Latencies()).record(nanos, failed);
+    }
+
+    void recordQueueWait(final long nanos) {
+        queueWaits.record(nanos, false);
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    public long getCount(final String method) {
+        final Latencies latencies = methods.get(method);
+        return latencies == null ? 0 : latencies.count.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("xml-rpc metrics: rejected " + rejected.sum() + ", queue wait " + queueWaits);
+        for (Map.Entry<String, Latencies> method : new TreeMap<>(methods).entrySet()) {
+            sb.append("\n  ").append(method.getKey()).append(": ").append(method.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static class Latencies {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        // last bucket is for everything over the last bound
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+
+        private void record(final long nanos, final boolean failed) {
+            count.increment();
+            if (failed) {
+                errors.increment();
+            }
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MILLIS.length && millis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+        }
+
+        /**
+         * @return upper bound of bucket containing given percentile, in millis, -1 if it is over the last bound
+         */
+        private long percentile(final double percentile) {
+            long total = 0;
+            for (int bucket = 0; bucket < buckets.length(); bucket++) {
+                total += buckets.get(bucket);
+            }
+            final long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_BOUNDS_MILLIS.length; bucket++) {
+                seen += buckets.get(bucket);
+                if (seen >= rank) {
+                    return BUCKET_BOUNDS_MILLIS[bucket];
+                }
+            }
+            return -1;
+        }
+
+        private static String bound(final long millis) {
+            return millis < 0 ? ">" + BUCKET_BOUNDS_MILLIS[BUCKET_BOUNDS_MILLIS.length - 1] + "ms" : "<" + millis + "ms";
+        }
+
+        @Override
+        public String toString() {
+            final long total = count.sum();
+            if (total == 0) {
+                return "none";
+            }
+            return total + " calls, " + errors.sum() + " failed"
+                    + ", avg " + TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / total) + "us"
+                    + ", p50 " + bound(percentile(0.5))
+                    + ", p99 " + bound(percentile(0.99))
+                    + ", max " + TimeUnit.NANOSECONDS.toMillis(maxNanos.get()) + "ms";
+        }
+    }
+}
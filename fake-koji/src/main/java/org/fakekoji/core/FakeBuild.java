@@ -26,6 +26,7 @@ package org.fakekoji.core;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -39,7 +40,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -64,12 +67,19 @@ public class FakeBuild {
     private final String nvr;
     private final File dir;
     private final ProjectMapping projectMapping;
+    private volatile Snapshot snapshot;
 
     private static final String logs = "logs";
     private static final String data = "data";
     public static final String notBuiltTagPart = "_notBuild-";
     public static final String archesConfigFileName = "arches-expected";
 
+    /**
+     * Snapshot younger then this is used without checking the mtimes at all,
+     * so the burst of calls done by single toBuild() costs no syscalls.
+     */
+    static final long SNAPSHOT_RECHECK_MILLIS = 1000;
+
     public FakeBuild(String name, String version, String release, File releaseDir, ProjectMapping projectMapping) {
         this.dir = releaseDir;
         this.name = name;
@@ -102,6 +112,18 @@ public class FakeBuild {
         return nvr;
     }
 
+    String getName() {
+        return name;
+    }
+
+    String getVersion() {
+        return version;
+    }
+
+    String getRelease() {
+        return release;
+    }
+
     @Override
     public String toString() {
         return getNVR() + " " + getBuildID();
@@ -118,23 +140,7 @@ public class FakeBuild {
     }
 
     public List<File> getLogs(String arch) {
-        File logDir = getLogsDir();
-        List<File> logs = new ArrayList();
-        if (logDir == null) {
-            return logs;
-        }
-        if (!getArches().contains(arch)) {
-            return logs;
-        }
-        File logFinalDir = new File(logDir, arch);
-        if (!logFinalDir.exists()) {
-            return logs;
-        }
-        File[] logfiles = logFinalDir.listFiles(new FileFileFilter());
-        for (File logfile : logfiles) {
-            logs.add(logfile.getAbsoluteFile());
-        }
-        return logs;
+        return new ArrayList<>(getSnapshot().logs.getOrDefault(arch, Collections.emptyList()));
     }
 
     List<File> getNonLogs() {
@@ -148,16 +154,7 @@ public class FakeBuild {
     }
 
     public List<File> getNonLogs(String arch) {
-        List<File> files = new ArrayList();
-        if (!getArches().contains(arch)) {
-            return files;
-        }
-        File finalDir = new File(dir, arch);
-        File[] possibleFfiles = finalDir.listFiles(new FileFileFilter());
-        for (File file : possibleFfiles) {
-            files.add(file.getAbsoluteFile());
-        }
-        return files;
+        return new ArrayList<>(getSnapshot().nonLogs.getOrDefault(arch, Collections.emptyList()));
     }
 
     File getLogsDir() {
@@ -169,16 +166,7 @@ public class FakeBuild {
     }
 
     private File getDataDir() {
-        File[] possibleArchesDirs = dir.listFiles(new DirFilter());
-        //List<String> arches = new ArrayList<>(possibleArchesDirs.length);
-        for (File archDir : possibleArchesDirs) {
-            if (archDir.getName().equalsIgnoreCase(data)) {
-                return archDir;
-            } else {
-
-            }
-        }
-        return null;
+        return getSnapshot().dataDir;
     }
 
     private File getBuildExpectedArches() {
@@ -186,16 +174,44 @@ public class FakeBuild {
     }
 
     public List<String> getArches() {
-        File[] possibleArchesDirs = dir.listFiles(new DirFilter());
-        List<String> arches = new ArrayList<>(possibleArchesDirs.length);
-        for (File archDir : possibleArchesDirs) {
-            if (archDir.getName().equalsIgnoreCase(data)) {
+        return new ArrayList<>(getSnapshot().arches);
+    }
 
-            } else {
-                arches.add(archDir.getName());
+    /**
+     * Drops the cached listing, so next call reads the directory again, even
+     * if it was checked less then {@link #SNAPSHOT_RECHECK_MILLIS} ago.
+     */
+    void invalidateSnapshot() {
+        snapshot = null;
+    }
+
+    /**
+     * Returns listing of this build's directory. The listing is read once and
+     * then reused until mtime of the build directory, or of any of its arch or
+     * logs directories, changes.
+     * <p>
+     * Only mtimes of directories are checked, so file rewritten in place (not
+     * replaced by rename) is not noticed. Values derived from files, like
+     * finishing date (mtime of newest file) or supported arches (content of
+     * {@link #archesConfigFileName} in data directory), then stay stale until
+     * a file is added to or removed from one of those directories, or until
+     * {@link #invalidateSnapshot()} is called.
+     */
+    private Snapshot getSnapshot() {
+        final Snapshot current = snapshot;
+        final long now = System.currentTimeMillis();
+        if (current != null) {
+            if (now - current.checkedAt < SNAPSHOT_RECHECK_MILLIS) {
+                return current;
+            }
+            if (current.stamp == current.computeStamp(dir.lastModified())) {
+                current.checkedAt = now;
+                return current;
             }
         }
-        return arches;
+        final Snapshot fresh = new Snapshot(dir);
+        snapshot = fresh;
+        return fresh;
     }
 
     /**
@@ -347,6 +363,8 @@ public class FakeBuild {
         }
         final List<File> files = getNonLogs();
         final List<RPM> rpms = new ArrayList<>(files.size());
+        // all non-logs live in arch directories of this build, so the verdict is the same for each of them
+        final boolean isFailed = !files.isEmpty() && new IsFailedBuild(dir).reCheck().getLastResult();
         for (File file : files) {
             final String fileName = file.getName();
             String packageName = replaceLast(fileName, "-.*", "");
@@ -354,7 +372,6 @@ public class FakeBuild {
             String packageFile = replaceLast(fileName, "\\..*", ""); //.suffix
             packageFile = replaceLast(packageFile, "\\..*", ""); //.arch
             final String arch = file.getParentFile().getName();
-            final boolean isFailed = new IsFailedBuild(file.getParentFile().getParentFile()).reCheck().getLastResult();
             if (isFailed) {
                 LOGGER.warning(file + " seems to be from failed build!");
             }
@@ -380,15 +397,33 @@ public class FakeBuild {
         return text.replaceFirst("(?s)(.*)" + regex, "$1" + replacement);
     }
 
+    /**
+     * @return modification time of the newest file of this build, or
+     * {@link Long#MIN_VALUE} if the build has no file yet. Unlike
+     * {@link #getFinishingDate()}, it never depends on the current time, so it
+     * can be used as a sort key.
+     */
+    long getCompletionTime() {
+        final Snapshot current = getSnapshot();
+        Long finishingDate = current.finishingDate;
+        if (finishingDate == null) {
+            File f = getNewestFile();
+            if (f == null) {
+                return Long.MIN_VALUE;
+            }
+            finishingDate = f.lastModified();
+            current.finishingDate = finishingDate;
+        }
+        return finishingDate;
+    }
+
     public Date getFinishingDate() {
-        File f = getNewestFile();
-        if (f == null) {
+        final long completionTime = getCompletionTime();
+        if (completionTime == Long.MIN_VALUE) {
             //keep running?
             return new Date();
-        } else {
-            return new Date(f.lastModified());
         }
-
+        return new Date(completionTime);
     }
 
     private File getNewestFile() {
@@ -422,6 +457,16 @@ public class FakeBuild {
      */
 
     private String[] getSupportedArches() throws ProjectMappingExceptions.ProjectMappingException {
+        final Snapshot current = getSnapshot();
+        String[] arches = current.supportedArches;
+        if (arches == null) {
+            arches = readSupportedArches();
+            current.supportedArches = arches;
+        }
+        return arches.clone();
+    }
+
+    private String[] readSupportedArches() throws ProjectMappingExceptions.ProjectMappingException {
         LOGGER.info("For: " + getNVR());
         String[] arches;
         File archesFile = getBuildExpectedArches();
@@ -526,6 +571,81 @@ public class FakeBuild {
         return dir;
     }
 
+    /**
+     * Immutable listing of build directory plus lazily filled values derived
+     * from it.
+     */
+    private static final class Snapshot {
+
+        private final File dir;
+        private final List<String> arches;
+        private final File dataDir;
+        private final Map<String, List<File>> nonLogs;
+        private final Map<String, List<File>> logs;
+        private final long stamp;
+        private volatile long checkedAt;
+        private volatile String[] supportedArches;
+        private volatile Long finishingDate;
+
+        private Snapshot(File dir) {
+            this.dir = dir;
+            // mtimes are read before listings, so change during listing is caught by next check
+            final long dirModified = dir.lastModified();
+            final List<File> subDirs = listFiles(dir, new DirFilter());
+            File dataDir = null;
+            final List<String> arches = new ArrayList<>(subDirs.size());
+            for (File archDir : subDirs) {
+                if (archDir.getName().equalsIgnoreCase(data)) {
+                    dataDir = archDir;
+                } else {
+                    arches.add(archDir.getName());
+                }
+            }
+            this.dataDir = dataDir;
+            this.arches = Collections.unmodifiableList(arches);
+            this.stamp = computeStamp(dirModified);
+            this.checkedAt = System.currentTimeMillis();
+            final File logsDir = dataDir == null ? null : new File(dataDir, FakeBuild.logs);
+            final Map<String, List<File>> nonLogs = new HashMap<>();
+            final Map<String, List<File>> logs = new HashMap<>();
+            for (String arch : arches) {
+                nonLogs.put(arch, Collections.unmodifiableList(listFiles(new File(dir, arch), new FileFileFilter())));
+                if (logsDir != null) {
+                    logs.put(arch, Collections.unmodifiableList(listFiles(new File(logsDir, arch), new FileFileFilter())));
+                }
+            }
+            this.nonLogs = nonLogs;
+            this.logs = logs;
+        }
+
+        private long computeStamp(long dirModified) {
+            long result = dirModified;
+            for (String arch : arches) {
+                result = 31 * result + new File(dir, arch).lastModified();
+            }
+            if (dataDir != null) {
+                final File logsDir = new File(dataDir, FakeBuild.logs);
+                result = 31 * result + dataDir.lastModified();
+                for (String arch : arches) {
+                    result = 31 * result + new File(logsDir, arch).lastModified();
+                }
+            }
+            return result;
+        }
+
+        private static List<File> listFiles(File dir, FileFilter filter) {
+            final File[] files = dir.listFiles(filter);
+            if (files == null) {
+                return Collections.emptyList();
+            }
+            final List<File> result = new ArrayList<>(files.length);
+            for (File file : files) {
+                result.add(file.getAbsoluteFile());
+            }
+            return result;
+        }
+    }
+
     public static void main(String... arg) throws IOException {
         //arg = new String[]{"/mnt/raid1/upstream-repos/java-9-openjdk/" + archesConfigFileName};
         if (arg.length == 0) {
@@ -37,70 +37,302 @@ import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.GetBuildList;
 import java.io.File;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Hart beat of fake koji. This class works over directory, with similar
  * structure as koji have, and is trying to deduct informations just on content
  * and names. On those deductions it offers its content and even tags.
+ * <p>
+ * The directory tree is scanned only once. Afterwards builds are kept in
+ * memory, indexed by id and by package, and {@link #refresh()} re-lists only
+ * those project and version directories whose modification time changed.
  */
 public class FakeKojiDB {
 
     private static final Logger LOGGER = Logger.getLogger(JavaServerConstants.FAKE_KOJI_LOGGER);
 
-    private final String[] projects;
-    private final List<FakeBuild> builds;
+    /**
+     * Directories modified less than this before the scan are listed again on
+     * next refresh, as another entry may still land in the same mtime tick.
+     */
+    private static final long RACY_MTIME_WINDOW_MILLIS = 2000;
+
+    /**
+     * Threads evaluating single getBuildList request without limit. Pool is
+     * shared by all requests, so concurrent polls can not starve the server.
+     * One or less (the default) means sequential evaluation in the calling
+     * thread. Requests with limit are always evaluated sequentially, as
+     * ordered parallel stream would evaluate the expensive checks even of
+     * builds after the limit.
+     */
+    private static final int BUILD_LIST_PARALLELISM = Integer.getInteger(
+            "otool.fakekoji.buildList.parallelism",
+            1
+    );
+    private static final ForkJoinPool BUILD_LIST_POOL = BUILD_LIST_PARALLELISM > 1 ? new ForkJoinPool(BUILD_LIST_PARALLELISM) : null;
+
+    /**
+     * File in the config root, where verdicts of {@link IsFailedBuild} are
+     * persisted between restarts.
+     */
+    private static final String VERDICTS_FILE = ".failed-build-verdicts";
+
+    private static final String VERSION_CHUNKS_REGEX = "[^a-zA-Z0-9]+|(?<=[0-9])(?=[a-zA-Z])|(?<=[a-zA-Z])(?=[0-9])";
+
+    static final Comparator<FakeBuild> BY_VERSION = Comparator
+            .comparing(FakeBuild::getName)
+            .thenComparing(FakeBuild::getVersion, FakeKojiDB::compareVersionStrings)
+            .thenComparing(FakeBuild::getRelease, FakeKojiDB::compareVersionStrings)
+            .thenComparing(build -> build.getDir().getAbsolutePath());
+
+    private final Set<String> projects = new ConcurrentSkipListSet<>();
+    private final Map<Integer, FakeBuild> buildsById = new ConcurrentHashMap<>();
+    private final Map<Integer, NavigableSet<FakeBuild>> buildsByPackage = new ConcurrentHashMap<>();
+    // guarded by this
+    private final Map<File, FakeBuild> buildsByDir = new HashMap<>();
+    private final Map<File, Long> dirStamps = new HashMap<>();
+    private final Map<File, List<File>> dirChildren = new HashMap<>();
     private final AccessibleSettings settings;
+    private final Object refreshSignal = new Object();
+    // guarded by refreshSignal
+    private boolean refreshRequested = false;
 
     public FakeKojiDB(AccessibleSettings settings) {
         LOGGER.info("(re)initizing fake koji DB");
         this.settings = settings;
-        File[] projectDirs = settings.getDbFileRoot().listFiles(new DirFilter());
-        projects = new String[projectDirs.length];
-        builds = new ArrayList<>();
+        final File configRoot = settings.getConfigRoot();
+        if (configRoot != null && configRoot.isDirectory()) {
+            // outside of the builds root, which is served as it is
+            IsFailedBuild.persistTo(new File(configRoot, VERDICTS_FILE));
+        }
+        refresh();
+        LOGGER.info("fake koji DB initialized with " + buildsById.size() + " builds in " + projects.size() + " projects");
+    }
+
+    /**
+     * Synchronizes the in-memory index with the builds root. Only directories
+     * whose mtime changed since last call are listed again, so new or removed
+     * builds appear without rescanning whole tree.
+     *
+     * @return number of added plus removed builds
+     */
+    public synchronized int refresh() {
+        final long scanStart = System.currentTimeMillis();
+        final File root = settings.getDbFileRoot();
+        final Set<File> seenDirs = new HashSet<>();
+        seenDirs.add(root);
+        final Set<String> seenProjects = new HashSet<>();
+        int changes = 0;
         //read all projects
-        for (int i = 0; i < projectDirs.length; i++) {
-            File projectDir = projectDirs[i];
-            projects[i] = projectDir.getName();
+        for (File projectDir : listDirs(root, scanStart)) {
+            seenProjects.add(projectDir.getName());
+            seenDirs.add(projectDir);
             //and all builds in those project
-            File[] versions = projectDir.listFiles(new DirFilter());
-            for (File version : versions) {
-                File[] releases = version.listFiles(new DirFilter());
-                for (File release : releases) {
-                    FakeBuild b = new FakeBuild(projectDir.getName(), version.getName(), release.getName(), release, settings.getProjectMapping());
-                    builds.add(b);
+            for (File version : listDirs(projectDir, scanStart)) {
+                seenDirs.add(version);
+                for (File release : listDirs(version, scanStart)) {
+                    seenDirs.add(release);
+                    if (!buildsByDir.containsKey(release)) {
+                        add(new FakeBuild(projectDir.getName(), version.getName(), release.getName(), release, settings.getProjectMapping()));
+                        changes++;
+                    }
+                }
+            }
+        }
+        final Iterator<Map.Entry<File, FakeBuild>> builds = buildsByDir.entrySet().iterator();
+        while (builds.hasNext()) {
+            final Map.Entry<File, FakeBuild> entry = builds.next();
+            if (!seenDirs.contains(entry.getKey())) {
+                builds.remove();
+                remove(entry.getValue());
+                changes++;
+            }
+        }
+        dirStamps.keySet().retainAll(seenDirs);
+        dirChildren.keySet().retainAll(seenDirs);
+        projects.retainAll(seenProjects);
+        projects.addAll(seenProjects);
+        if (changes > 0) {
+            LOGGER.info("fake koji DB refreshed, " + changes + " builds added or removed in " + (System.currentTimeMillis() - scanStart) + "ms");
+        }
+        return changes;
+    }
+
+    /**
+     * Starts daemon thread which keeps this DB in sync with the builds root.
+     * The thread refreshes the DB every period, or sooner, if
+     * {@link #requestRefresh()} was called meanwhile. Interrupt the returned
+     * thread to stop it.
+     *
+     * @param periodMillis delay between two refreshes
+     * @return the started thread
+     */
+    public Thread startRefresher(final long periodMillis) {
+        Thread t = new Thread(() -> {
+            while (true) {
+                try {
+                    synchronized (refreshSignal) {
+                        if (!refreshRequested) {
+                            refreshSignal.wait(periodMillis);
+                        }
+                        refreshRequested = false;
+                    }
+                    refresh();
+                } catch (InterruptedException e) {
+                    LOGGER.info("fake koji DB refresher interrupted");
+                    return;
+                } catch (Exception e) {
+                    LOGGER.warning("Failed to refresh fake koji DB: " + e.getMessage());
                 }
             }
+        }, "fakeKojiDbRefresher");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    /**
+     * Wakes up the refresher (see {@link #startRefresher(long)}), e.g. when
+     * new build was uploaded. Requests coming before the refresher wakes up
+     * are coalesced into single refresh.
+     */
+    public void requestRefresh() {
+        synchronized (refreshSignal) {
+            refreshRequested = true;
+            refreshSignal.notifyAll();
+        }
+    }
+
+    /**
+     * Updates the index by single file, which has just arrived to the builds
+     * root, without listing any directory. Build of unknown release directory
+     * is added, snapshot of known one is dropped, so its new content is seen
+     * immediately. File out of the project/version/release/... structure only
+     * requests full refresh.
+     *
+     * @param file absolute path of the arrived file
+     */
+    public synchronized void artifactArrived(File file) {
+        final Path root = settings.getDbFileRoot().toPath().toAbsolutePath().normalize();
+        final Path path = file.toPath().toAbsolutePath().normalize();
+        if (!path.startsWith(root) || root.relativize(path).getNameCount() < 4) {
+            requestRefresh();
+            return;
+        }
+        final Path relative = root.relativize(path);
+        final String project = relative.getName(0).toString();
+        final String version = relative.getName(1).toString();
+        final String release = relative.getName(2).toString();
+        final File releaseDir = new File(new File(new File(settings.getDbFileRoot(), project), version), release);
+        final FakeBuild known = buildsByDir.get(releaseDir);
+        if (known != null) {
+            known.invalidateSnapshot();
+            return;
+        }
+        add(new FakeBuild(project, version, release, releaseDir, settings.getProjectMapping()));
+        projects.add(project);
+        LOGGER.info("fake koji DB indexed new build " + project + "-" + version + "-" + release + " on arrival of " + file.getName());
+    }
+
+    private List<File> listDirs(File dir, long scanStart) {
+        final Long known = dirStamps.get(dir);
+        final List<File> cached = dirChildren.get(dir);
+        if (known != null && cached != null && known == dir.lastModified()) {
+            return cached;
+        }
+        final long stamp = dirStampOf(dir, scanStart);
+        final File[] listed = dir.listFiles(new DirFilter());
+        final List<File> children = listed == null ? Collections.emptyList() : Arrays.asList(listed);
+        dirStamps.put(dir, stamp);
+        dirChildren.put(dir, children);
+        return children;
+    }
+
+    private static long dirStampOf(File dir, long scanStart) {
+        final long modified = dir.lastModified();
+        if (modified > scanStart - RACY_MTIME_WINDOW_MILLIS) {
+            // too fresh to be trusted, force listing on next refresh
+            return -1;
+        }
+        return modified;
+    }
+
+    private void add(FakeBuild build) {
+        buildsByDir.put(build.getDir(), build);
+        buildsById.put(build.getBuildID(), build);
+        buildsByPackage.computeIfAbsent(build.getProjectID(), id -> new ConcurrentSkipListSet<>(BY_VERSION)).add(build);
+    }
 
+    private void remove(FakeBuild build) {
+        buildsById.remove(build.getBuildID(), build);
+        IsFailedBuild.forget(build.getDir());
+        final NavigableSet<FakeBuild> packageBuilds = buildsByPackage.get(build.getProjectID());
+        if (packageBuilds != null) {
+            packageBuilds.remove(build);
         }
+    }
 
+    /**
+     * @return all known builds, ordered by package and version
+     */
+    List<FakeBuild> getBuilds() {
+        return buildsByPackage.values()
+                .stream()
+                .flatMap(Collection::stream)
+                .sorted(BY_VERSION)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param projectId id of package as returned by {@link #getPkgId(String)}
+     * @return builds of given package, oldest version first
+     */
+    NavigableSet<FakeBuild> getBuildsSortedByVersion(Integer projectId) {
+        final NavigableSet<FakeBuild> packageBuilds = projectId == null ? null : buildsByPackage.get(projectId);
+        if (packageBuilds == null) {
+            return Collections.emptyNavigableSet();
+        }
+        return Collections.unmodifiableNavigableSet(packageBuilds);
     }
 
     public Integer getPkgId(String requestedProject) {
-        StringBuilder triedProjects = new StringBuilder();
-        for (String project : projects) {
-            triedProjects.append(" ").append(project);
-            if (project.equals(requestedProject)) {
-                //is there better str->int function?
-                //indeed, the file. But number of projects is small.
-                return project.hashCode();
-            }
+        if (projects.contains(requestedProject)) {
+            //is there better str->int function?
+            //indeed, the file. But number of projects is small.
+            return requestedProject.hashCode();
         }
-        LOGGER.info("Unknown project " + requestedProject + ". Tried: " + triedProjects + ".");
+        LOGGER.info("Unknown project " + requestedProject + ". Tried: " + String.join(" ", projects) + ".");
         return null;
     }
 
     public List<Build> getProjectBuilds(Integer projectId, Set<String> fakeTags) {
         List<Build> projectBuilds = new ArrayList<>();
-        for (FakeBuild build : builds) {
-            if (build.getProjectID() == projectId && isOkForOldApi(build)) {
+        for (FakeBuild build : getBuildsSortedByVersion(projectId)) {
+            if (isOkForOldApi(build)) {
                 if (new IsFailedBuild(build.getDir()).reCheck().getLastResult()) {
                     LOGGER.info("Removing build " + build.toString() + " from result. Contains FAILED records");
                     continue;
@@ -119,13 +351,48 @@ public class FakeKojiDB {
         return getProjectBuilds(projectId, null);
     }
 
-    FakeBuild getBuildById(Integer buildId) {
-        for (FakeBuild build : builds) {
-            if (build.getBuildID() == buildId) {
-                return build;
+    /**
+     * As koji's listBuilds with queryOpts ordered by -completion_time, limit
+     * and offset. Completion time of every build of the project is read once
+     * per call (from the build's cached listing, so mostly without touching
+     * the disk), but the expensive check for being failed is done only until
+     * the page is full. Builds without any file are ordered last.
+     */
+    public List<Build> getNewestProjectBuilds(Integer projectId, int limit, int offset) {
+        final List<FakeBuild> candidates = new ArrayList<>(getBuildsSortedByVersion(projectId));
+        // one key per build, so the comparator stays consistent even if the tree changes meanwhile
+        final Map<FakeBuild, Long> completionTimes = new IdentityHashMap<>(candidates.size());
+        for (FakeBuild build : candidates) {
+            completionTimes.put(build, build.getCompletionTime());
+        }
+        candidates.sort(Comparator.comparing(completionTimes::get, Comparator.reverseOrder()));
+        final List<Build> projectBuilds = new ArrayList<>(limit);
+        int skipped = 0;
+        for (FakeBuild build : candidates) {
+            if (projectBuilds.size() >= limit) {
+                break;
+            }
+            if (!isOkForOldApi(build)) {
+                continue;
             }
+            if (new IsFailedBuild(build.getDir()).reCheck().getLastResult()) {
+                LOGGER.info("Removing build " + build.toString() + " from result. Contains FAILED records");
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            projectBuilds.add(build.toBuild());
         }
-        return null;
+        return projectBuilds;
+    }
+
+    FakeBuild getBuildById(Integer buildId) {
+        if (buildId == null) {
+            return null;
+        }
+        return buildsById.get(buildId);
     }
 
     /**
@@ -138,12 +405,43 @@ public class FakeKojiDB {
      */
 
     public Set<String> getTags(Integer buildId) {
-        for (FakeBuild build : builds) {
-            if (build.getBuildID() == buildId) {
-                return build.getTags();
+        final FakeBuild build = getBuildById(buildId);
+        if (build == null) {
+            return Collections.emptySet();
+        }
+        return build.getTags();
+    }
+
+    /**
+     * Compares version or release strings chunk by chunk, numeric chunks
+     * numerically, so 1.8.0.10 is newer then 1.8.0.9.
+     */
+    static int compareVersionStrings(String s1, String s2) {
+        final String[] chunks1 = s1.split(VERSION_CHUNKS_REGEX);
+        final String[] chunks2 = s2.split(VERSION_CHUNKS_REGEX);
+        final int min = Math.min(chunks1.length, chunks2.length);
+        for (int i = 0; i < min; i++) {
+            final int compare = compareVersionChunks(chunks1[i], chunks2[i]);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return chunks1.length - chunks2.length;
+    }
+
+    private static int compareVersionChunks(String c1, String c2) {
+        final boolean numeric1 = !c1.isEmpty() && c1.chars().allMatch(Character::isDigit);
+        final boolean numeric2 = !c2.isEmpty() && c2.chars().allMatch(Character::isDigit);
+        if (numeric1 && numeric2) {
+            // compare without parsing, chunks may overflow long
+            final String n1 = c1.replaceFirst("^0+(?=.)", "");
+            final String n2 = c2.replaceFirst("^0+(?=.)", "");
+            if (n1.length() != n2.length()) {
+                return n1.length() - n2.length();
             }
+            return n1.compareTo(n2);
         }
-        return Collections.emptySet();
+        return c1.compareTo(c2);
     }
 /*
     void checkAll() {
@@ -247,6 +545,12 @@ public class FakeKojiDB {
 
     //n,v,r,
     //*.tarxz else oldApi
+    /**
+     * Builds matching the request, newest version first (the order used to be
+     * the order of directory listing, which is not defined). If the request
+     * has limit, only that many newest builds are returned, and evaluation
+     * stops as soon as they are found.
+     */
     public List<Build> getBuildList(GetBuildList params) {
 
         final BuildHelper buildHelper;
@@ -270,29 +574,29 @@ public class FakeKojiDB {
         //use this when yoou need to decomposer the terrible streweam atthe bottom
         //issue is msotly in getBuildParser at a9
         if (debug) {
-            List a1 = builds.stream()
+            List a1 = getBuilds().stream()
                     .map(FakeBuild::getNVR)
                     .collect(Collectors.toList());
             System.out.println("DEBUG ON! Performance down...stream intermediate size: " + a1.size());
-            List a2 = builds.stream()
+            List a2 = getBuilds().stream()
                     .map(FakeBuild::getNVR)
                     .map(nvr -> buildHelper.getOToolParser().parseBuild(nvr))
                     .collect(Collectors.toList());
             System.out.println("DEBUG ON! Performance down...stream intermediate size: " + a2.size());
-            List a3 = builds.stream()
+            List a3 = getBuilds().stream()
                     .map(FakeBuild::getNVR)
                     .map(nvr -> buildHelper.getOToolParser().parseBuild(nvr))
                     .filter(Result::isOk)
                     .collect(Collectors.toList());
             System.out.println("DEBUG ON! Performance down...stream intermediate size: " + a3.size());
-            List a4 = builds.stream()
+            List a4 = getBuilds().stream()
                     .map(FakeBuild::getNVR)
                     .map(nvr -> buildHelper.getOToolParser().parseBuild(nvr))
                     .filter(Result::isOk)
                     .map(Result::getValue)
                     .collect(Collectors.toList());
             System.out.println("DEBUG ON! Performance down...stream intermediate size: " + a4.size());
-            List a5 = builds.stream()
+            List a5 = getBuilds().stream()
                     .map(FakeBuild::getNVR)
                     .map(nvr -> buildHelper.getOToolParser().parseBuild(nvr))
                     .filter(Result::isOk)
@@ -300,7 +604,7 @@ public class FakeKojiDB {
                     .filter(buildHelper.getPackageNamePredicate())
                     .collect(Collectors.toList());
             System.out.println("DEBUG ON! Performance down...stream intermediate size: " + a5.size());
-            List a6 = builds.stream()
+            List a6 = getBuilds().stream()
                     .map(FakeBuild::getNVR)
                     .map(nvr -> buildHelper.getOToolParser().parseBuild(nvr))
                     .filter(Result::isOk)
@@ -308,7 +612,7 @@ public class FakeKojiDB {
                     .filter(buildHelper.getPackageNamePredicate())
                     .collect(Collectors.toList());
             System.out.println("DEBUG ON! Performance down...stream intermediate size: " + a6.size());
-            List a7 =  builds.stream()
+            List a7 =  getBuilds().stream()
                     .map(FakeBuild::getNVR)
                     .map(nvr -> buildHelper.getOToolParser().parseBuild(nvr))
                     .filter(Result::isOk)
@@ -317,7 +621,7 @@ public class FakeKojiDB {
                     .filter(buildHelper.getProjectNamePredicate())
                     .collect(Collectors.toList());
             System.out.println("DEBUG ON! Performance down...stream intermediate size: " + a7.size());
-            List a8 = builds.stream()
+            List a8 = getBuilds().stream()
                     .map(FakeBuild::getNVR)
                     .map(nvr -> buildHelper.getOToolParser().parseBuild(nvr))
                     .filter(Result::isOk)
@@ -327,7 +631,7 @@ public class FakeKojiDB {
                     .filter(buildHelper.getBuildPlatformPredicate())
                     .collect(Collectors.toList());
             System.out.println("DEBUG ON! Performance down...stream intermediate size: " + a8.size());
-            List a9 = builds.stream()
+            List a9 = getBuilds().stream()
                     .map(FakeBuild::getNVR)
                     .map(nvr -> buildHelper.getOToolParser().parseBuild(nvr))
                     .filter(Result::isOk)
@@ -338,7 +642,7 @@ public class FakeKojiDB {
                     .map(buildHelper.getBuildParser())
                     .collect(Collectors.toList());
             System.out.println("DEBUG ON! Performance down...stream intermediate size: " + a9.size());
-            List a10 = builds.stream()
+            List a10 = getBuilds().stream()
                     .map(FakeBuild::getNVR)
                     .map(nvr -> buildHelper.getOToolParser().parseBuild(nvr))
                     .filter(Result::isOk)
@@ -350,7 +654,7 @@ public class FakeKojiDB {
                     .filter(Optional::isPresent)
                     .collect(Collectors.toList());
             System.out.println("DEBUG ON! Performance down...stream intermediate size: " + a10.size());
-            List a11 = builds.stream()
+            List a11 = getBuilds().stream()
                     .map(FakeBuild::getNVR)
                     .map(nvr -> buildHelper.getOToolParser().parseBuild(nvr))
                     .filter(Result::isOk)
@@ -364,18 +668,44 @@ public class FakeKojiDB {
                     .collect(Collectors.toList());
             System.out.println("DEBUG ON! Performance down...stream intermediate size: " + a11.size());
         }
-        return builds.stream()
+        // newest first, so limited request can stop as soon as it has enough
+        final List<FakeBuild> candidates = getBuilds();
+        Collections.reverse(candidates);
+        final long limit = params.getLimit() == null || params.getLimit() <= 0 ? Long.MAX_VALUE : params.getLimit();
+        final Function<Stream<FakeBuild>, List<Build>> evaluation = builds -> builds
+                // release always ends with project name, no need to parse anything else
+                .filter(build -> build.getRelease().endsWith('.' + params.getProjectName()))
                 .map(FakeBuild::getNVR)
                 .map(nvr -> buildHelper.getOToolParser().parseBuild(nvr))
                 .filter(Result::isOk)
                 .map(Result::getValue)
                 .filter(buildHelper.getPackageNamePredicate())
                 .filter(buildHelper.getProjectNamePredicate())
+                // only now touching the file system
                 .filter(buildHelper.getBuildPlatformPredicate())
                 .map(buildHelper.getBuildParser())
                 .filter(Optional::isPresent)
                 .map(Optional::get)
+                .limit(limit)
                 .collect(Collectors.toList());
+        final List<Build> result;
+        if (BUILD_LIST_POOL == null || limit != Long.MAX_VALUE) {
+            // sequential stream stops evaluating with the limit-th build
+            result = evaluation.apply(candidates.stream());
+        } else {
+            try {
+                result = BUILD_LIST_POOL.submit(() -> evaluation.apply(candidates.parallelStream())).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("getBuildList(" + params + "): " + result.size() + " builds, parse cache " + buildHelper.getOToolParser().getCacheStatistics());
+        }
+        return result;
     }
 
 
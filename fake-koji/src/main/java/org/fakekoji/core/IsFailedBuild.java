@@ -27,11 +27,22 @@ import org.fakekoji.xmlrpc.server.JavaServerConstants;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -42,6 +53,37 @@ public class IsFailedBuild {
 
     private static final Logger LOGGER = Logger.getLogger(JavaServerConstants.FAKE_KOJI_LOGGER);
 
+    /**
+     * Depth (relative to the release directory) up to which modification times are collected into the verdict stamp.
+     * Covers arch directories with their archives and data/logs/arch directories, but not the (numerous) log files
+     * themselves. Log files are uploaded whole, so their creation is visible as a change of the data/logs/arch
+     * directory.
+     */
+    private static final int STAMP_DEPTH = 3;
+    /**
+     * Verdicts of trees modified more recently than this are not cached, as files may still be being written into
+     * them.
+     */
+    static final long VERDICT_SETTLE_MILLIS = Long.getLong("otool.fakekoji.failedVerdict.settleMillis", 60_000L);
+    /**
+     * Maximal number of cached verdicts, least recently used ones are forgotten first.
+     */
+    static final int MAX_VERDICTS = Integer.getInteger("otool.fakekoji.failedVerdict.max", 100_000);
+    /**
+     * Verdicts by absolute path of the release directory. Nothing is written into the builds root, so it can be read
+     * only, and its listings and modification times are not affected. Instead, verdicts are appended to
+     * {@link #verdictsFile} (if set), so they survive restart.
+     */
+    private static final Map<String, Verdict> VERDICTS = Collections.synchronizedMap(
+            new LinkedHashMap<String, Verdict>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Verdict> eldest) {
+                    return size() > MAX_VERDICTS;
+                }
+            });
+    // guarded by IsFailedBuild.class
+    private static File verdictsFile;
+
     private final File dir;
     boolean lastResult = false;
 
@@ -55,14 +97,124 @@ public class IsFailedBuild {
 
     public IsFailedBuild reCheck() {
         try {
-            mayBeFailedImpl();
+            final long stamp = newestModification();
+            final String key = dir.getAbsolutePath();
+            final Verdict cached = VERDICTS.get(key);
+            if (cached != null && cached.stamp == stamp) {
+                lastResult = cached.failed;
+                return this;
+            }
+            lastResult = mayBeFailedImpl();
+            if (System.currentTimeMillis() - stamp > VERDICT_SETTLE_MILLIS) {
+                final Verdict verdict = new Verdict(stamp, lastResult);
+                if (!verdict.equals(VERDICTS.put(key, verdict))) {
+                    persist(key, verdict);
+                }
+            }
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
         return this;
     }
 
-    private void mayBeFailedImpl() throws IOException {
+    /**
+     * Loads verdicts persisted in given file and appends all new ones to it. The file is rewritten on load, keeping
+     * only the last verdict of each release directory which still exists. Should be outside of the builds root, so
+     * it is not served with builds.
+     *
+     * @param file file with verdicts, e.g. in the config root, created if it does not exist
+     */
+    public static synchronized void persistTo(File file) {
+        verdictsFile = null;
+        final Map<String, Verdict> loaded = new LinkedHashMap<>();
+        if (file.isFile()) {
+            try {
+                final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    // stamp, verdict and path, which is last as it can contain spaces
+                    final String[] parts = line.split(" ", 3);
+                    if (parts.length == 3 && new File(parts[2]).isDirectory()) {
+                        loaded.remove(parts[2]);
+                        loaded.put(parts[2], new Verdict(Long.parseLong(parts[0]), Boolean.parseBoolean(parts[1])));
+                    }
+                }
+            } catch (IOException | NumberFormatException ex) {
+                LOGGER.log(Level.WARNING, "Unable to read verdicts from " + file.getAbsolutePath(), ex);
+            }
+        }
+        VERDICTS.putAll(loaded);
+        final File tmp = new File(file.getPath() + ".tmp");
+        try {
+            final StringBuilder content = new StringBuilder();
+            synchronized (VERDICTS) {
+                for (Map.Entry<String, Verdict> entry : VERDICTS.entrySet()) {
+                    if (loaded.containsKey(entry.getKey()) || new File(entry.getKey()).isDirectory()) {
+                        content.append(toLine(entry.getKey(), entry.getValue()));
+                    }
+                }
+            }
+            Files.write(tmp.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            verdictsFile = file;
+            LOGGER.info("Loaded " + loaded.size() + " failed build verdicts from " + file.getAbsolutePath());
+        } catch (IOException ex) {
+            // verdicts are still cached in memory, only restart will have to walk the trees again
+            LOGGER.log(Level.WARNING, "Unable to write verdicts to " + file.getAbsolutePath(), ex);
+        }
+    }
+
+    static synchronized void stopPersisting() {
+        verdictsFile = null;
+    }
+
+    /**
+     * Forgets verdict of removed release directory. The persisted one is dropped on next {@link #persistTo(File)}.
+     */
+    public static void forget(File dir) {
+        VERDICTS.remove(dir.getAbsolutePath());
+    }
+
+    private static synchronized void persist(String key, Verdict verdict) {
+        if (verdictsFile == null) {
+            return;
+        }
+        try {
+            Files.write(verdictsFile.toPath(), toLine(key, verdict).getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to write verdict to " + verdictsFile.getAbsolutePath(), ex);
+        }
+    }
+
+    private static String toLine(String key, Verdict verdict) {
+        return verdict.stamp + " " + verdict.failed + " " + key + "\n";
+    }
+
+    private long newestModification() throws IOException {
+        final long[] newest = {Long.MIN_VALUE};
+        Files.walkFileTree(dir.toPath(), EnumSet.noneOf(FileVisitOption.class), STAMP_DEPTH, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                newest[0] = Math.max(newest[0], attrs.lastModifiedTime().toMillis());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                newest[0] = Math.max(newest[0], attrs.lastModifiedTime().toMillis());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return newest[0];
+    }
+
+    private boolean mayBeFailedImpl() throws IOException {
+        final boolean[] failed = {false};
         Files.walkFileTree(dir.toPath(), new FileVisitor<Path>() {
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
@@ -71,27 +223,27 @@ public class IsFailedBuild {
 
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if (!file.toFile().isDirectory()) {
+                // attributes of links are not followed by the walker, so ask the target itself
+                final boolean isLink = attrs.isSymbolicLink();
+                if (!(isLink ? file.toFile().isDirectory() : attrs.isDirectory())) {
                     if (file.getFileName().endsWith("FAILED")) {
                         LOGGER.info("Found file ending with FAILED - " + file.toFile().getAbsoluteFile());
-                        lastResult = true;
-                    }
-                    if (file.getFileName().endsWith("ERROR")) {
+                        failed[0] = true;
+                    } else if (file.getFileName().endsWith("ERROR")) {
                         LOGGER.info("Found file ending with ERROR - " + file.toFile().getAbsoluteFile());
-                        lastResult = true;
-                    }
+                        failed[0] = true;
                     //most files have VERY long names. Shjortest known name is hg.log, anything shorter is probably error
-                    if (file.getFileName().toString().length() < 5) {
+                    } else if (file.getFileName().toString().length() < 5) {
                         LOGGER.info("Found filename shorter then 5 chars - " + file.toFile().getAbsoluteFile());
-                        lastResult = true;
-                    }
+                        failed[0] = true;
                     //most files have huge. Even logs.  Empty files are mostly just touches signalizing something wrong
-                    if (file.toFile().length() <= 5) {
+                    } else if ((isLink ? file.toFile().length() : attrs.size()) <= 5) {
                         LOGGER.info("Found file size smaller then 5 bytes - " + file.toFile().getAbsoluteFile());
-                        lastResult = true;
+                        failed[0] = true;
                     }
                 }
-                return FileVisitResult.CONTINUE;
+                // one hit is enough, no need to walk the rest of the (log heavy) tree
+                return failed[0] ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
             }
 
             @Override
@@ -104,6 +256,35 @@ public class IsFailedBuild {
                 return FileVisitResult.CONTINUE;
             }
         });
+        return failed[0];
+    }
+
+    private static final class Verdict {
+
+        private final long stamp;
+        private final boolean failed;
+
+        private Verdict(long stamp, boolean failed) {
+            this.stamp = stamp;
+            this.failed = failed;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Verdict)) {
+                return false;
+            }
+            final Verdict verdict = (Verdict) o;
+            return stamp == verdict.stamp && failed == verdict.failed;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(stamp) * 31 + Boolean.hashCode(failed);
+        }
     }
 
 }
@@ -292,7 +292,7 @@ public class BuildHelper {
                 .flatMap(List::stream)
                 .collect(Collectors.toSet());
 
-        final OToolParser parser = new OToolParser(
+        final OToolParser parser = OToolParser.cached(
                 configManager.jdkProjectManager.readAll(),
                 configManager.jdkVersionManager.readAll(),
                 buildTaskVariants
@@ -28,12 +28,22 @@ import java.io.FileFilter;
 
 public class FileFileFilter implements FileFilter {
 
+    /**
+     * Suffix of hidden temporary files of uploads in progress, which are not
+     * accepted.
+     */
+    public static final String PARTIAL_UPLOAD_SUFFIX = ".part";
+
     public FileFileFilter() {
     }
 
     @Override
     public boolean accept(File pathname) {
-        return !pathname.isDirectory();
+        return !pathname.isDirectory() && !isPartialUpload(pathname.getName());
+    }
+
+    public static boolean isPartialUpload(String name) {
+        return name.startsWith(".") && name.endsWith(PARTIAL_UPLOAD_SUFFIX);
     }
 
 }
@@ -10,38 +10,131 @@ import org.fakekoji.model.OToolArchive;
 import org.fakekoji.model.OToolBuild;
 import org.fakekoji.model.TaskVariant;
 import org.fakekoji.storage.StorageException;
+import org.fakekoji.xmlrpc.server.JavaServerConstants;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import static org.fakekoji.jobmanager.JenkinsJobTemplateBuilder.SOURCES;
 
 public class OToolParser {
 
+    private static final Logger LOGGER = Logger.getLogger(JavaServerConstants.FAKE_KOJI_LOGGER);
+
     static final String WRONG_FORMAT = "Wrong format: ";
     static final String UNKNOWN_PACKAGE_NAME_ERROR = "unknown package name";
     static final String DASH_SPLIT_ERROR = WRONG_FORMAT + "not marching N-V-R";
     static final String UNKNOWN_PROJECT_NAME_ERROR = "unknown project name: ";
     static final String CHANGE_SET_OR_PROJECT_NAME_MISSING_ERROR = WRONG_FORMAT + "change set or project name missing";
 
+    /**
+     * Maximal number of memoized results of each kind held by shared parser.
+     */
+    private static final int PARSE_CACHE_MAX_ENTRIES = Integer.getInteger("otool.fakekoji.parseCache.maxEntries", 100000);
+
+    private static final Object SHARED_LOCK = new Object();
+    // guarded by SHARED_LOCK
+    private static OToolParser shared;
+
     private final List<JDKProject> jdkProjects;
     private final List<JDKVersion> jdkVersions;
     private final List<TaskVariant> buildVariants;
+    // null for parsers not created by cached(...)
+    private final ParseCache<OToolBuild> buildCache;
+    private final ParseCache<OToolArchive> archiveCache;
 
     public OToolParser(
             List<JDKProject> jdkProjects,
             List<JDKVersion> jdkVersions,
             List<TaskVariant> buildVariants
+    ) {
+        this(jdkProjects, jdkVersions, buildVariants, false);
+    }
+
+    private OToolParser(
+            List<JDKProject> jdkProjects,
+            List<JDKVersion> jdkVersions,
+            List<TaskVariant> buildVariants,
+            boolean memoize
     ) {
         this.jdkVersions = jdkVersions;
         this.jdkProjects = jdkProjects;
         this.buildVariants = buildVariants.stream().sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        this.buildCache = memoize ? new ParseCache<>(PARSE_CACHE_MAX_ENTRIES) : null;
+        this.archiveCache = memoize ? new ParseCache<>(PARSE_CACHE_MAX_ENTRIES) : null;
+    }
+
+    /**
+     * Returns parser shared by all callers, which memoizes results of
+     * {@link #parseBuild(String)} and {@link #parseArchive(String)}. As NVRs
+     * and archive names never change, results stay valid until configuration
+     * changes. When given configuration differs from the one the shared
+     * parser was created with, the parser, and so its memoized results, is
+     * replaced.
+     *
+     * @param jdkProjects   current projects
+     * @param jdkVersions   current jdk versions
+     * @param buildVariants current build variants
+     * @return shared memoizing parser for given configuration
+     */
+    public static OToolParser cached(
+            List<JDKProject> jdkProjects,
+            List<JDKVersion> jdkVersions,
+            List<TaskVariant> buildVariants
+    ) {
+        synchronized (SHARED_LOCK) {
+            final OToolParser current = shared;
+            if (current != null && current.isConfiguredBy(jdkProjects, jdkVersions, buildVariants)) {
+                return current;
+            }
+            if (current != null) {
+                LOGGER.info("Configuration changed, dropping parse cache: " + current.getCacheStatistics());
+            }
+            shared = new OToolParser(jdkProjects, jdkVersions, buildVariants, true);
+            return shared;
+        }
+    }
+
+    private boolean isConfiguredBy(
+            List<JDKProject> jdkProjects,
+            List<JDKVersion> jdkVersions,
+            List<TaskVariant> buildVariants
+    ) {
+        // order of items read from storage is not guaranteed and does not matter for parsing
+        return new HashSet<>(this.jdkProjects).equals(new HashSet<>(jdkProjects))
+                && new HashSet<>(this.jdkVersions).equals(new HashSet<>(jdkVersions))
+                && new HashSet<>(this.buildVariants).equals(new HashSet<>(buildVariants));
+    }
+
+    /**
+     * @return hits, misses and sizes of memoized results, or note the parser does not memoize
+     */
+    public String getCacheStatistics() {
+        if (buildCache == null) {
+            return "not cached";
+        }
+        return "builds: " + buildCache + ", archives: " + archiveCache;
+    }
+
+    public long getCacheHits() {
+        return buildCache == null ? 0 : buildCache.hits.sum() + archiveCache.hits.sum();
+    }
+
+    public long getCacheMisses() {
+        return buildCache == null ? 0 : buildCache.misses.sum() + archiveCache.misses.sum();
     }
     
     public static Result<OToolParser, String> create(final ConfigManager configManager) {
@@ -90,6 +183,13 @@ public class OToolParser {
     }
 
     public Result<OToolArchive, String> parseArchive(final String nvra) {
+        if (archiveCache != null) {
+            return archiveCache.get(nvra, this::parseArchiveImpl);
+        }
+        return parseArchiveImpl(nvra);
+    }
+
+    private Result<OToolArchive, String> parseArchiveImpl(final String nvra) {
         return parsePackageName(nvra)
                 .flatMap(this::parseChangeSet)
                 .flatMap(this::parseArchiveTailCut)
@@ -106,6 +206,13 @@ public class OToolParser {
     }
 
     public Result<OToolBuild, String> parseBuild(final String nvr) {
+        if (buildCache != null) {
+            return buildCache.get(nvr, this::parseBuildImpl);
+        }
+        return parseBuildImpl(nvr);
+    }
+
+    private Result<OToolBuild, String> parseBuildImpl(final String nvr) {
         return parsePackageName(nvr)
                 .flatMap(this::parseChangeSet)
                 .flatMap(this::parseBuildTailCut)
@@ -177,6 +284,46 @@ public class OToolParser {
         )));
     }
 
+    /**
+     * Size bounded concurrent memo of parse results. Parsed names are immutable,
+     * so entries never get stale; when the bound is hit, arbitrary entries are
+     * dropped to make room.
+     */
+    private static class ParseCache<T> {
+        private final Map<String, Result<T, String>> results = new ConcurrentHashMap<>();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final int maxEntries;
+
+        ParseCache(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        Result<T, String> get(String name, Function<String, Result<T, String>> parser) {
+            final Result<T, String> cached = results.get(name);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            misses.increment();
+            final Result<T, String> parsed = parser.apply(name);
+            if (results.size() >= maxEntries) {
+                final Iterator<String> keys = results.keySet().iterator();
+                for (int i = 0; i < maxEntries / 10 + 1 && keys.hasNext(); i++) {
+                    keys.next();
+                    keys.remove();
+                }
+            }
+            results.put(name, parsed);
+            return parsed;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits.sum() + " misses=" + misses.sum() + " size=" + results.size();
+        }
+    }
+
     private static class PackageNameCut {
         final String packageName;
         final String tail;
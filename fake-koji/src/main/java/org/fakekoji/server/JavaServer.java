@@ -74,6 +74,7 @@ public class JavaServer {
         xmlRpcKojiService = new XmlRpcKojiService(settings);
         fileDownloadService = new FileDownloadService(settings.getDbFileRoot(), settings.getFileDownloadPort());
         scpService = new ScpService(settings);
+        scpService.addArtifactListener(event -> xmlRpcKojiService.artifactArrived(event.getFile()));
         this.oToolService = oToolService;
     }
 
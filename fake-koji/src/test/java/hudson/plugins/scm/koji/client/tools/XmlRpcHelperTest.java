@@ -25,7 +25,9 @@ package hudson.plugins.scm.koji.client.tools;
 
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.XmlRpcHandler;
@@ -33,6 +35,7 @@ import org.apache.xmlrpc.XmlRpcRequest;
 import org.apache.xmlrpc.server.XmlRpcHandlerMapping;
 import org.apache.xmlrpc.server.XmlRpcServerConfigImpl;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestParams;
+import org.junit.Assume;
 import org.junit.Test;
 import org.apache.xmlrpc.webserver.WebServer;
 import org.junit.Assert;
@@ -44,11 +47,25 @@ public class XmlRpcHelperTest {
         private final int port;
         private final WebServer webServer;
         private final int delay;
+        private final boolean keepAlive;
+        private final AtomicInteger acceptedConnections = new AtomicInteger();
 
         public TimeoutingXmlRpcServer(int port, int holdOn) {
+            this(port, holdOn, false);
+        }
+
+        public TimeoutingXmlRpcServer(int port, int holdOn, boolean keepAlive) {
             this.port = port;
             this.delay = holdOn;
-            this.webServer = new WebServer(port);
+            this.keepAlive = keepAlive;
+            this.webServer = new WebServer(port) {
+                @Override
+                protected boolean allowConnection(Socket socket) {
+                    // called once for each accepted connection
+                    acceptedConnections.incrementAndGet();
+                    return super.allowConnection(socket);
+                }
+            };
         }
 
         private static Integer sum(int x, int y) {
@@ -70,9 +87,14 @@ public class XmlRpcHelperTest {
             return port;
         }
 
+        public int getAcceptedConnections() {
+            return acceptedConnections.get();
+        }
+
         public void start() throws IOException {
             XmlRpcServerConfigImpl config = new XmlRpcServerConfigImpl();
             config.setEnabledForExtensions(true);
+            config.setKeepAliveEnabled(keepAlive);
             webServer.getXmlRpcServer().setConfig(config);
             XmlRpcHandlerMapping xxx = (String string) -> new XmlRpcHandler() {
                 @Override
@@ -204,5 +226,63 @@ public class XmlRpcHelperTest {
         Assert.assertNotNull(thrown);
     }
 
+    @Test
+    public void pooledClientWorks() throws IOException {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        TimeoutingXmlRpcServer w = new TimeoutingXmlRpcServer(port, 1, true);
+        XmlRpcHelper.XmlRpcClientPool pool = new XmlRpcHelper.XmlRpcClientPool(2, 1000, 1000);
+        w.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals(i + 5, pool.execute("http://localhost:" + port + "/RPC2/", new SummXmlRpcParam(i, 5)));
+            }
+        } finally {
+            w.stop();
+        }
+        // sequential requests all went over the same kept alive connection
+        Assert.assertEquals(1, w.getAcceptedConnections());
+    }
+
+    /**
+     * Compares requests per second of client per request and of pooled client. Runs only if number of requests is
+     * set by xmlrpc.benchmark.requests property (e.g. -Dxmlrpc.benchmark.requests=500).
+     */
+    @Test
+    public void pooledClientBenchmark() throws IOException {
+        final int requests = Integer.getInteger("xmlrpc.benchmark.requests", 0);
+        Assume.assumeTrue(requests > 0);
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        final String url = "http://localhost:" + port + "/RPC2/";
+        TimeoutingXmlRpcServer w = new TimeoutingXmlRpcServer(port, 0, true);
+        XmlRpcHelper.XmlRpcClientPool pool = new XmlRpcHelper.XmlRpcClientPool(1, 10000, 10000);
+        w.start();
+        try {
+            // warm up
+            for (int i = 0; i < requests / 10; i++) {
+                new XmlRpcHelper.XmlRpcExecutioner(url).execute(defaultSumHelper);
+                pool.execute(url, defaultSumHelper);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                Assert.assertEquals(8, new XmlRpcHelper.XmlRpcExecutioner(url).execute(defaultSumHelper));
+            }
+            final double perRequestRps = requests / ((System.nanoTime() - start) / 1e9);
+            start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                Assert.assertEquals(8, pool.execute(url, defaultSumHelper));
+            }
+            final double pooledRps = requests / ((System.nanoTime() - start) / 1e9);
+            System.out.println(String.format("Requests per second: client per request %.0f, pooled client %.0f",
+                    perRequestRps, pooledRps));
+        } finally {
+            w.stop();
+        }
+    }
 
 }
@@ -36,6 +36,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -1869,6 +1870,41 @@ public class DataGenerator {
         }
     }
 
+    /**
+     * Creates single release java-1.8.0-openjdk/jdk8u222.b10/0.uName with x86_64 archive and its build log in
+     * data/logs/x86_64, all last modified at given time.
+     *
+     * @return the release directory
+     */
+    public static File initReleaseDir(final File buildsRoot, final long lastModified) throws IOException {
+        final File releaseDir = Paths.get(buildsRoot.getAbsolutePath(), "java-1.8.0-openjdk", "jdk8u222.b10", "0.uName").toFile();
+        final File archDir = new File(releaseDir, "x86_64");
+        final File logsArchDir = Paths.get(releaseDir.getAbsolutePath(), "data", "logs", "x86_64").toFile();
+        if (!archDir.mkdirs() || !logsArchDir.mkdirs()) {
+            throw new IOException("Failed to create " + releaseDir.getAbsolutePath());
+        }
+        writeFile(new File(archDir, "java-1.8.0-openjdk-jdk8u222.b10-0.uName.x86_64.tarxz"));
+        writeFile(new File(logsArchDir, "build.log"));
+        setLastModifiedRecursively(releaseDir, lastModified);
+        return releaseDir;
+    }
+
+    public static void writeFile(final File file) throws IOException {
+        Files.write(file.toPath(), "some content".getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void setLastModifiedRecursively(final File file, final long lastModified) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                setLastModifiedRecursively(child, lastModified);
+            }
+        }
+        if (!file.setLastModified(lastModified)) {
+            throw new RuntimeException("Failed to set lastModified of file " + file.getAbsolutePath());
+        }
+    }
+
     public static void initConfigsRoot(final AccessibleSettings settings) {
         final String root = settings.getConfigRoot().getAbsolutePath();
 
@@ -1,5 +1,17 @@
 package org.fakekoji.api.http.filehandling;
 
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Collections;
@@ -7,11 +19,16 @@ import java.util.List;
 import java.util.ArrayList;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 
 public class FileReturningHandlerTest {
 
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
 
 
     private final String[] ojdk7files = new String[] {
@@ -188,4 +205,185 @@ public class FileReturningHandlerTest {
                     fi3, fi2, fi1
                 }, fi);
     }
+
+    @Test
+    public void testParseRange() throws Exception {
+        Assert.assertNull(FileReturningHandler.parseRange(null, 10));
+        Assert.assertNull(FileReturningHandler.parseRange("bytes=-", 10));
+        Assert.assertNull(FileReturningHandler.parseRange("bytes=1-2,5-6", 10));
+        Assert.assertArrayEquals(new long[]{5, 9}, FileReturningHandler.parseRange("bytes=5-", 10));
+        Assert.assertArrayEquals(new long[]{2, 4}, FileReturningHandler.parseRange("bytes=2-4", 10));
+        Assert.assertArrayEquals(new long[]{7, 9}, FileReturningHandler.parseRange("bytes=-3", 10));
+        Assert.assertArrayEquals(new long[]{0, 9}, FileReturningHandler.parseRange("bytes=0-100", 10));
+        Assert.assertArrayEquals(new long[0], FileReturningHandler.parseRange("bytes=10-", 10));
+        Assert.assertArrayEquals(new long[0], FileReturningHandler.parseRange("bytes=4-2", 10));
+    }
+
+    @Test
+    public void testConditionalHeaders() {
+        final long lastModified = 1_600_000_000_500L;
+        final String etag = FileReturningHandler.etag(10, lastModified);
+        Assert.assertFalse(FileReturningHandler.isNotModified(null, null, etag, lastModified));
+        Assert.assertTrue(FileReturningHandler.isNotModified("\"x\", " + etag, null, etag, lastModified));
+        Assert.assertTrue(FileReturningHandler.isNotModified("*", null, etag, lastModified));
+        Assert.assertFalse(FileReturningHandler.isNotModified("\"x\"", "Sun, 13 Sep 2020 12:26:40 GMT", etag, lastModified));
+        Assert.assertTrue(FileReturningHandler.isNotModified(null, "Sun, 13 Sep 2020 12:26:40 GMT", etag, lastModified));
+        Assert.assertFalse(FileReturningHandler.isNotModified(null, "Sun, 13 Sep 2020 12:26:39 GMT", etag, lastModified));
+        Assert.assertFalse(FileReturningHandler.isNotModified(null, "yesterday", etag, lastModified));
+
+        Assert.assertTrue(FileReturningHandler.isRangeApplicable(null, etag, lastModified));
+        Assert.assertTrue(FileReturningHandler.isRangeApplicable(etag, etag, lastModified));
+        Assert.assertFalse(FileReturningHandler.isRangeApplicable("\"x\"", etag, lastModified));
+        Assert.assertTrue(FileReturningHandler.isRangeApplicable("Sun, 13 Sep 2020 12:26:40 GMT", etag, lastModified));
+        Assert.assertFalse(FileReturningHandler.isRangeApplicable("Sun, 13 Sep 2020 12:26:41 GMT", etag, lastModified));
+    }
+
+    @Test
+    public void testServingFile() throws Exception {
+        final File file = new File(temporaryFolder.getRoot(), "pkg-1-2.x86_64.rpm");
+        Files.write(file.toPath(), "0123456789".getBytes(StandardCharsets.UTF_8));
+        final FileReturningHandler handler = new FileReturningHandler(temporaryFolder.getRoot());
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", handler);
+        server.start();
+        try {
+            final String url = "http://localhost:" + server.getAddress().getPort() + "/" + file.getName();
+
+            HttpURLConnection connection = open(url, "GET");
+            Assert.assertEquals(200, connection.getResponseCode());
+            Assert.assertEquals("0123456789", read(connection));
+            final String etag = connection.getHeaderField("ETag");
+            final String lastModified = connection.getHeaderField("Last-Modified");
+            Assert.assertNotNull(etag);
+
+            connection = open(url, "HEAD");
+            Assert.assertEquals(200, connection.getResponseCode());
+            Assert.assertEquals("10", connection.getHeaderField("Content-Length"));
+
+            connection = open(url, "GET");
+            connection.setRequestProperty("Range", "bytes=4-");
+            Assert.assertEquals(206, connection.getResponseCode());
+            Assert.assertEquals("bytes 4-9/10", connection.getHeaderField("Content-Range"));
+            Assert.assertEquals("456789", read(connection));
+
+            connection = open(url, "GET");
+            connection.setRequestProperty("Range", "bytes=4-");
+            connection.setRequestProperty("If-Range", "\"other\"");
+            Assert.assertEquals(200, connection.getResponseCode());
+            Assert.assertEquals("0123456789", read(connection));
+
+            connection = open(url, "GET");
+            connection.setRequestProperty("If-None-Match", etag);
+            Assert.assertEquals(304, connection.getResponseCode());
+
+            connection = open(url, "GET");
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+            Assert.assertEquals(304, connection.getResponseCode());
+        } finally {
+            server.stop(0);
+            handler.stop();
+        }
+    }
+
+    @Test
+    public void testListings() throws Exception {
+        final File dir = temporaryFolder.newFolder("pkg", "1");
+        final File sub = new File(dir, "x86_64");
+        Assert.assertTrue(sub.mkdir());
+        for (String name : new String[]{"a-1.rpm", "a-2.rpm", "a-10.rpm"}) {
+            Files.write(new File(sub, name).toPath(), name.getBytes(StandardCharsets.UTF_8));
+        }
+        // old enough to be cached
+        final long past = System.currentTimeMillis() - 60_000;
+        Assert.assertTrue(sub.setLastModified(past));
+        Assert.assertTrue(dir.setLastModified(past));
+        final FileReturningHandler handler = new FileReturningHandler(temporaryFolder.getRoot());
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", handler);
+        server.start();
+        try {
+            final String base = "http://localhost:" + server.getAddress().getPort() + "/pkg/1/";
+
+            final String page = read(open(base + "ALL?format=json&offset=1&limit=1", "GET"));
+            Assert.assertTrue(page, page.startsWith("{\"path\":\"/pkg/1/ALL\",\"total\":3,\"offset\":1,\"files\":[{\"name\":\"/x86_64/a-2.rpm\",\"path\":\"/pkg/1/x86_64/a-2.rpm\",\"size\":7,"));
+            Assert.assertEquals(1, page.split("\"name\"").length - 1);
+
+            // file changed in place does not invalidate the listing
+            Files.write(new File(sub, "a-2.rpm").toPath(), "changed in place".getBytes(StandardCharsets.UTF_8));
+            Assert.assertTrue(sub.setLastModified(past));
+            Assert.assertTrue(read(open(base + "ALL?format=json&offset=1&limit=1", "GET")).contains("\"size\":7,"));
+
+            // new file does
+            Files.write(new File(sub, "a-3.rpm").toPath(), "a-3.rpm".getBytes(StandardCharsets.UTF_8));
+            final String all = read(open(base + "ALL?format=json", "GET"));
+            Assert.assertTrue(all, all.contains("\"total\":4"));
+            Assert.assertTrue(all, all.contains("\"size\":16,"));
+
+            final String listing = read(open(base + "?limit=1", "GET"));
+            Assert.assertTrue(listing, listing.contains("<a href=\"/pkg/1/ALL\">ALL    </a>"));
+            Assert.assertTrue(listing, listing.contains("<a href=\"/pkg/1/x86_64\">x86_64    </a>"));
+            Assert.assertFalse(listing, listing.contains("next"));
+            final String paged = read(open(base + "ALL?limit=2", "GET"));
+            Assert.assertTrue(paged, paged.contains("<a href=\"?offset=2&amp;limit=2\">next    </a>"));
+        } finally {
+            server.stop(0);
+            handler.stop();
+        }
+    }
+
+    @Test
+    public void testRejectingWhenSaturated() throws Exception {
+        final File file = new File(temporaryFolder.getRoot(), "big.tarxz");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // much more than socket buffers take, so the worker blocks on client not reading
+            raf.setLength(256L * 1024 * 1024);
+        }
+        final FileReturningHandler handler = new FileReturningHandler(temporaryFolder.getRoot(), 1, 1);
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", handler);
+        server.start();
+        final List<Socket> stuck = new ArrayList<>();
+        try {
+            final int port = server.getAddress().getPort();
+            // one served, one queued
+            for (int i = 0; i < 2; i++) {
+                final Socket socket = new Socket("localhost", port);
+                stuck.add(socket);
+                socket.getOutputStream().write(("GET /" + file.getName() + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                socket.getOutputStream().flush();
+            }
+            final long deadline = System.currentTimeMillis() + 10_000;
+            while (handler.getActiveCount() < 1 || handler.getQueueSize() < 1) {
+                Assert.assertTrue("requests were not taken by the handler", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+
+            final HttpURLConnection connection = open("http://localhost:" + port + "/" + file.getName(), "GET");
+            connection.setReadTimeout(10_000);
+            Assert.assertEquals(503, connection.getResponseCode());
+            Assert.assertEquals("1", connection.getHeaderField("Retry-After"));
+        } finally {
+            for (Socket socket : stuck) {
+                socket.close();
+            }
+            server.stop(0);
+            handler.stop();
+        }
+    }
+
+    private static HttpURLConnection open(String url, String method) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            FileReturningHandler.copy(in, out);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
 }
@@ -0,0 +1,132 @@
+package org.fakekoji.api.ssh;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+public class IngestOutputStreamTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<ArtifactArrivedEvent> events = new ArrayList<>();
+
+    @Test
+    public void completeUploadIsRenamedAndPublished() throws IOException {
+        final File dir = temporaryFolder.newFolder();
+        final File target = new File(dir, "java-1.8.0-openjdk.x86_64.rpm");
+        final byte[] content = "hello".getBytes(StandardCharsets.UTF_8);
+        final IngestOutputStream stream = new IngestOutputStream(target, content.length, "tester", events::add);
+        stream.write(content, 0, 3);
+        Assert.assertFalse(target.exists());
+        Assert.assertTrue(stream.getTemporaryFile().getName().startsWith("." + target.getName()));
+        stream.write(content[3]);
+        stream.write(content[4]);
+        stream.close();
+
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        Assert.assertArrayEquals(new String[]{target.getName()}, dir.list());
+        Assert.assertEquals(1, events.size());
+        final ArtifactArrivedEvent event = events.get(0);
+        Assert.assertEquals(target, event.getFile());
+        Assert.assertEquals(5, event.getSize());
+        Assert.assertEquals("5d41402abc4b2a76b9719d911017c592", event.getMd5());
+        Assert.assertEquals("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824", event.getSha256());
+        Assert.assertEquals("tester", event.getUsername());
+    }
+
+    @Test
+    public void uploadedFileHasPermissionsOfPlainlyCreatedFile() throws IOException {
+        final File dir = temporaryFolder.newFolder();
+        Assume.assumeTrue(Files.getFileStore(dir.toPath()).supportsFileAttributeView(PosixFileAttributeView.class));
+        // created as before the ingest stage, so with the umask of this jvm
+        final File reference = new File(dir, "reference");
+        new FileOutputStream(reference).close();
+        final File target = new File(dir, "java-1.8.0-openjdk.x86_64.rpm");
+        final IngestOutputStream stream = new IngestOutputStream(target, -1, "tester", events::add);
+        stream.write(new byte[5]);
+        stream.close();
+        final Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(target.toPath());
+        Assert.assertEquals(Files.getPosixFilePermissions(reference.toPath()), permissions);
+        Assert.assertTrue(permissions.toString(), permissions.contains(PosixFilePermission.OWNER_READ));
+    }
+
+    @Test
+    public void incompleteUploadIsDeleted() throws IOException {
+        final File dir = temporaryFolder.newFolder();
+        final File target = new File(dir, "java-1.8.0-openjdk.x86_64.rpm");
+        final IngestOutputStream stream = new IngestOutputStream(target, 10, "tester", events::add);
+        stream.write(new byte[5]);
+        try {
+            stream.close();
+            Assert.fail("incomplete upload must fail");
+        } catch (IOException expected) {
+        }
+        Assert.assertEquals(0, dir.list().length);
+        Assert.assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void existingFileIsNotOverwritten() throws IOException {
+        final File dir = temporaryFolder.newFolder();
+        final File target = new File(dir, "java-1.8.0-openjdk.x86_64.rpm");
+        final IngestOutputStream stream = new IngestOutputStream(target, -1, "tester", events::add);
+        stream.write(new byte[5]);
+        // uploaded by someone else meanwhile
+        Files.write(target.toPath(), "first".getBytes(StandardCharsets.UTF_8));
+        try {
+            stream.close();
+            Assert.fail("existing file must not be overwritten");
+        } catch (IOException expected) {
+        }
+        Assert.assertEquals("first", new String(Files.readAllBytes(target.toPath()), StandardCharsets.UTF_8));
+        Assert.assertArrayEquals(new String[]{target.getName()}, dir.list());
+        Assert.assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void existingFileIsRejectedOnOpen() throws IOException {
+        final File dir = temporaryFolder.newFolder();
+        final File target = new File(dir, "java-1.8.0-openjdk.x86_64.rpm");
+        Files.write(target.toPath(), "first".getBytes(StandardCharsets.UTF_8));
+        try {
+            new IngestOutputStream(target, -1, "tester", events::add);
+            Assert.fail("existing file must not be overwritten");
+        } catch (IOException expected) {
+        }
+        Assert.assertArrayEquals(new String[]{target.getName()}, dir.list());
+    }
+
+    @Test
+    public void concurrentUploadIsRejectedOnOpen() throws IOException {
+        final File dir = temporaryFolder.newFolder();
+        final File target = new File(dir, "java-1.8.0-openjdk.x86_64.rpm");
+        final IngestOutputStream first = new IngestOutputStream(target, -1, "tester", events::add);
+        try {
+            new IngestOutputStream(target, -1, "tester", events::add);
+            Assert.fail("file being uploaded must not be uploaded again");
+        } catch (IOException expected) {
+        }
+        first.abort();
+        Assert.assertEquals(0, dir.list().length);
+        // aborted upload does not block the next one
+        final IngestOutputStream second = new IngestOutputStream(target, -1, "tester", events::add);
+        second.write(new byte[5]);
+        second.close();
+        Assert.assertEquals(5, target.length());
+        Assert.assertEquals(1, events.size());
+    }
+}
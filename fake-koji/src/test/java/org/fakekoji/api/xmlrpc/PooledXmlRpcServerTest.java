@@ -0,0 +1,163 @@
+package org.fakekoji.api.xmlrpc;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class PooledXmlRpcServerTest {
+
+    private final XmlRpcMetrics metrics = new XmlRpcMetrics();
+    private PooledXmlRpcServer server;
+
+    @After
+    public void stop() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void requestIsProcessedByWorker() throws IOException {
+        server = new PooledXmlRpcServer(0, 2, 2, false, (request, response) -> {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            copy(request, body);
+            response.write(("echo " + body.toString("UTF-8")).getBytes(StandardCharsets.UTF_8));
+        }, metrics);
+        server.start();
+        Assert.assertEquals("200 echo hello", post("hello"));
+        Assert.assertEquals("200 echo again", post("again"));
+        final HttpURLConnection get = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/").openConnection();
+        Assert.assertEquals(405, get.getResponseCode());
+    }
+
+    @Test
+    public void requestOverQueueLimitIsRejected() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        server = new PooledXmlRpcServer(0, 1, 1, false, (request, response) -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            response.write("done".getBytes(StandardCharsets.UTF_8));
+        }, metrics);
+        server.start();
+        final ExecutorService clients = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> running = clients.submit(() -> post("first"));
+            Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+            final Future<String> queued = clients.submit(() -> post("second"));
+            final long deadline = System.currentTimeMillis() + 10_000;
+            while (server.getQueueSize() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, server.getQueueSize());
+
+            Assert.assertEquals("503 ", post("third"));
+            Assert.assertEquals(1, metrics.getRejected());
+
+            release.countDown();
+            Assert.assertEquals("200 done", running.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("200 done", queued.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void slowRejectedClientDoesNotStallOthers() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        server = new PooledXmlRpcServer(0, 1, 1, false, (request, response) -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            response.write("done".getBytes(StandardCharsets.UTF_8));
+        }, metrics);
+        server.start();
+        final ExecutorService clients = Executors.newFixedThreadPool(2);
+        try (Socket slow = new Socket("localhost", server.getPort())) {
+            final Future<String> running = clients.submit(() -> post("first"));
+            Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+            final Future<String> queued = clients.submit(() -> post("second"));
+            final long deadline = System.currentTimeMillis() + 10_000;
+            while (server.getQueueSize() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // connected, but never sends its request
+            slow.getOutputStream().write("POST /RPC2 HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII));
+            slow.getOutputStream().flush();
+            Thread.sleep(100);
+
+            Assert.assertEquals("503 ", post("third"));
+            Assert.assertEquals(2, metrics.getRejected());
+
+            release.countDown();
+            Assert.assertEquals("200 done", running.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("200 done", queued.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void metricsArePerMethod() {
+        metrics.record("getPackageID", TimeUnit.MICROSECONDS.toNanos(300), false);
+        metrics.record("getPackageID", TimeUnit.MILLISECONDS.toNanos(30), false);
+        metrics.record("listTags", TimeUnit.SECONDS.toNanos(20), true);
+        Assert.assertEquals(2, metrics.getCount("getPackageID"));
+        Assert.assertEquals(1, metrics.getCount("listTags"));
+        Assert.assertEquals(0, metrics.getCount("listRPMs"));
+        final String summary = metrics.toString();
+        Assert.assertTrue(summary, summary.contains("getPackageID: 2 calls, 0 failed, avg 15150us, p50 <1ms, p99 <50ms, max 30ms"));
+        Assert.assertTrue(summary, summary.contains("listTags: 1 calls, 1 failed, avg 20000000us, p50 >10000ms"));
+    }
+
+    private String post(final String body) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/RPC2").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(10_000);
+        connection.setReadTimeout(10_000);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        final int code = connection.getResponseCode();
+        final ByteArrayOutputStream response = new ByteArrayOutputStream();
+        if (code == 200) {
+            try (InputStream is = connection.getInputStream()) {
+                copy(is, response);
+            }
+        }
+        return code + " " + response.toString("UTF-8");
+    }
+
+    private static void copy(final InputStream in, final OutputStream out) throws IOException {
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.fakekoji.core;
+
+import org.fakekoji.DataGenerator;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class FakeBuildTest {
+
+    private static final long OLD = System.currentTimeMillis() - 60_000;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File releaseDir;
+    private File archDir;
+    private FakeBuild build;
+
+    @Before
+    public void setup() throws IOException {
+        releaseDir = DataGenerator.initReleaseDir(temporaryFolder.getRoot(), OLD);
+        archDir = new File(releaseDir, "x86_64");
+        build = new FakeBuild("java-1.8.0-openjdk", "jdk8u222.b10", "0.uName", releaseDir, null);
+        Assert.assertEquals(Collections.singletonList("x86_64"), build.getArches());
+        Assert.assertEquals(OLD, build.getCompletionTime());
+    }
+
+    @Test
+    public void newArchDirInvalidatesSnapshot() throws Exception {
+        final File newArchDir = new File(releaseDir, "i686");
+        Assert.assertTrue(newArchDir.mkdir());
+        final File newFile = new File(newArchDir, "java-1.8.0-openjdk-jdk8u222.b10-0.uName.i686.tarxz");
+        DataGenerator.writeFile(newFile);
+        waitForRecheck();
+
+        Assert.assertEquals(Arrays.asList("i686", "x86_64"), sorted(build.getArches()));
+        Assert.assertEquals(1, build.getNonLogs("i686").size());
+        Assert.assertEquals(newFile.lastModified(), build.getCompletionTime());
+    }
+
+    @Test
+    public void newFileInvalidatesSnapshot() throws Exception {
+        final File newFile = new File(archDir, "java-1.8.0-openjdk-jdk8u222.b10-0.uName.src.tarxz");
+        DataGenerator.writeFile(newFile);
+        waitForRecheck();
+
+        Assert.assertEquals(2, build.getNonLogs("x86_64").size());
+        Assert.assertEquals(newFile.lastModified(), build.getCompletionTime());
+    }
+
+    @Test
+    public void invalidatedSnapshotIsReadAgainImmediately() throws IOException {
+        final File newFile = new File(archDir, "java-1.8.0-openjdk-jdk8u222.b10-0.uName.src.tarxz");
+        DataGenerator.writeFile(newFile);
+        // snapshot younger than the recheck period is used as it is
+        Assert.assertEquals(1, build.getNonLogs("x86_64").size());
+
+        build.invalidateSnapshot();
+        Assert.assertEquals(2, build.getNonLogs("x86_64").size());
+        Assert.assertEquals(newFile.lastModified(), build.getCompletionTime());
+    }
+
+    @Test
+    public void fileRewrittenInPlaceIsNotNoticed() throws Exception {
+        final File file = new File(archDir, "java-1.8.0-openjdk-jdk8u222.b10-0.uName.x86_64.tarxz");
+        DataGenerator.writeFile(file);
+        Assert.assertEquals(OLD, archDir.lastModified());
+        waitForRecheck();
+
+        // documented limitation: only directory mtimes are checked
+        Assert.assertEquals(OLD, build.getCompletionTime());
+        build.invalidateSnapshot();
+        Assert.assertEquals(file.lastModified(), build.getCompletionTime());
+    }
+
+    private static void waitForRecheck() throws InterruptedException {
+        Thread.sleep(FakeBuild.SNAPSHOT_RECHECK_MILLIS + 100);
+    }
+
+    private static List<String> sorted(List<String> list) {
+        Collections.sort(list);
+        return list;
+    }
+}
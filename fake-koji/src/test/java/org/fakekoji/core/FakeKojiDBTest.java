@@ -4,16 +4,28 @@ import hudson.plugins.scm.koji.model.Build;
 import org.fakekoji.DataGenerator;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.GetBuildList;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
+import static org.fakekoji.DataGenerator.JDK_8_PACKAGE_NAME;
 import static org.fakekoji.DataGenerator.PROJECT_NAME_U;
+import static org.fakekoji.DataGenerator.VERSION_1;
 
 public class FakeKojiDBTest {
 
@@ -21,12 +33,173 @@ public class FakeKojiDBTest {
     public final TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     private FakeKojiDB db;
+    private File buildsRoot;
+    private AccessibleSettings settings;
 
     @Before
     public void setup() throws IOException {
         final DataGenerator.FolderHolder folderHolder = DataGenerator.initFolders(temporaryFolder);
         DataGenerator.initBuildsRoot(folderHolder.buildsRoot);
-        db = new FakeKojiDB(DataGenerator.getSettings(folderHolder));
+        buildsRoot = folderHolder.buildsRoot;
+        settings = DataGenerator.getSettings(folderHolder);
+        db = new FakeKojiDB(settings);
+    }
+
+    @Test
+    public void refreshPicksNewAndRemovedBuilds() {
+        final File versionDir = new File(new File(buildsRoot, JDK_8_PACKAGE_NAME), VERSION_1);
+        final File newRelease = new File(versionDir, "999." + PROJECT_NAME_U);
+        Assert.assertEquals(0, db.refresh());
+        Assert.assertNull(db.getBuildById(newRelease.hashCode()));
+
+        Assert.assertTrue(newRelease.mkdirs());
+        Assert.assertEquals(1, db.refresh());
+        Assert.assertNotNull(db.getBuildById(newRelease.hashCode()));
+        Assert.assertEquals(newRelease, db.getBuildsSortedByVersion(db.getPkgId(JDK_8_PACKAGE_NAME))
+                .stream()
+                .filter(build -> build.getVersion().equals(VERSION_1))
+                .reduce((older, newer) -> newer)
+                .get()
+                .getDir());
+
+        Assert.assertTrue(newRelease.delete());
+        Assert.assertEquals(1, db.refresh());
+        Assert.assertNull(db.getBuildById(newRelease.hashCode()));
+    }
+
+    @Test
+    public void newestProjectBuildsArePaged() throws IOException {
+        final File versionDir = new File(new File(buildsRoot, JDK_8_PACKAGE_NAME), VERSION_1);
+        final long now = System.currentTimeMillis();
+        for (int i = 1; i <= 5; i++) {
+            final File archDir = new File(new File(versionDir, "90" + i + "." + PROJECT_NAME_U), "x86_64");
+            Assert.assertTrue(archDir.mkdirs());
+            final File rpm = new File(archDir, JDK_8_PACKAGE_NAME + "-" + VERSION_1 + "-90" + i + ".x86_64.rpm");
+            Files.write(rpm.toPath(), "some content".getBytes(StandardCharsets.UTF_8));
+            // release 903 is the newest, version order differs from completion order
+            Assert.assertTrue(rpm.setLastModified(now - (i == 3 ? 0 : i * 60_000L)));
+        }
+        // builds without any file have no completion time, they must not break the ordering
+        for (int i = 6; i <= 8; i++) {
+            Assert.assertTrue(new File(new File(versionDir, "90" + i + "." + PROJECT_NAME_U), "x86_64").mkdirs());
+        }
+        db.refresh();
+        Assert.assertEquals(Long.MIN_VALUE, db.getBuildById(new File(versionDir, "906." + PROJECT_NAME_U).hashCode()).getCompletionTime());
+        final Integer pkgId = db.getPkgId(JDK_8_PACKAGE_NAME);
+        final List<String> firstPage = db.getNewestProjectBuilds(pkgId, 2, 0)
+                .stream()
+                .map(Build::getRelease)
+                .collect(Collectors.toList());
+        final List<String> secondPage = db.getNewestProjectBuilds(pkgId, 2, 2)
+                .stream()
+                .map(Build::getRelease)
+                .collect(Collectors.toList());
+        final List<String> lastPage = db.getNewestProjectBuilds(pkgId, 2, 4)
+                .stream()
+                .map(Build::getRelease)
+                .collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("903." + PROJECT_NAME_U, "901." + PROJECT_NAME_U), firstPage);
+        Assert.assertEquals(Arrays.asList("902." + PROJECT_NAME_U, "904." + PROJECT_NAME_U), secondPage);
+        Assert.assertEquals(Collections.singletonList("905." + PROJECT_NAME_U), lastPage);
+        Assert.assertEquals(5, db.getProjectBuilds(pkgId).size());
+    }
+
+    @Test
+    public void requestedRefreshDoesNotWaitForPeriod() throws InterruptedException {
+        final File versionDir = new File(new File(buildsRoot, JDK_8_PACKAGE_NAME), VERSION_1);
+        final File newRelease = new File(versionDir, "998." + PROJECT_NAME_U);
+        final Thread refresher = db.startRefresher(TimeUnit.HOURS.toMillis(1));
+        try {
+            Assert.assertTrue(newRelease.mkdirs());
+            db.requestRefresh();
+            final long deadline = System.currentTimeMillis() + 10_000;
+            while (db.getBuildById(newRelease.hashCode()) == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertNotNull(db.getBuildById(newRelease.hashCode()));
+        } finally {
+            refresher.interrupt();
+            refresher.join();
+        }
+    }
+
+    @Test
+    public void artifactArrivedIndexesBuildWithoutRefresh() throws IOException {
+        final File versionDir = new File(new File(buildsRoot, JDK_8_PACKAGE_NAME), VERSION_1);
+        final File newRelease = new File(versionDir, "997." + PROJECT_NAME_U);
+        final File archDir = new File(newRelease, "x86_64");
+        Assert.assertTrue(archDir.mkdirs());
+        final File rpm = new File(archDir, JDK_8_PACKAGE_NAME + "-" + VERSION_1 + "-997.x86_64.rpm");
+        Files.write(rpm.toPath(), "some content".getBytes(StandardCharsets.UTF_8));
+        db.artifactArrived(rpm);
+        final FakeBuild build = db.getBuildById(newRelease.hashCode());
+        Assert.assertNotNull(build);
+        Assert.assertEquals(Collections.singletonList(rpm), build.getNonLogs("x86_64"));
+
+        // second artifact is seen at once, though the build's listing was just cached
+        final File debugRpm = new File(archDir, JDK_8_PACKAGE_NAME + "-debug-" + VERSION_1 + "-997.x86_64.rpm");
+        Files.write(debugRpm.toPath(), "some content".getBytes(StandardCharsets.UTF_8));
+        // upload in progress is never seen
+        Files.write(new File(archDir, "." + debugRpm.getName() + ".123.part").toPath(), new byte[0]);
+        db.artifactArrived(debugRpm);
+        Assert.assertEquals(2, db.getBuildById(newRelease.hashCode()).getNonLogs("x86_64").size());
+        Assert.assertEquals(0, db.refresh());
+    }
+
+    /**
+     * Compares requests per second of DB created for each request (as xml-rpc service did) with DB shared by all
+     * requests. Synthetic builds are added to the generated ones. Runs only if size of synthetic tree is set by
+     * fakekoji.benchmark.builds property (e.g. -Dfakekoji.benchmark.builds=20000).
+     */
+    @Test
+    public void requestsPerSecondBenchmark() throws IOException {
+        final int count = Integer.getInteger("fakekoji.benchmark.builds", 0);
+        Assume.assumeTrue(count > 0);
+        final int packages = 20;
+        final int releases = 10;
+        final List<Integer> buildIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final File release = new File(buildsRoot, "pkg" + (i % packages)
+                    + "/1.0." + (i / (packages * releases))
+                    + "/" + (i / packages % releases) + ".benchmark");
+            Assert.assertTrue(release.mkdirs());
+            buildIds.add(release.hashCode());
+        }
+        final Random random = new Random(42);
+
+        final int perRequestCount = 3;
+        long started = System.nanoTime();
+        for (int i = 0; i < perRequestCount; i++) {
+            request(new FakeKojiDB(settings), random, packages, buildIds);
+        }
+        final double perRequestRps = perRequestCount / ((System.nanoTime() - started) / 1e9);
+
+        final FakeKojiDB shared = new FakeKojiDB(settings);
+        final int sharedCount = 100_000;
+        started = System.nanoTime();
+        for (int i = 0; i < sharedCount; i++) {
+            request(shared, random, packages, buildIds);
+        }
+        final double sharedRps = sharedCount / ((System.nanoTime() - started) / 1e9);
+        final String rates = String.format("Requests per second on %d builds: DB per request %.1f, shared DB %.0f",
+                count, perRequestRps, sharedRps);
+        System.out.println(rates);
+        Assert.assertTrue(rates, sharedRps > perRequestRps);
+        Assert.assertEquals(count, buildIds.stream().filter(id -> shared.getBuildById(id) != null).count());
+    }
+
+    // getPackageID followed by listTags, as the plugin does
+    private static void request(final FakeKojiDB db, final Random random, final int packages, final List<Integer> buildIds) {
+        Assert.assertNotNull(db.getPkgId("pkg" + random.nextInt(packages)));
+        db.getTags(buildIds.get(random.nextInt(buildIds.size())));
+    }
+
+    @Test
+    public void versionStringsAreComparedNumerically() {
+        Assert.assertTrue(FakeKojiDB.compareVersionStrings("1.8.0.10", "1.8.0.9") > 0);
+        Assert.assertTrue(FakeKojiDB.compareVersionStrings("jdk8u152.b01", "jdk8u162.b01") < 0);
+        Assert.assertTrue(FakeKojiDB.compareVersionStrings("11.0.2", "11.0.2.1") < 0);
+        Assert.assertEquals(0, FakeKojiDB.compareVersionStrings("007", "7"));
     }
 
     @Test
@@ -119,6 +292,39 @@ public class FakeKojiDBTest {
         Assert.assertTrue(builds.stream().allMatch(containsArch("f29.x86_64")));
     }
 
+    @Test
+    public void getBuildsForTestJobWithLimit() {
+        final List<Build> all = db.getBuildList(new GetBuildList(
+                PROJECT_NAME_U,
+                "jvm=hotspot debugMode=release jreSdk=sdk",
+                "f29.x86_64",
+                true
+        ));
+        final List<Build> limited = db.getBuildList(new GetBuildList(
+                PROJECT_NAME_U,
+                "jvm=hotspot debugMode=release jreSdk=sdk",
+                "f29.x86_64",
+                true,
+                2
+        ));
+        Assert.assertEquals(
+                2,
+                limited.size()
+        );
+        Assert.assertEquals(
+                all.subList(0, 2).stream().map(Build::getNvr).collect(Collectors.toList()),
+                limited.stream().map(Build::getNvr).collect(Collectors.toList())
+        );
+        // newest version first
+        for (int i = 1; i < all.size(); i++) {
+            final Build newer = all.get(i - 1);
+            final Build older = all.get(i);
+            final int byVersion = FakeKojiDB.compareVersionStrings(newer.getVersion(), older.getVersion());
+            Assert.assertTrue(newer.getNvr() + " before " + older.getNvr(),
+                    byVersion > 0 || (byVersion == 0 && FakeKojiDB.compareVersionStrings(newer.getRelease(), older.getRelease()) > 0));
+        }
+    }
+
     @Test
     public void getBuildsWithSourcesForTestJobWhenNoneBuilt() {
         final List<Build> builds = db.getBuildList(new GetBuildList(
@@ -0,0 +1,103 @@
+package org.fakekoji.core;
+
+import org.fakekoji.DataGenerator;
+import org.fakekoji.Utils;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class IsFailedBuildTest {
+
+    private static final long OLD = System.currentTimeMillis() - 10 * IsFailedBuild.VERDICT_SETTLE_MILLIS;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File releaseDir;
+    private File archDir;
+    private File logsArchDir;
+
+    @Before
+    public void setup() throws IOException {
+        releaseDir = DataGenerator.initReleaseDir(temporaryFolder.getRoot(), OLD);
+        archDir = new File(releaseDir, "x86_64");
+        // same layout as FakeBuild.getLogsDir
+        logsArchDir = new File(new File(new File(releaseDir, "data"), "logs"), "x86_64");
+    }
+
+    @Test
+    public void newFailedLogInvalidatesVerdict() throws IOException {
+        Assert.assertFalse(new IsFailedBuild(releaseDir).reCheck().getLastResult());
+
+        // uploading a log changes only the mtime of its data/logs/arch directory
+        Files.createFile(new File(logsArchDir, "FAILED").toPath());
+        Assert.assertTrue(logsArchDir.setLastModified(OLD + 1000));
+        Assert.assertTrue(new IsFailedBuild(releaseDir).reCheck().getLastResult());
+        Assert.assertTrue(new IsFailedBuild(releaseDir).reCheck().getLastResult());
+    }
+
+    @Test
+    public void verdictIsReusedWhileStampIsUnchanged() throws IOException {
+        Assert.assertFalse(new IsFailedBuild(releaseDir).reCheck().getLastResult());
+        // deeper than the stamp, and with mtimes restored, so only the cached verdict can answer
+        final File nested = new File(logsArchDir, "nested");
+        Assert.assertTrue(nested.mkdir());
+        Files.createFile(new File(nested, "FAILED").toPath());
+        DataGenerator.setLastModifiedRecursively(releaseDir, OLD);
+        Assert.assertFalse(new IsFailedBuild(releaseDir).reCheck().getLastResult());
+    }
+
+    @Test
+    public void nothingIsWrittenIntoBuildsTree() throws IOException {
+        final File versionDir = releaseDir.getParentFile();
+        final long versionModified = versionDir.lastModified();
+        Assert.assertFalse(new IsFailedBuild(releaseDir).reCheck().getLastResult());
+        Assert.assertArrayEquals(new String[]{releaseDir.getName()}, versionDir.list());
+        Assert.assertEquals(versionModified, versionDir.lastModified());
+        Assert.assertEquals(OLD, releaseDir.lastModified());
+    }
+
+    @Test
+    public void verdictSurvivesRestart() throws IOException {
+        final File verdicts = new File(temporaryFolder.newFolder("config"), "verdicts");
+        try {
+            IsFailedBuild.persistTo(verdicts);
+            Assert.assertFalse(new IsFailedBuild(releaseDir).reCheck().getLastResult());
+            // deeper than the stamp, so only the persisted verdict can answer
+            final File nested = new File(logsArchDir, "nested");
+            Assert.assertTrue(nested.mkdir());
+            Files.createFile(new File(nested, "FAILED").toPath());
+            DataGenerator.setLastModifiedRecursively(releaseDir, OLD);
+            IsFailedBuild.forget(releaseDir);
+            IsFailedBuild.persistTo(verdicts);
+            Assert.assertFalse(new IsFailedBuild(releaseDir).reCheck().getLastResult());
+
+            // removed build is dropped from the file on next load
+            IsFailedBuild.forget(releaseDir);
+            Utils.deleteDir(releaseDir);
+            IsFailedBuild.persistTo(verdicts);
+            final String persisted = new String(Files.readAllBytes(verdicts.toPath()), StandardCharsets.UTF_8);
+            Assert.assertFalse(persisted.contains(releaseDir.getAbsolutePath()));
+        } finally {
+            IsFailedBuild.stopPersisting();
+        }
+    }
+
+    @Test
+    public void freshTreeIsNotCached() throws IOException {
+        DataGenerator.writeFile(new File(archDir, "java-1.8.0-openjdk-jdk8u222.b10-0.uName.src.tarxz"));
+        final long fresh = archDir.lastModified();
+        Assert.assertFalse(new IsFailedBuild(releaseDir).reCheck().getLastResult());
+        Files.createFile(new File(archDir, "FAILED").toPath());
+        Assert.assertTrue(archDir.setLastModified(fresh));
+        Assert.assertTrue(new IsFailedBuild(releaseDir).reCheck().getLastResult());
+    }
+}
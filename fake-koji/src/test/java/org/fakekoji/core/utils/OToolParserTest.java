@@ -79,6 +79,24 @@ public class OToolParserTest {
         );
     }
 
+    @Test
+    public void cachedParserMemoizesUntilConfigurationChanges() {
+        final String nvr = VALID_NAME_VERSION + "-" + VALID_RELEASE;
+        final OToolParser cached = OToolParser.cached(jdkProjects, jdkVersions, buildVariants);
+        Assert.assertSame(cached, OToolParser.cached(new ArrayList<>(jdkProjects), jdkVersions, buildVariants));
+        final long hits = cached.getCacheHits();
+        final long misses = cached.getCacheMisses();
+        final Result<OToolBuild, String> first = cached.parseBuild(nvr);
+        final Result<OToolBuild, String> second = cached.parseBuild(nvr);
+        Assert.assertEquals(parser.parseBuild(nvr).getValue(), first.getValue());
+        Assert.assertSame(first, second);
+        Assert.assertTrue(cached.getCacheMisses() > misses);
+        Assert.assertEquals(hits + 1, cached.getCacheHits());
+
+        final List<JDKProject> lessProjects = jdkProjects.subList(1, jdkProjects.size());
+        Assert.assertNotSame(cached, OToolParser.cached(lessProjects, jdkVersions, buildVariants));
+    }
+
     @Test
     public void parseValidNVRWithGarbage() {
 
@@ -0,0 +1,74 @@
+package org.fakekoji.xmlrpc.server.expensiveobjectscache;
+
+import hudson.plugins.scm.koji.client.tools.XmlRpcHelper;
+import org.fakekoji.core.FakeKojiTestUtil;
+import org.fakekoji.server.JavaServer;
+import org.fakekoji.xmlrpc.server.JavaServerConstants;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.GetPackageId;
+import org.fakekoji.xmlrpc.server.xmlrpcresponse.PackageId;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Properties;
+
+public class DiskTierTest {
+
+    private static final String URL = "http://localhost:" + JavaServerConstants.DFAULT_RP2C_PORT + "/RPC2";
+    private static final GetPackageId PARAMS = new GetPackageId("java-1.8.0-openjdk");
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private JavaServer javaServer;
+
+    @Before
+    public void start() throws Exception {
+        javaServer = FakeKojiTestUtil.createDefaultFakeKojiServerWithData(temporaryFolder.newFolder());
+        javaServer.start();
+    }
+
+    @After
+    public void stop() {
+        javaServer.stop();
+    }
+
+    @Test
+    public void expiredResultIsPrunedFromDisk() throws Exception {
+        final File config = temporaryFolder.newFile("cache.config");
+        final Properties p = new Properties();
+        // in millis, see toUnits below; released after 2 * 200ms, checked every 50ms
+        p.setProperty(RemoteRequestCacheConfigKeys.CACHE_REFRESH_RATE_MINUTES, "200");
+        p.setProperty(RemoteRequestCacheConfigKeys.CACHE_RELEASE_TIMEOUT_MULTIPLIER, "2");
+        p.setProperty(RemoteRequestCacheConfigKeys.CONFIG_REFRESH_RATE_MINUTES, "50");
+        p.setProperty(RemoteRequestCacheConfigKeys.DISK_TIER, "true");
+        try (FileWriter fw = new FileWriter(config)) {
+            p.store(fw, null);
+        }
+        final RemoteRequestsCache cache = new RemoteRequestsCache(config, XmlRpcHelper.XmlRpcClientPool.DEFAULT::execute) {
+            @Override
+            protected long toUnits(long time) {
+                return time;
+            }
+        };
+        final File records = new DiskTier(new File(config.getAbsolutePath() + RemoteRequestCacheConfigKeys.DISK_TIER_SUFFIX)).getFile();
+        final Integer packageId = PackageId.create(cache.obtain(URL, PARAMS)).getValue();
+        Assert.assertNotNull(packageId);
+        Assert.assertTrue(records.length() > 0);
+
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (records.length() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        // compacted, not only removed from the index
+        Assert.assertEquals(0, records.length());
+
+        Assert.assertEquals(packageId, PackageId.create(cache.obtain(URL, PARAMS)).getValue());
+        Assert.assertEquals(2, cache.getStatistics().get(URL, PARAMS.getMethodName()).getLoads());
+    }
+}
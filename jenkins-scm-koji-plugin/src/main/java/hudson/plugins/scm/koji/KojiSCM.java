@@ -18,11 +18,7 @@ import hudson.scm.SCMDescriptor;
 import hudson.scm.SCMRevisionState;
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.function.Predicate;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
@@ -207,11 +203,7 @@ public class KojiSCM extends SCM implements LoggerHelp, Serializable {
     }
 
     static void appendStringProcessed(File processed, final String nvr) throws IOException {
-        Files.write(
-                processed.toPath(),
-                Collections.singletonList(nvr),
-                StandardCharsets.UTF_8,
-                StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+        ProcessedNvrIndex.of(processed).append(nvr);
     }
 
     private void storeBuild(final Build build, final File dir) {
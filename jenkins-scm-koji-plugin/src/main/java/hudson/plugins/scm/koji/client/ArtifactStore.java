@@ -0,0 +1,358 @@
+package hudson.plugins.scm.koji.client;
+
+import hudson.plugins.scm.koji.model.RPM;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jakarta.xml.bind.DatatypeConverter;
+
+/**
+ * Agent-local store of downloaded artifacts, shared by all jobs (and all agents) using the same directory.
+ * <p>
+ * Artifacts are kept as {@code <dir>/<build nvr>/<file name>}, next to {@code <file name>.md5} with hash sum computed
+ * when the file was downloaded. Time of last modification of the hash sum file is the time of last use, by which least
+ * recently used artifacts are evicted, when the store grows over its limit. Downloaded files are copied into the store
+ * (so the workspace they were downloaded to is not affected), and stored artifacts are hard-linked to workspaces
+ * (copied, if the workspace is on another file system). Stored artifacts are read-only, but a job running as the same
+ * user could still change them through its link, so hash sum of the content is computed again whenever an artifact
+ * is linked. An entry is used only if the content matches the recorded hash sum, and size and md5 reported by koji, if
+ * known.
+ * <p>
+ * Entries are keyed by nvr and file name only, not by checksum too. Koji never reuses nvr of a build, so an nvr and
+ * file name always identify the same artifact, and whenever koji reports its size or md5, the entry is checked against
+ * them before use (and replaced by new download, if it does not match). Adding the checksum to the key would only make
+ * entries unreachable for the files koji has no checksum for (e.g. archives of other suffixes than rpm).
+ * <p>
+ * Size of the store is counted as artifacts are added, and the store is scanned only when the count gets over the
+ * limit. Then least recently used artifacts are evicted down to {@link #EVICT_TO_RATIO} of the limit, so the scan is
+ * not repeated with every addition. Artifacts added by other jvms sharing the directory are counted by the next scan.
+ * <p>
+ * All changes are done under lock of {@code <dir>/.lock} file, so concurrent executors on one agent, or several agents
+ * on one machine, can share the store. Only cheap operations (checks of existence, links, renames, small sidecar
+ * files and the size bookkeeping) are done under the lock. Artifacts are copied into {@code <dir>/.tmp} and their hash
+ * sums are verified outside of it, so big artifacts do not make all other users of the store wait.
+ */
+class ArtifactStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArtifactStore.class);
+    private static final String HASH_SUFFIX = ".md5";
+    private static final String LOCK_FILE = ".lock";
+    private static final String TMP_DIR = ".tmp";
+    // temporary files older than this are leftovers of killed jvm
+    private static final long TMP_MAX_AGE_MILLIS = 24L * 60 * 60 * 1000;
+    private static final String HASH_ALGORITHM = "MD5";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Map<File, ArtifactStore> STORES = new ConcurrentHashMap<>();
+    static final double EVICT_TO_RATIO = 0.9;
+
+    private final File dir;
+    private final long maxBytes;
+    // guarded by this, negative if not counted yet
+    private long size = -1;
+
+    ArtifactStore(final File dir, final long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return store in given directory, shared by this jvm, or null if dir is not set
+     */
+    static ArtifactStore get(final String dir, final long maxBytes) {
+        if (dir == null || dir.trim().isEmpty()) {
+            return null;
+        }
+        return STORES.computeIfAbsent(new File(dir.trim()).getAbsoluteFile(), d -> new ArtifactStore(d, maxBytes));
+    }
+
+    File getDir() {
+        return dir;
+    }
+
+    /**
+     * Links stored artifact to target file. The content of the target is verified against the recorded hash sum after
+     * the lock is released.
+     *
+     * @param expected size and checksum reported by koji, may be null
+     * @return hash sum of the artifact, or null if there is no valid one in the store
+     */
+    String link(final String nvr, final String filename, final RPM expected, final File target) {
+        final File stored = new File(new File(dir, nvr), filename);
+        final File hashFile = new File(stored.getPath() + HASH_SUFFIX);
+        try {
+            final Linked linked = locked(() -> {
+                if (!stored.isFile() || !hashFile.isFile()) {
+                    return null;
+                }
+                final String hashSum = new String(Files.readAllBytes(hashFile.toPath()), StandardCharsets.UTF_8).trim();
+                if (expected != null && ((expected.getSize() != null && expected.getSize() != stored.length())
+                        || (expected.getChecksum() != null && !expected.getChecksum().equalsIgnoreCase(hashSum)))) {
+                    LOG.info("Stored " + stored.getAbsolutePath() + " does not match koji, removing it");
+                    remove(stored, hashFile);
+                    return null;
+                }
+                if (!hashFile.setLastModified(System.currentTimeMillis())) {
+                    LOG.info("Failed to touch " + hashFile.getAbsolutePath());
+                }
+                if (target.exists() && !target.delete()) {
+                    throw new IOException("Failed to delete " + target.getAbsolutePath());
+                }
+                try {
+                    Files.createLink(target.toPath(), stored.toPath());
+                    return new Linked(hashSum, null);
+                } catch (IOException | UnsupportedOperationException ex) {
+                    // most likely other file system; opened, so eviction meanwhile does not matter
+                    return new Linked(hashSum, new FileInputStream(stored));
+                }
+            });
+            if (linked == null) {
+                return null;
+            }
+            if (linked.source != null) {
+                try (InputStream in = linked.source) {
+                    Files.copy(in, target.toPath());
+                }
+            }
+            // reading the file is still much cheaper than downloading it
+            if (!linked.hashSum.equalsIgnoreCase(computeHashSum(target))) {
+                LOG.warn("Stored " + stored.getAbsolutePath() + " was changed, removing it");
+                delete(target);
+                locked(() -> {
+                    // unless it was replaced meanwhile
+                    if (hashFile.isFile() && linked.hashSum.equals(
+                            new String(Files.readAllBytes(hashFile.toPath()), StandardCharsets.UTF_8).trim())) {
+                        remove(stored, hashFile);
+                    }
+                    return null;
+                });
+                return null;
+            }
+            return linked.hashSum;
+        } catch (IOException ex) {
+            LOG.warn("Failed to link " + filename + " of " + nvr + " from " + dir.getAbsolutePath(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * Adds downloaded file to the store and evicts least recently used artifacts, if the store is too big. The file
+     * is copied to temporary file before the lock is taken, and only renamed under it.
+     */
+    void put(final String nvr, final String filename, final File file, final String hashSum) {
+        final File nvrDir = new File(dir, nvr);
+        final File stored = new File(nvrDir, filename);
+        final File hashFile = new File(stored.getPath() + HASH_SUFFIX);
+        if (stored.isFile() && hashFile.isFile()) {
+            // already stored, no need to copy it
+            return;
+        }
+        File tmpStored = null;
+        try {
+            final File tmpDir = new File(dir, TMP_DIR);
+            if (!tmpDir.isDirectory() && !tmpDir.mkdirs()) {
+                throw new IOException("Failed to create " + tmpDir.getAbsolutePath());
+            }
+            // copied, not linked, so making it read-only does not affect the workspace
+            tmpStored = Files.createTempFile(tmpDir.toPath(), filename, ".tmp").toFile();
+            Files.copy(file.toPath(), tmpStored.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (!tmpStored.setWritable(false, false)) {
+                LOG.info("Failed to make " + tmpStored.getAbsolutePath() + " read-only");
+            }
+            final File copy = tmpStored;
+            locked(() -> {
+                if (stored.isFile() && hashFile.isFile()) {
+                    // stored by concurrent job meanwhile
+                    return null;
+                }
+                if (!nvrDir.isDirectory() && !nvrDir.mkdirs()) {
+                    throw new IOException("Failed to create " + nvrDir.getAbsolutePath());
+                }
+                Files.move(copy.toPath(), stored.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                final File tmp = new File(hashFile.getPath() + ".tmp");
+                Files.write(tmp.toPath(), hashSum.getBytes(StandardCharsets.UTF_8));
+                Files.move(tmp.toPath(), hashFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (size < 0) {
+                    // counts also the just stored file
+                    size = scan(new ArrayList<>());
+                } else {
+                    size += stored.length();
+                }
+                if (size > maxBytes) {
+                    evict();
+                }
+                return null;
+            });
+        } catch (IOException ex) {
+            LOG.warn("Failed to store " + filename + " of " + nvr + " in " + dir.getAbsolutePath(), ex);
+        } finally {
+            if (tmpStored != null) {
+                // unless it was moved to the store
+                delete(tmpStored);
+            }
+        }
+    }
+
+    /**
+     * Deletes entry and subtracts it from the size of the store.
+     */
+    private void remove(final File stored, final File hashFile) {
+        final long length = stored.length();
+        delete(stored, hashFile);
+        if (size >= 0) {
+            size = Math.max(0, size - length);
+        }
+    }
+
+    private void evict() {
+        final List<File> hashFiles = new ArrayList<>();
+        size = scan(hashFiles);
+        final long evictTo = (long) (maxBytes * EVICT_TO_RATIO);
+        if (size <= maxBytes) {
+            return;
+        }
+        hashFiles.sort(Comparator.comparingLong(File::lastModified));
+        for (File hashFile : hashFiles) {
+            if (size <= evictTo) {
+                break;
+            }
+            final String path = hashFile.getPath();
+            final File stored = new File(path.substring(0, path.length() - HASH_SUFFIX.length()));
+            size -= stored.length();
+            LOG.info("Evicting " + stored.getAbsolutePath());
+            delete(hashFile, stored);
+            final File nvrDir = stored.getParentFile();
+            final String[] rest = nvrDir.list();
+            if (rest != null && rest.length == 0) {
+                delete(nvrDir);
+            }
+        }
+    }
+
+    /**
+     * Lists the whole store, cleaning leftovers of interrupted puts.
+     *
+     * @param hashFiles filled with hash sum files of all entries
+     * @return size of all stored artifacts
+     */
+    private long scan(final List<File> hashFiles) {
+        long total = 0;
+        final File[] nvrDirs = dir.listFiles(File::isDirectory);
+        if (nvrDirs == null) {
+            return 0;
+        }
+        for (File nvrDir : nvrDirs) {
+            if (nvrDir.getName().equals(TMP_DIR)) {
+                cleanTmpDir(nvrDir);
+                continue;
+            }
+            final File[] files = nvrDir.listFiles();
+            if (files == null || files.length == 0) {
+                delete(nvrDir);
+                continue;
+            }
+            for (File file : files) {
+                if (file.getName().endsWith(HASH_SUFFIX)) {
+                    hashFiles.add(file);
+                } else if (!new File(file.getPath() + HASH_SUFFIX).isFile()) {
+                    // left by interrupted put
+                    delete(file);
+                } else {
+                    total += file.length();
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Deletes temporary files of puts of killed jvms. Temporary files of running puts are younger.
+     */
+    private static void cleanTmpDir(final File tmpDir) {
+        final File[] files = tmpDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long oldest = System.currentTimeMillis() - TMP_MAX_AGE_MILLIS;
+        for (File file : files) {
+            if (file.lastModified() < oldest) {
+                delete(file);
+            }
+        }
+    }
+
+    /**
+     * @return md5 of the file, as computed by {@link KojiBuildDownloader} when it was downloaded
+     */
+    private static String computeHashSum(final File file) throws IOException {
+        final MessageDigest hashAlgorithm;
+        try {
+            hashAlgorithm = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new DigestInputStream(new FileInputStream(file), hashAlgorithm)) {
+            while (in.read(buffer) != -1) {
+                // just digesting
+            }
+        }
+        return DatatypeConverter.printHexBinary(hashAlgorithm.digest()).toLowerCase();
+    }
+
+    private static void delete(final File... files) {
+        for (File file : files) {
+            if (file.exists() && !file.delete()) {
+                LOG.warn("Failed to delete " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    private <T> T locked(final LockedAction<T> action) throws IOException {
+        // file lock is held by whole jvm, so threads of this jvm have to take turns first
+        synchronized (this) {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Failed to create " + dir.getAbsolutePath());
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+                 FileChannel channel = raf.getChannel();
+                 FileLock ignored = channel.lock()) {
+                return action.run();
+            }
+        }
+    }
+
+    private static final class Linked {
+
+        private final String hashSum;
+        // opened stored artifact, to be copied to the target, null if it was linked
+        private final InputStream source;
+
+        private Linked(final String hashSum, final InputStream source) {
+            this.hashSum = hashSum;
+            this.source = source;
+        }
+    }
+
+    private interface LockedAction<T> {
+        T run() throws IOException;
+    }
+}
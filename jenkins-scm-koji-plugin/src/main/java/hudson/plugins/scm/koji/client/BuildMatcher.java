@@ -23,7 +23,6 @@
  */
 package hudson.plugins.scm.koji.client;
 
-import hudson.plugins.scm.koji.Constants;
 import hudson.plugins.scm.koji.KojiBuildProvider;
 import hudson.plugins.scm.koji.client.tools.XmlRpcHelper;
 import hudson.plugins.scm.koji.model.Build;
@@ -33,13 +32,11 @@ import org.fakekoji.xmlrpc.server.expensiveobjectscache.RemoteRequestCacheConfig
 import org.fakekoji.xmlrpc.server.expensiveobjectscache.RemoteRequestsCache;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestParams;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
-import java.util.StringTokenizer;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -51,6 +48,11 @@ abstract class BuildMatcher {
 
     private static final OrderBy orderBy = OrderBy.DATE;
 
+    /**
+     * If true, each provider is asked only for its newest builds, see {@link #getNewestBuilds(BuildProvider, int)}.
+     */
+    static final boolean TOP_K = Boolean.parseBoolean(System.getProperty(BuildMatcher.class.getName() + ".topK", "true"));
+
     private final Iterable<KojiBuildProvider> buildProviders;
     private final Predicate<String> notProcessedNvrPredicate;
     private final int maxBuilds;
@@ -78,15 +80,43 @@ abstract class BuildMatcher {
      * 1 3
      *
      * you must filter after limit, otherwise strange builds will go in. The tests are covering this
+     *
+     * As only newest max builds survive the cut, it is enough to ask each provider for its newest max builds.
      */
     public static Stream<Build> listBuilds(BuildMatcher bm) {
+        return PollCoordinator.DEFAULT.getCandidates(bm.getCoordinationKey(), () -> listCandidates(bm))
+                .stream()
+                .filter(build -> bm.notProcessedNvrPredicate.test(build.getNvr()));
+    }
+
+    /**
+     * Sorted and cut builds, before they are filtered. These do not depend on processed nvrs of the job, so they are
+     * shared by all jobs with the same query, see {@link PollCoordinator}.
+     */
+    private static List<Build> listCandidates(BuildMatcher bm) {
         return StreamSupport.stream(bm.buildProviders.spliterator(), false)
                 .map(KojiBuildProvider::getBuildProvider)
-                .map(bm::getBuilds)
+                .map(buildProvider -> TOP_K ? bm.getNewestBuilds(buildProvider, bm.maxBuilds) : bm.getBuilds(buildProvider))
                 .flatMap(Collection::stream)
                 .sorted(BuildMatcher::compare)
                 .limit(bm.maxBuilds)
-                .filter(build -> bm.notProcessedNvrPredicate.test(build.getNvr()));
+                .collect(Collectors.toList());
+    }
+
+    private String getCoordinationKey() {
+        final String queryKey = getQueryKey();
+        if (queryKey == null) {
+            return null;
+        }
+        final StringBuilder sb = new StringBuilder(getClass().getSimpleName())
+                .append(' ').append(queryKey)
+                .append(" max=").append(maxBuilds)
+                .append(" topK=").append(TOP_K);
+        for (KojiBuildProvider provider : buildProviders) {
+            sb.append(' ').append(provider.getBuildProvider().getTopUrl())
+                    .append(' ').append(provider.getBuildProvider().getDownloadUrl());
+        }
+        return sb.toString();
     }
 
     /**
@@ -103,8 +133,25 @@ abstract class BuildMatcher {
 
     abstract List<Build> getBuilds(BuildProvider buildProvider);
 
+    /**
+     * Matching builds of the provider, containing at least count newest of them, if there are so many.
+     * Implementations able to list builds newest first should stop once they have count matching builds.
+     * Default implementation lists them all.
+     */
+    List<Build> getNewestBuilds(BuildProvider buildProvider, int count) {
+        return getBuilds(buildProvider);
+    }
+
     abstract Build getBuild(Build build);
 
+    /**
+     * Everything what determines result of {@link #getBuilds(BuildProvider)} besides providers. Jobs with equal keys
+     * share the builds listed, see {@link PollCoordinator}. Default is null, so the builds are not shared.
+     */
+    String getQueryKey() {
+        return null;
+    }
+
     public static int compare(Build b1, Build b2) {
         switch (orderBy) {
             case DATE:
@@ -117,79 +164,30 @@ abstract class BuildMatcher {
 
     private static final RemoteRequestsCache cache = new RemoteRequestsCache(
             RemoteRequestCacheConfigKeys.DEFAULT_CONFIG_LOCATION,
-            (url, params) -> new XmlRpcHelper.XmlRpcExecutioner(url).execute(params));
+            XmlRpcHelper.XmlRpcClientPool.DEFAULT::execute);
 
     public static Object execute(String url, XmlRpcRequestParams params) {
             return cache.obtain(url, params);
     }
 
+    /**
+     * Compares keys parsed once per build, as sort compares each build many times.
+     */
     public static int compareBuildsByCompletionTime(Build b1, Build b2) {
-        return compareKojiTime(b1.getCompletionTime(), b2.getCompletionTime(), Constants.DTF);
-
-    }
-
-    private static int compareKojiTime(String s1, String s2, DateTimeFormatter d) {
-        LocalDateTime thisCompletionTime = LocalDateTime.parse(sanitizeBadKojiDate(s1), d);
-        LocalDateTime thatCompletionTime = LocalDateTime.parse(sanitizeBadKojiDate(s2), d);
-        return thatCompletionTime.compareTo(thisCompletionTime);
+        return Long.compare(b2.getCompletionTimeKey(), b1.getCompletionTimeKey());
     }
 
-
     static String sanitizeBadKojiDate(String corruptedDate) {
-        if (corruptedDate.contains("+")) {
-            return corruptedDate.replaceAll("\\+[0-9]{1,2}:[0-9]{1,2}$", "");
-        } else {
-            return corruptedDate;
-        }
+        return Build.sanitizeBadKojiDate(corruptedDate);
     }
 
     private static int compareBuildVersions(Build b1, Build b2) {
         // comparing versions:
-        int res = compareStrings(b1.getVersion(), b2.getVersion());
+        int res = b2.getVersionKey().compareTo(b1.getVersionKey());
         if (res != 0) {
             return res;
         }
         // version are identical, comparing releases:
-        return compareStrings(b1.getRelease(), b2.getRelease());
-    }
-
-    private static int compareStrings(String s1, String s2) {
-        StringTokenizer tokenizer1 = new StringTokenizer(s1, "-.");
-        StringTokenizer tokenizer2 = new StringTokenizer(s2, "-.");
-        while (tokenizer1.hasMoreTokens() && tokenizer2.hasMoreTokens()) {
-            String t1 = tokenizer1.nextToken();
-            String t2 = tokenizer2.nextToken();
-            if (allDigits(t1) && allDigits(t2)) {
-                int i1 = Integer.parseInt(t1);
-                int i2 = Integer.parseInt(t2);
-                int intCompared = i1 - i2;
-                if (intCompared != 0) {
-                    return intCompared > 0 ? -1 : 1;
-                }
-                continue;
-            }
-            int stringCompared = t1.compareTo(t2);
-            if (stringCompared != 0) {
-                return stringCompared > 0 ? -1 : 1;
-            }
-        }
-        // if we are here then one of strings has ended,
-        // longer will be considered bigger version:
-        if (tokenizer1.hasMoreTokens()) {
-            return -1;
-        }
-        if (tokenizer2.hasMoreTokens()) {
-            return 1;
-        }
-        return 0;
-    }
-
-    private static boolean allDigits(String str) {
-        for (int i = 0; i < str.length(); i++) {
-            if (!Character.isDigit(str.charAt(i))) {
-                return false;
-            }
-        }
-        return true;
+        return b2.getReleaseKey().compareTo(b1.getReleaseKey());
     }
 }
@@ -4,9 +4,11 @@ import hudson.plugins.scm.koji.FakeKojiXmlRpcApi;
 import hudson.plugins.scm.koji.KojiBuildProvider;
 import hudson.plugins.scm.koji.model.Build;
 import hudson.plugins.scm.koji.model.BuildProvider;
+import hudson.plugins.scm.koji.model.RPM;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.GetBuildList;
 import org.fakekoji.xmlrpc.server.xmlrpcresponse.FakeBuildList;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Predicate;
 
@@ -36,8 +38,36 @@ class FakeKojiBuildMatcher extends BuildMatcher {
         return buildList.getValue();
     }
 
+    @Override
+    String getQueryKey() {
+        return "project=" + xmlRpcApi.getProjectName()
+                + " variants=" + xmlRpcApi.getBuildVariants()
+                + " platform=" + xmlRpcApi.getBuildPlatform()
+                + " built=" + xmlRpcApi.isBuilt();
+    }
+
+    /**
+     * The build is shared by jobs polling the same query, and its rpms are filled by download, so each job gets copy.
+     */
     @Override
     Build getBuild(Build build) {
-        return build;
+        final List<RPM> rpms = new ArrayList<>(build.getRpms().size());
+        for (RPM rpm : build.getRpms()) {
+            rpms.add(new RPM(rpm));
+        }
+        final Build copy = new Build(
+                build.getId(),
+                build.getName(),
+                build.getVersion(),
+                build.getRelease(),
+                build.getNvr(),
+                build.getCompletionTime(),
+                rpms,
+                build.getTags(),
+                build.getProvider(),
+                build.isManual()
+        );
+        copy.setSrcUrl(build.getSrcUrl());
+        return copy;
     }
 }
@@ -22,10 +22,10 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -33,12 +33,24 @@ import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.Date;
@@ -57,6 +69,40 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
     private static final Logger LOG = LoggerFactory.getLogger(KojiSCM.class);
     private static final int MAX_REDIRECTIONS = 10;
     private static final int BUFFER_SIZE = 8192;
+    private static final String HASH_ALGORITHM = "Md5";
+    /**
+     * Number of rpms downloaded concurrently. 1 or less downloads them one after another.
+     */
+    static final int DOWNLOAD_WORKERS = Integer.getInteger(KojiBuildDownloader.class.getName() + ".downloadWorkers", 4);
+    /**
+     * Number of concurrent downloads from single host, shared by all builds on this jvm.
+     */
+    static final int MAX_CONNECTIONS_PER_HOST = Integer.getInteger(KojiBuildDownloader.class.getName() + ".maxConnectionsPerHost", 4);
+    private static final Map<String, Semaphore> HOST_CONNECTIONS = new ConcurrentHashMap<>();
+    /**
+     * Number of attempts to download single file. Each attempt after the first one resumes from where the previous
+     * one stopped, if the server supports ranges.
+     */
+    static final int DOWNLOAD_ATTEMPTS = Integer.getInteger(KojiBuildDownloader.class.getName() + ".downloadAttempts", 3);
+    /**
+     * Timeouts of download connections, so a stalled transfer fails (and is resumed by the next attempt) instead of
+     * holding its worker and connection to the host forever. 0 means no timeout.
+     */
+    static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger(KojiBuildDownloader.class.getName() + ".connectTimeoutMillis", 60 * 1000);
+    static final int READ_TIMEOUT_MILLIS = Integer.getInteger(KojiBuildDownloader.class.getName() + ".readTimeoutMillis", 60 * 1000);
+    // connection being downloaded by each thread; blocking reads ignore interrupts, so cancelled ones are disconnected
+    private static final Map<Thread, HttpURLConnection> OPEN_CONNECTIONS = new ConcurrentHashMap<>();
+    /**
+     * Directory of artifact store shared by all jobs on this agent. Not set by default, so every job downloads its own
+     * files.
+     */
+    static final String ARTIFACT_STORE = System.getProperty(KojiBuildDownloader.class.getName() + ".artifactStore");
+    /**
+     * Size of the artifact store, over which least recently used artifacts are evicted.
+     */
+    static final long ARTIFACT_STORE_MAX_MEGABYTES = Long.getLong(KojiBuildDownloader.class.getName() + ".artifactStoreMaxMegabytes", 20 * 1024);
+    private static final String PART_SUFFIX = ".part";
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
 
     private final Iterable<KojiBuildProvider> kojiBuildProviders;
     private final KojiXmlRpcApi kojiXmlRpcApi;
@@ -68,6 +114,7 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
     private final int maxPreviousBuilds;
     private final boolean cleanDownloadDir;
     private final boolean dirPerNvr;
+    private transient UrlProber urlProber;
 
     public KojiBuildDownloader(
             Iterable<KojiBuildProvider> kojiBuildProviders,
@@ -212,20 +259,13 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
         }
         File targetFile = new File(targetDir, rpm.getFilename(""));
         log("Starting downloading " + rpm.getUrl());
-        try (
-                final OutputStream out = new BufferedOutputStream(new FileOutputStream(targetFile));
-                final InputStream in = httpDownloadStream(rpm.getUrl())
-        ) {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
-            }
+        try {
+            rpm.setHashSum(fetch(rpm.getUrl(), targetFile, rpm, null));
         } catch (IOException e) {
             log("Exception while downloading " + rpm.getFilename("") + ": ", e);
+            return Optional.empty();
         }
         log("Download successful");
-        rpm.setHashSum(hashSum(targetFile));
         return Optional.of(targetFile);
     }
 
@@ -327,13 +367,19 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
             };
         }
 
-        List<String> l = build.getRpms()
+        final List<RPM> rpms = build.getRpms()
                 .stream()
                 .filter(nvrPredicate)
                 .filter(whitelistPredicate)
-                .map(r -> downloadRPM(targetDir, build, r))
+                .collect(Collectors.toList());
+        final DownloadStatistics statistics = new DownloadStatistics();
+        List<String> l = downloadRPMs(targetDir, build, rpms, statistics)
+                .stream()
                 .map(File::getAbsolutePath)
                 .collect(Collectors.toList());
+        if (!build.isManual()) {
+            log(statistics.toString());
+        }
         int rpmsInBuildXml = build.getRpms().size();
         int dwnldedFiles = l.size();
         if (dwnldedFiles == 0) {
@@ -346,7 +392,55 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
         return l;
     }
 
-    private File downloadRPM(File targetDir, Build build, RPM rpm) {
+    /**
+     * Downloads rpms by {@link #DOWNLOAD_WORKERS} threads. If one of them fails, downloads of the others are cancelled
+     * and their connections closed.
+     *
+     * @return downloaded files, in order of rpms
+     */
+    List<File> downloadRPMs(File targetDir, Build build, List<RPM> rpms, DownloadStatistics statistics) {
+        final int workers = Math.min(DOWNLOAD_WORKERS, rpms.size());
+        if (workers <= 1) {
+            return rpms.stream().map(r -> downloadRPM(targetDir, build, r, statistics)).collect(Collectors.toList());
+        }
+        log("Downloading " + rpms.size() + " files by " + workers + " workers");
+        final List<Thread> threads = new CopyOnWriteArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+            final Thread t = new Thread(r, "KojiBuildDownloader-" + build.getNvr());
+            t.setDaemon(true);
+            threads.add(t);
+            return t;
+        });
+        try {
+            final List<Future<File>> futures = new ArrayList<>(rpms.size());
+            for (RPM rpm : rpms) {
+                futures.add(executor.submit(() -> downloadRPM(targetDir, build, rpm, statistics)));
+            }
+            final List<File> files = new ArrayList<>(rpms.size());
+            for (Future<File> future : futures) {
+                files.add(future.get());
+            }
+            return files;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while downloading RPMs", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException("Exception while downloading RPM", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+            for (Thread thread : threads) {
+                final HttpURLConnection connection = OPEN_CONNECTIONS.get(thread);
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+        }
+    }
+
+    private File downloadRPM(File targetDir, Build build, RPM rpm, DownloadStatistics statistics) {
         try {
             for (String suffix : RPM.Suffix.INSTANCE.getSuffixes()) {
                 String urlString = composeUrl(build.getProvider().getDownloadUrl(), build, rpm, suffix);
@@ -364,17 +458,12 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
                 rpm.setUrl(urlString);
                 File targetFile = new File(targetDir, rpm.getFilename(suffix));
                 log("To: " + targetFile);
-                if (!build.isManual()) {
-                    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(targetFile));
-                         InputStream in = httpDownloadStream(urlString)) {
-                        byte[] buffer = new byte[BUFFER_SIZE];
-                        int read;
-                        while ((read = in.read(buffer)) != -1) {
-                            out.write(buffer, 0, read);
-                        }
-                    }
+                if (build.isManual()) {
+                    rpm.setHashSum(hashSum(targetFile));
+                } else {
+                    // koji's metadata describe the rpm, not files of other suffixes
+                    rpm.setHashSum(fetch(urlString, targetFile, "rpm".equals(suffix) ? rpm : null, statistics));
                 }
-                rpm.setHashSum(hashSum(targetFile));
                 return targetFile;
             }
         } catch (RuntimeException ex) {
@@ -385,11 +474,188 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
         return null;
     }
 
+    /**
+     * Links target file from {@link #ARTIFACT_STORE}, if it is there, otherwise downloads it and adds it to the store.
+     *
+     * @return hash sum of the file
+     */
+    private String fetch(String urlString, File targetFile, RPM rpm, DownloadStatistics statistics) throws IOException {
+        final ArtifactStore store = ArtifactStore.get(ARTIFACT_STORE, ARTIFACT_STORE_MAX_MEGABYTES * 1024 * 1024);
+        if (store == null) {
+            return download(urlString, targetFile, rpm, statistics);
+        }
+        final String stored = store.link(build.getNvr(), targetFile.getName(), rpm, targetFile);
+        if (stored != null) {
+            log("Linked " + targetFile.getName() + " from " + store.getDir().getAbsolutePath());
+            return stored;
+        }
+        final String hashSum = download(urlString, targetFile, rpm, statistics);
+        store.put(build.getNvr(), targetFile.getName(), targetFile, hashSum);
+        return hashSum;
+    }
+
+    /**
+     * Downloads url to target file, while holding one of connections to its host. Data are written to .part file
+     * first. If the transfer breaks, it is resumed by Range request from where it stopped, up to
+     * {@link #DOWNLOAD_ATTEMPTS} times. The complete file is verified against size and md5 known to koji, if any, and
+     * only then renamed to the target file. Hash sum is computed from the downloaded stream, so the file does not need
+     * to be read again (except of already downloaded part, when resuming).
+     *
+     * @return hash sum of downloaded file
+     */
+    String download(String urlString, File targetFile, RPM rpm, DownloadStatistics statistics) throws IOException {
+        final File partFile = new File(targetFile.getParentFile(), targetFile.getName() + PART_SUFFIX);
+        final Semaphore connections = HOST_CONNECTIONS.computeIfAbsent(
+                new URL(urlString).getHost(),
+                host -> new Semaphore(Math.max(1, MAX_CONNECTIONS_PER_HOST))
+        );
+        try {
+            connections.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for connection to " + urlString, ex);
+        }
+        final long started = System.nanoTime();
+        long bytes = 0;
+        try {
+            IOException failure = null;
+            for (int attempt = 1; attempt <= Math.max(1, DOWNLOAD_ATTEMPTS); attempt++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Download of " + urlString + " cancelled");
+                }
+                final MessageDigest hashAlgorithm = createHashAlgorithm();
+                final long offset = partFile.exists() ? partFile.length() : 0;
+                HttpURLConnection connection = null;
+                try {
+                    connection = httpDownloadConnection(urlString, offset);
+                    if (connection.getResponseCode() == HTTP_RANGE_NOT_SATISFIABLE) {
+                        // the part is not smaller than the file, so it can not be trusted; start again
+                        if (!partFile.delete()) {
+                            log("Failed to delete " + partFile.getAbsolutePath());
+                        }
+                        throw new IOException("Range from " + offset + " not satisfiable for URL: " + urlString);
+                    }
+                    final boolean resumed = connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+                    if (resumed) {
+                        final String contentRange = connection.getHeaderField("Content-Range");
+                        if (getContentRangeStart(contentRange) != offset) {
+                            // appending other bytes would corrupt the part; start again
+                            if (!partFile.delete()) {
+                                log("Failed to delete " + partFile.getAbsolutePath());
+                            }
+                            throw new IOException("Content-Range " + contentRange + " does not start at " + offset
+                                    + " for URL: " + urlString);
+                        }
+                        log("Resuming " + partFile.getName() + " from " + offset + " bytes");
+                        digest(partFile, hashAlgorithm);
+                    }
+                    final long contentLength = connection.getContentLengthLong();
+                    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(partFile, resumed));
+                         InputStream in = new DigestInputStream(connection.getInputStream(), hashAlgorithm)) {
+                        byte[] buffer = new byte[BUFFER_SIZE];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            if (Thread.currentThread().isInterrupted()) {
+                                throw new InterruptedIOException("Download of " + urlString + " cancelled");
+                            }
+                            out.write(buffer, 0, read);
+                            bytes += read;
+                        }
+                    }
+                    final long expectedLength = resumed ? offset + contentLength : contentLength;
+                    if (contentLength >= 0 && partFile.length() != expectedLength) {
+                        throw new IOException("Incomplete download of " + urlString + ": "
+                                + partFile.length() + " of " + expectedLength + " bytes");
+                    }
+                    final String hashSum = DatatypeConverter.printHexBinary(hashAlgorithm.digest()).toLowerCase();
+                    verify(partFile, hashSum, rpm);
+                    java.nio.file.Files.move(
+                            partFile.toPath(),
+                            targetFile.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE
+                    );
+                    return hashSum;
+                } catch (IOException ex) {
+                    failure = ex;
+                    log("Attempt " + attempt + " to download " + urlString + " failed: " + ex);
+                    if (connection != null) {
+                        connection.disconnect();
+                    }
+                } finally {
+                    OPEN_CONNECTIONS.remove(Thread.currentThread());
+                }
+            }
+            throw failure;
+        } finally {
+            connections.release();
+            if (statistics != null) {
+                statistics.add(bytes, System.nanoTime() - started);
+            }
+        }
+    }
+
+    /**
+     * @return first byte position of Content-Range header ("bytes first-last/length"), -1 if it is missing or malformed
+     */
+    static long getContentRangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        final int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Checks downloaded file against koji's metadata. Corrupted file is deleted, so next attempt starts from scratch.
+     */
+    private void verify(File partFile, String hashSum, RPM rpm) throws IOException {
+        if (rpm == null) {
+            return;
+        }
+        String error = null;
+        if (rpm.getSize() != null && rpm.getSize() != partFile.length()) {
+            error = "size " + partFile.length() + " differs from expected " + rpm.getSize();
+        } else if (rpm.getChecksum() != null && !rpm.getChecksum().equalsIgnoreCase(hashSum)) {
+            error = "hash sum " + hashSum + " differs from expected " + rpm.getChecksum();
+        }
+        if (error != null) {
+            if (!partFile.delete()) {
+                log("Failed to delete " + partFile.getAbsolutePath());
+            }
+            throw new IOException("Verification of " + rpm.getFilename("") + " failed: " + error);
+        }
+    }
+
+    private static MessageDigest createHashAlgorithm() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void digest(File file, MessageDigest hashAlgorithm) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream inputStream = new DigestInputStream(new FileInputStream(file), hashAlgorithm)) {
+            while (inputStream.read(buffer) > 0) {
+                ;
+            }
+        }
+    }
+
     private String hashSum(File file) {
         byte[] buffer = new byte[BUFFER_SIZE];
         MessageDigest hashAlgorithm;
         try {
-            hashAlgorithm = MessageDigest.getInstance("Md5");
+            hashAlgorithm = MessageDigest.getInstance(HASH_ALGORITHM);
             try (InputStream inputStream = new DigestInputStream(new FileInputStream(file), hashAlgorithm)) {
                 while (inputStream.read(buffer) > 0) {
                     ;
@@ -402,46 +668,57 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
         return DatatypeConverter.printHexBinary(hashAlgorithm.digest()).toLowerCase();
     }
 
-    private InputStream httpDownloadStream(String urlString) {
+    /**
+     * @return connection with response 200, or 206 or 416 if offset is not 0 and the server supports ranges
+     */
+    private HttpURLConnection httpDownloadConnection(String urlString, long offset) throws IOException {
         HttpURLConnection httpConn = null;
         boolean keepConnection = false;
         for (int i = 0; i < MAX_REDIRECTIONS; i++) {
             try {
                 URL url = new URL(urlString);
                 httpConn = (HttpURLConnection) url.openConnection();
+                httpConn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+                httpConn.setReadTimeout(READ_TIMEOUT_MILLIS);
+                OPEN_CONNECTIONS.put(Thread.currentThread(), httpConn);
+                if (Thread.currentThread().isInterrupted()) {
+                    // cancelled before the connection could be disconnected
+                    throw new InterruptedIOException("Download of " + urlString + " cancelled");
+                }
                 httpConn.setRequestMethod("GET");
+                if (offset > 0) {
+                    httpConn.setRequestProperty("Range", "bytes=" + offset + "-");
+                }
                 int response = httpConn.getResponseCode();
                 switch (response) {
-                    case 200: {
+                    case 200:
+                    case 206:
+                    case 416: {
                         keepConnection = true;
-                        return httpConn.getInputStream();
+                        return httpConn;
                     }
                     case 301:
                     case 302: {
                         String location = httpConn.getHeaderField("Location");
                         if (location == null || location.isEmpty()) {
-                            throw new Exception("Invalid Location header for response " + response);
+                            throw new IOException("Invalid Location header for response " + response);
                         }
                         if (urlString.equals(location)) {
-                            throw new Exception("Infinite redirection loop detected for URL: " + urlString);
+                            throw new IOException("Infinite redirection loop detected for URL: " + urlString);
                         }
                         urlString = location;
                         break;
                     }
                     default:
-                        throw new Exception("Unsupported HTTP response " + response + " for URL: " + urlString);
+                        throw new IOException("Unsupported HTTP response " + response + " for URL: " + urlString);
                 }
-            } catch (RuntimeException ex) {
-                throw ex;
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
             } finally {
                 if (!keepConnection && httpConn != null) {
                     httpConn.disconnect();
                 }
             }
         }
-        throw new RuntimeException("Too many redirects for URL: " + urlString);
+        throw new IOException("Too many redirects for URL: " + urlString);
     }
 
     private String composeUrl(String kojiDownloadUrl, Build build, RPM rpm, String suffix) {
@@ -541,29 +818,39 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
     }
 
     private boolean isUrlReachable(String urlString) {
-        try {
-            return isUrlReachableImpl(urlString, MAX_REDIRECTIONS);
-        } catch (Exception e) {
-            LOG.info(e.toString());
-            return false;
+        return getUrlProber().isReachable(urlString);
+    }
+
+    private synchronized UrlProber getUrlProber() {
+        // the callable is serialized to the agent, so the prober is created there, once per download
+        if (urlProber == null) {
+            urlProber = new UrlProber();
         }
+        return urlProber;
     }
 
-    private boolean isUrlReachableImpl(String urlString, int redirectionsRemaining) throws MalformedURLException, IOException {
-        URL u = new URL(urlString);
-        HttpURLConnection huc = (HttpURLConnection) u.openConnection();
-        try {
-            huc.setRequestMethod("GET");  //OR  huc.setRequestMethod ("HEAD");
-            huc.connect();
-            int code = huc.getResponseCode();
-            // http 301=Moved Permanently; 302=Found
-            // koji.fedoraproject.org might return both
-            if ((code == 301 || code == 302) && redirectionsRemaining > 0) {
-                return isUrlReachableImpl(huc.getHeaderField("Location"), redirectionsRemaining - 1);
-            }
-            return code == 200;
-        } finally {
-            huc.disconnect();
+    /**
+     * Aggregate throughput of concurrent downloads of one build.
+     */
+    static class DownloadStatistics {
+
+        private final long started = System.nanoTime();
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        void add(long fileBytes, long nanos) {
+            files.incrementAndGet();
+            bytes.addAndGet(fileBytes);
+            busyNanos.addAndGet(nanos);
+        }
+
+        @Override
+        public String toString() {
+            final double seconds = Math.max(1, System.nanoTime() - started) / 1_000_000_000d;
+            final double megabytes = bytes.get() / (1024d * 1024d);
+            return String.format(Locale.ROOT, "Downloaded %d files, %.1f MiB in %.1f s: %.1f MiB/s (%.1f s spent in downloads)",
+                    files.get(), megabytes, seconds, megabytes / seconds, busyNanos.get() / 1_000_000_000d);
         }
     }
 
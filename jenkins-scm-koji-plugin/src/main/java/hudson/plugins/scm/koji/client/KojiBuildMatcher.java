@@ -11,17 +11,20 @@ import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListArchives;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListBuilds;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListRPMs;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListTags;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListTagsMultiCall;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestParams;
 import org.fakekoji.xmlrpc.server.xmlrpcresponse.ArchiveList;
 import org.fakekoji.xmlrpc.server.xmlrpcresponse.BuildList;
 import org.fakekoji.xmlrpc.server.xmlrpcresponse.PackageId;
 import org.fakekoji.xmlrpc.server.xmlrpcresponse.RPMList;
 import org.fakekoji.xmlrpc.server.xmlrpcresponse.TagSet;
+import org.fakekoji.xmlrpc.server.xmlrpcresponse.TagSetList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -30,8 +33,18 @@ import java.util.function.Predicate;
 class KojiBuildMatcher extends BuildMatcher {
 
     private static final Logger LOG = LoggerFactory.getLogger(KojiBuildMatcher.class);
+    /**
+     * Number of builds, whose tags are listed in single system.multicall round trip. 1 or less disables the multicall,
+     * and tags of each build are listed by separate request.
+     */
+    static final int LIST_TAGS_BATCH_SIZE = Integer.getInteger(KojiBuildMatcher.class.getName() + ".listTagsBatchSize", 100);
+    /**
+     * Number of builds listed in one listBuilds request, when looking for newest builds.
+     */
+    static final int NEWEST_BUILDS_PAGE_SIZE = Integer.getInteger(KojiBuildMatcher.class.getName() + ".newestBuildsPageSize", 20);
 
     private final GlobPredicate tagPredicate;
+    private final String tag;
     private final String pkgName;
     private final List<String> archs;
 
@@ -43,6 +56,7 @@ class KojiBuildMatcher extends BuildMatcher {
     ) {
         super(kojiBuildProviders, notProcessedNvrPredicate, maxBuilds);
         this.tagPredicate = new GlobPredicate(kojiXmlRpcApi.getTag(), null);
+        this.tag = kojiXmlRpcApi.getTag();
         this.pkgName = kojiXmlRpcApi.getPackageName();
         this.archs = composeArchList(kojiXmlRpcApi.getArch());
     }
@@ -50,8 +64,64 @@ class KojiBuildMatcher extends BuildMatcher {
     @Override
     List<Build> getBuilds(BuildProvider buildProvider) {
         final List<Build> builds = new ArrayList<>();
-        for (final Build build : listPackageBuilds(buildProvider.getTopUrl(), pkgName)) {
-            final Set<String> tags = retrieveTags(buildProvider.getTopUrl(), build);
+        final List<Build> packageBuilds = listPackageBuilds(buildProvider.getTopUrl(), pkgName);
+        addTagMatching(buildProvider, packageBuilds, builds);
+        return builds;
+    }
+
+    /**
+     * Pages through builds of each package newest first, and checks tags page by page, until count matching builds
+     * is found. Hubs ignoring queryOpts return all builds at once, which are then simply all checked.
+     */
+    @Override
+    List<Build> getNewestBuilds(BuildProvider buildProvider, int count) {
+        final String url = buildProvider.getTopUrl();
+        final List<Build> builds = new ArrayList<>();
+        for (String pkg : pkgName.split("\\s+")) {
+            final Integer packageId = getPackageId(url, pkg);
+            if (packageId == null) {
+                continue;
+            }
+            final int found = builds.size();
+            // pages may overlap, if new build arrived meanwhile (or if offset is ignored)
+            final Set<Integer> seen = new HashSet<>();
+            for (int offset = 0; builds.size() - found < count; offset += NEWEST_BUILDS_PAGE_SIZE) {
+                final XmlRpcRequestParams params = new ListBuilds(packageId, NEWEST_BUILDS_PAGE_SIZE, offset);
+                final List<Build> page = BuildList.create(execute(url, params)).getValue();
+                if (page == null || page.isEmpty()) {
+                    break;
+                }
+                final List<Build> unseen = new ArrayList<>(page.size());
+                for (Build build : page) {
+                    if (seen.add(build.getId())) {
+                        unseen.add(build);
+                    }
+                }
+                if (unseen.isEmpty()) {
+                    break;
+                }
+                addTagMatching(buildProvider, unseen, builds);
+                if (page.size() != NEWEST_BUILDS_PAGE_SIZE) {
+                    break;
+                }
+            }
+        }
+        return builds;
+    }
+
+    /**
+     * Archs are not part of the key, as they matter only for rpms of the chosen build.
+     */
+    @Override
+    String getQueryKey() {
+        return "package=" + pkgName + " tag=" + tag;
+    }
+
+    private void addTagMatching(BuildProvider buildProvider, List<Build> packageBuilds, List<Build> builds) {
+        final List<Set<String>> packageBuildsTags = retrieveTags(buildProvider.getTopUrl(), packageBuilds);
+        for (int i = 0; i < packageBuilds.size(); i++) {
+            final Build build = packageBuilds.get(i);
+            final Set<String> tags = packageBuildsTags.get(i);
             if (matchesTagPredicate(tags)) {
                 builds.add(
                         new Build(
@@ -69,7 +139,6 @@ class KojiBuildMatcher extends BuildMatcher {
                 );
             }
         }
-        return builds;
     }
 
     Build getBuild(Build build) {
@@ -120,6 +189,43 @@ class KojiBuildMatcher extends BuildMatcher {
         return builds;
     }
 
+    private List<Set<String>> retrieveTags(String url, List<Build> builds) {
+        return retrieveTags(url, builds, LIST_TAGS_BATCH_SIZE);
+    }
+
+    /**
+     * @return tags of given builds, in the same order
+     */
+    List<Set<String>> retrieveTags(String url, List<Build> builds, int batchSize) {
+        final List<Set<String>> tags = new ArrayList<>(builds.size());
+        if (batchSize <= 1) {
+            for (Build build : builds) {
+                tags.add(retrieveTags(url, build));
+            }
+            return tags;
+        }
+        for (int from = 0; from < builds.size(); from += batchSize) {
+            final List<Build> batch = builds.subList(from, Math.min(from + batchSize, builds.size()));
+            final List<Integer> buildIds = new ArrayList<>(batch.size());
+            for (Build build : batch) {
+                buildIds.add(build.getId());
+            }
+            try {
+                tags.addAll(retrieveTags(url, new ListTagsMultiCall(buildIds)));
+            } catch (RuntimeException ex) {
+                LOG.warn("Failed to list tags of " + batch.size() + " builds in single " + Constants.multicall + ", listing one by one", ex);
+                for (Build build : batch) {
+                    tags.add(retrieveTags(url, build));
+                }
+            }
+        }
+        return tags;
+    }
+
+    List<Set<String>> retrieveTags(String url, ListTagsMultiCall params) {
+        return TagSetList.create(execute(url, params)).getValue();
+    }
+
     private Set<String> retrieveTags(String url, Build build) {
         final XmlRpcRequestParams params = new ListTags(build.getId());
         final TagSet response = TagSet.create(execute(url, params));
@@ -166,6 +272,10 @@ class KojiBuildMatcher extends BuildMatcher {
         } else {
             addWindowsArchives(archivefilenames, archives, build);
         }
+        for (RPM archive : archives) {
+            archive.setSize(response.getSize(archive.getFilename("")));
+            archive.setChecksum(response.getMd5(archive.getFilename("")));
+        }
         return archives;
     }
 
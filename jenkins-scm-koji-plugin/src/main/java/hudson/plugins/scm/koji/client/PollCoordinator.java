@@ -0,0 +1,106 @@
+package hudson.plugins.scm.koji.client;
+
+import hudson.plugins.scm.koji.model.Build;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Shares candidate builds among all jobs of this jvm polling the same query (same providers, package, tags...).
+ * <p>
+ * Each query is run at most once per interval. Polls of the same query, which come meanwhile, get the same candidates,
+ * and polls, which come while the query is running, wait for it instead of running it again. Each job then filters
+ * the candidates by its own processed nvrs. So the load of koji and of polling threads grows with number of distinct
+ * queries rather than with number of jobs.
+ * <p>
+ * {@link #DEFAULT} is shared only by polls running in the same jvm. Without the require workspace option, all polls
+ * run on the controller and share it. With it, {@link KojiListBuilds} runs on the agent holding the workspace, so each
+ * agent has its own coordinator, and the same query is run once per interval by each agent polling it.
+ */
+class PollCoordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PollCoordinator.class);
+    /**
+     * How long are candidates of query shared. 0 disables the sharing.
+     */
+    static final long INTERVAL_SECONDS = Long.getLong(PollCoordinator.class.getName() + ".intervalSeconds", 30);
+    static final PollCoordinator DEFAULT = new PollCoordinator(TimeUnit.SECONDS.toMillis(INTERVAL_SECONDS));
+    // queries not polled for this many intervals are forgotten
+    private static final int RETENTION_INTERVALS = 10;
+
+    private final long intervalMillis;
+    private final Map<String, Query> queries = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    PollCoordinator(final long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * @param key   identity of the query, null if it should not be shared
+     * @param query lists candidates, called only if there are no fresh ones of the key
+     * @return unmodifiable candidates
+     */
+    List<Build> getCandidates(final String key, final Supplier<List<Build>> query) {
+        if (key == null || intervalMillis <= 0) {
+            return query.get();
+        }
+        final List<Build> candidates = queries.computeIfAbsent(key, Query::new).get(query, intervalMillis);
+        sweep();
+        return candidates;
+    }
+
+    int size() {
+        return queries.size();
+    }
+
+    private void sweep() {
+        final long now = System.currentTimeMillis();
+        final long last = lastSweep.get();
+        if (now - last < intervalMillis || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        queries.values().removeIf(q -> q.isStale(now, RETENTION_INTERVALS * intervalMillis));
+    }
+
+    private static class Query {
+
+        private final String key;
+        // read without lock by sweep, which must not wait for running query
+        private volatile List<Build> candidates;
+        private volatile long obtained;
+        private long shared;
+
+        private Query(final String key) {
+            this.key = key;
+        }
+
+        // polls of this key wait here while the query is running
+        private synchronized List<Build> get(final Supplier<List<Build>> query, final long intervalMillis) {
+            final long now = System.currentTimeMillis();
+            if (candidates != null && now - obtained < intervalMillis) {
+                shared++;
+                return candidates;
+            }
+            if (candidates != null) {
+                LOG.info("Candidates of " + key + " were shared by " + shared + " polls");
+            }
+            candidates = Collections.unmodifiableList(new ArrayList<>(query.get()));
+            obtained = System.currentTimeMillis();
+            shared = 0;
+            return candidates;
+        }
+
+        private boolean isStale(final long now, final long retentionMillis) {
+            return candidates != null && now - obtained > retentionMillis;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package hudson.plugins.scm.koji.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answers whether url is reachable with as few requests as possible, for one download of build.
+ * <p>
+ * Directory of the url is listed first, once. If the server offers listing, all files of the directory are resolved
+ * from it. Otherwise (including 404, as many servers refuse directory urls but still serve the files) the url is
+ * probed by HEAD request (GET if HEAD is not allowed). Connection of HEAD request is not closed, so jdk keeps it alive and the following
+ * download from the same host reuses it. All answers are remembered.
+ */
+class UrlProber {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UrlProber.class);
+    private static final int MAX_REDIRECTIONS = 10;
+    private static final int MAX_LISTING_BYTES = 4 * 1024 * 1024;
+    private static final Pattern HREF = Pattern.compile("href=\"([^\"]+)\"", Pattern.CASE_INSENSITIVE);
+
+    private final Map<String, Boolean> reachable = new ConcurrentHashMap<>();
+    private final Map<String, DirListing> listings = new ConcurrentHashMap<>();
+
+    boolean isReachable(String url) {
+        final Boolean known = reachable.get(url);
+        if (known != null) {
+            return known;
+        }
+        final boolean probed = probe(url);
+        reachable.put(url, probed);
+        return probed;
+    }
+
+    private boolean probe(String url) {
+        final String path = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        final int slash = path.lastIndexOf('/');
+        final String name = path.substring(slash + 1);
+        if (slash < 0 || name.isEmpty() || name.equals(".") || name.equals("..")) {
+            return head(url);
+        }
+        final DirListing listing = listings.computeIfAbsent(path.substring(0, slash + 1), this::list);
+        if (listing.names != null) {
+            return listing.names.contains(name);
+        }
+        return head(url);
+    }
+
+    private boolean head(String url) {
+        try {
+            return headImpl(url, MAX_REDIRECTIONS);
+        } catch (Exception e) {
+            LOG.info(e.toString());
+            return false;
+        }
+    }
+
+    private boolean headImpl(String urlString, int redirectionsRemaining) throws IOException {
+        final HttpURLConnection huc = (HttpURLConnection) new URL(urlString).openConnection();
+        huc.setRequestMethod("HEAD");
+        int code = huc.getResponseCode();
+        if (code == HttpURLConnection.HTTP_BAD_METHOD || code == HttpURLConnection.HTTP_NOT_IMPLEMENTED) {
+            huc.disconnect();
+            return getImpl(urlString, redirectionsRemaining);
+        }
+        // http 301=Moved Permanently; 302=Found
+        // koji.fedoraproject.org might return both
+        if ((code == 301 || code == 302) && redirectionsRemaining > 0) {
+            return headImpl(huc.getHeaderField("Location"), redirectionsRemaining - 1);
+        }
+        return code == 200;
+    }
+
+    private boolean getImpl(String urlString, int redirectionsRemaining) throws IOException {
+        final HttpURLConnection huc = (HttpURLConnection) new URL(urlString).openConnection();
+        try {
+            huc.setRequestMethod("GET");
+            huc.connect();
+            int code = huc.getResponseCode();
+            if ((code == 301 || code == 302) && redirectionsRemaining > 0) {
+                return getImpl(huc.getHeaderField("Location"), redirectionsRemaining - 1);
+            }
+            return code == 200;
+        } finally {
+            huc.disconnect();
+        }
+    }
+
+    private DirListing list(String dirUrl) {
+        try {
+            return listImpl(dirUrl, MAX_REDIRECTIONS);
+        } catch (Exception e) {
+            LOG.info("Failed to list " + dirUrl + ": " + e);
+            return DirListing.UNLISTABLE;
+        }
+    }
+
+    private DirListing listImpl(String dirUrl, int redirectionsRemaining) throws IOException {
+        final HttpURLConnection huc = (HttpURLConnection) new URL(dirUrl).openConnection();
+        huc.setRequestMethod("GET");
+        final int code = huc.getResponseCode();
+        if ((code == 301 || code == 302) && redirectionsRemaining > 0) {
+            huc.disconnect();
+            return listImpl(huc.getHeaderField("Location"), redirectionsRemaining - 1);
+        }
+        final String contentType = huc.getContentType();
+        if (code != 200 || contentType == null || !contentType.toLowerCase().startsWith("text/html")) {
+            huc.disconnect();
+            return DirListing.UNLISTABLE;
+        }
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = huc.getInputStream()) {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+                if (body.size() > MAX_LISTING_BYTES) {
+                    huc.disconnect();
+                    return DirListing.UNLISTABLE;
+                }
+            }
+        }
+        final Set<String> names = new HashSet<>();
+        final Matcher matcher = HREF.matcher(new String(body.toByteArray(), StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            names.add(toName(matcher.group(1)));
+        }
+        if (names.isEmpty()) {
+            return DirListing.UNLISTABLE;
+        }
+        LOG.info("Listed " + names.size() + " entries of " + dirUrl);
+        return new DirListing(Collections.unmodifiableSet(names));
+    }
+
+    /**
+     * Last segment of link, without query and trailing slash: both koji's relative links and fake-koji's absolute
+     * paths end with the file name.
+     */
+    private static String toName(String href) throws UnsupportedEncodingException {
+        String name = href.replaceAll("[?#].*$", "");
+        if (name.endsWith("/")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        // plus is literal in path, but URLDecoder would turn it to space
+        return URLDecoder.decode(name.substring(name.lastIndexOf('/') + 1).replace("+", "%2B"), "UTF-8");
+    }
+
+    private static class DirListing {
+
+        private static final DirListing UNLISTABLE = new DirListing(null);
+
+        private final Set<String> names;
+
+        private DirListing(Set<String> names) {
+            this.names = names;
+        }
+    }
+}
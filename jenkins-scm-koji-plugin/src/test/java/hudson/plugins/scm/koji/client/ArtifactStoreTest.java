@@ -0,0 +1,105 @@
+package hudson.plugins.scm.koji.client;
+
+import hudson.plugins.scm.koji.model.RPM;
+import jakarta.xml.bind.DatatypeConverter;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class ArtifactStoreTest {
+
+    private static final String NVR = "java-1.8.0-openjdk-1.8.0.151-1.b12.fc27";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void storedArtifactIsLinkedToOtherWorkspace() throws IOException {
+        final ArtifactStore store = new ArtifactStore(temporaryFolder.newFolder("store"), 1024);
+        final File downloaded = write(temporaryFolder.newFolder("ws1"), "a.rpm", "aaaa");
+        store.put(NVR, "a.rpm", downloaded, md5("aaaa"));
+        // copied to the store, the workspace is not affected
+        Assert.assertTrue(downloaded.canWrite());
+
+        final File target = new File(temporaryFolder.newFolder("ws2"), "a.rpm");
+        Assert.assertEquals(md5("aaaa"), store.link(NVR, "a.rpm", null, target));
+        Assert.assertEquals("aaaa", new String(Files.readAllBytes(target.toPath()), StandardCharsets.UTF_8));
+        Assert.assertNull(store.link(NVR, "b.rpm", null, new File(target.getParentFile(), "b.rpm")));
+    }
+
+    @Test
+    public void artifactNotMatchingKojiIsNotUsed() throws IOException {
+        final ArtifactStore store = new ArtifactStore(temporaryFolder.newFolder("store"), 1024);
+        store.put(NVR, "a.tarxz", write(temporaryFolder.newFolder("ws1"), "a.tarxz", "aaaa"), md5("aaaa"));
+        final RPM expected = new RPM("a", "1", "1", "a.tarxz", "x86_64", null);
+        expected.setSize(4L);
+        expected.setChecksum(md5("bbbb"));
+
+        final File target = new File(temporaryFolder.newFolder("ws2"), "a.tarxz");
+        Assert.assertNull(store.link(NVR, "a.tarxz", expected, target));
+        Assert.assertFalse(target.exists());
+        expected.setChecksum(md5("aaaa"));
+        Assert.assertNull(store.link(NVR, "a.tarxz", expected, target));
+    }
+
+    @Test
+    public void artifactChangedThroughWorkspaceLinkIsNotUsed() throws IOException {
+        final ArtifactStore store = new ArtifactStore(temporaryFolder.newFolder("store"), 1024);
+        store.put(NVR, "a.rpm", write(temporaryFolder.newFolder("ws1"), "a.rpm", "aaaa"), md5("aaaa"));
+        final File ws2 = temporaryFolder.newFolder("ws2");
+        final File linked = new File(ws2, "a.rpm");
+        Assert.assertNotNull(store.link(NVR, "a.rpm", null, linked));
+        // job running as the same user can make its copy writable again
+        Assert.assertTrue(linked.setWritable(true));
+        write(ws2, "a.rpm", "bbbb");
+
+        Assert.assertNull(store.link(NVR, "a.rpm", null, new File(temporaryFolder.newFolder("ws3"), "a.rpm")));
+        Assert.assertFalse(new File(new File(store.getDir(), NVR), "a.rpm").exists());
+    }
+
+    @Test
+    public void leastRecentlyUsedArtifactsAreEvicted() throws IOException {
+        final ArtifactStore store = new ArtifactStore(temporaryFolder.newFolder("store"), 10);
+        final File ws = temporaryFolder.newFolder("ws");
+        store.put(NVR, "a.rpm", write(ws, "a.rpm", "aaaa"), md5("aaaa"));
+        store.put(NVR, "b.rpm", write(ws, "b.rpm", "bbbb"), md5("bbbb"));
+        ageHashFiles(store, 2000);
+        Assert.assertNotNull(store.link(NVR, "a.rpm", null, new File(ws, "a2.rpm")));
+        store.put(NVR, "c.rpm", write(ws, "c.rpm", "cccc"), md5("cccc"));
+
+        Assert.assertNotNull(store.link(NVR, "a.rpm", null, new File(ws, "a3.rpm")));
+        Assert.assertNull(store.link(NVR, "b.rpm", null, new File(ws, "b2.rpm")));
+        Assert.assertNotNull(store.link(NVR, "c.rpm", null, new File(ws, "c2.rpm")));
+    }
+
+    private static void ageHashFiles(ArtifactStore store, long millis) {
+        final File[] files = new File(store.getDir(), NVR).listFiles();
+        Assert.assertNotNull(files);
+        for (File file : files) {
+            Assert.assertTrue(file.setLastModified(file.lastModified() - millis));
+        }
+    }
+
+    private static String md5(String content) {
+        try {
+            final MessageDigest md5 = MessageDigest.getInstance("MD5");
+            return DatatypeConverter.printHexBinary(md5.digest(content.getBytes(StandardCharsets.UTF_8))).toLowerCase();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static File write(File dir, String name, String content) throws IOException {
+        final File file = new File(dir, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,382 @@
+package hudson.plugins.scm.koji.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import hudson.plugins.scm.koji.model.Build;
+import hudson.plugins.scm.koji.model.BuildProvider;
+import hudson.plugins.scm.koji.model.RPM;
+import org.fakekoji.api.http.filehandling.FileReturningHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KojiBuildDownloaderTest {
+
+    private static final String FILE_NAME = "pkg-1-2.x86_64.rpm";
+    private static final int RPMS = 6;
+    private static final String FAILING_ARCH = "ppc64le";
+    private static final String STALLED_ARCH = "s390x";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    // method, path and range of each request
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final byte[] content = new byte[100 * 1024];
+    private File servedRoot;
+    private File targetDir;
+    private FileReturningHandler fileHandler;
+    private ExecutorService serverExecutor;
+    private HttpServer server;
+    // concurrent downloads of rpms of the package
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private String base;
+    // counted down when the server sees the stalled download closed
+    private final CountDownLatch stalledClosed = new CountDownLatch(1);
+
+    @Before
+    public void start() throws IOException {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        servedRoot = temporaryFolder.newFolder("served");
+        targetDir = temporaryFolder.newFolder("target");
+        for (String dir : new String[]{"files", "broken"}) {
+            Assert.assertTrue(new File(servedRoot, dir).mkdir());
+            Files.write(new File(new File(servedRoot, dir), FILE_NAME).toPath(), content);
+        }
+        fileHandler = new FileReturningHandler(servedRoot);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/files/", exchange -> {
+            record(exchange);
+            fileHandler.handle(exchange);
+        });
+        final AtomicBoolean broken = new AtomicBoolean();
+        server.createContext("/broken/", exchange -> {
+            record(exchange);
+            if (broken.compareAndSet(false, true)) {
+                // connection lost in the middle of transfer
+                exchange.sendResponseHeaders(200, content.length);
+                try {
+                    exchange.getResponseBody().write(content, 0, content.length / 2);
+                    exchange.getResponseBody().flush();
+                } finally {
+                    exchange.close();
+                }
+                return;
+            }
+            fileHandler.handle(exchange);
+        });
+        server.createContext("/ignoring/", exchange -> {
+            record(exchange);
+            send(exchange, 200, null, content);
+        });
+        server.createContext("/shifted/", exchange -> {
+            record(exchange);
+            if (exchange.getRequestHeaders().getFirst("Range") == null) {
+                send(exchange, 200, null, content);
+            } else {
+                // whole file, whatever was asked for
+                send(exchange, 206, "bytes 0-" + (content.length - 1) + "/" + content.length, content);
+            }
+        });
+        server.createContext("/pkg/", exchange -> {
+            record(exchange);
+            if (exchange.getRequestMethod().equals("GET") && !exchange.getRequestURI().getPath().endsWith("/")) {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    // long enough for the other workers to come
+                    Thread.sleep(100);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+            fileHandler.handle(exchange);
+        });
+        server.createContext("/pkg/1/2/" + FAILING_ARCH + "/", exchange -> {
+            record(exchange);
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                // exists, but can not be downloaded
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            } else {
+                send(exchange, exchange.getRequestURI().getPath().endsWith("/") ? 404 : 500, null, new byte[0]);
+            }
+        });
+        server.createContext("/pkg/1/2/" + STALLED_ARCH + "/", exchange -> {
+            record(exchange);
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+            if (exchange.getRequestURI().getPath().endsWith("/")) {
+                send(exchange, 404, null, new byte[0]);
+                return;
+            }
+            // trickles, so no read timeout is hit; bigger than jdk drains on close of kept-alive connection
+            final int length = 1024 * 1024;
+            exchange.sendResponseHeaders(200, length);
+            try {
+                for (int i = 0; i < length; i++) {
+                    exchange.getResponseBody().write(i);
+                    exchange.getResponseBody().flush();
+                    Thread.sleep(20);
+                }
+            } catch (IOException ex) {
+                stalledClosed.countDown();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        base = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stop() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        fileHandler.stop();
+    }
+
+    @Test
+    public void brokenTransferIsResumed() throws IOException {
+        final File target = new File(targetDir, FILE_NAME);
+        final String hashSum = createDownloader().download(base + "/broken/" + FILE_NAME, target, createRpm(), null);
+
+        Assert.assertEquals(md5(content), hashSum);
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        Assert.assertArrayEquals(new String[]{FILE_NAME}, targetDir.list());
+        Assert.assertEquals(2, requests.size());
+        Assert.assertEquals("GET /broken/" + FILE_NAME + " null", requests.get(0));
+        Assert.assertTrue(requests.get(1), requests.get(1).matches("GET /broken/" + FILE_NAME + " bytes=[1-9][0-9]*-"));
+    }
+
+    @Test
+    public void partNotSmallerThanFileIsDownloadedAgain() throws IOException {
+        final File target = new File(targetDir, FILE_NAME);
+        final byte[] stale = Arrays.copyOf(content, content.length + 10);
+        Files.write(new File(targetDir, FILE_NAME + ".part").toPath(), stale);
+        final String hashSum = createDownloader().download(base + "/files/" + FILE_NAME, target, createRpm(), null);
+
+        Assert.assertEquals(md5(content), hashSum);
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        Assert.assertArrayEquals(new String[]{FILE_NAME}, targetDir.list());
+        Assert.assertEquals(
+                Arrays.asList(
+                        "GET /files/" + FILE_NAME + " bytes=" + stale.length + "-",
+                        "GET /files/" + FILE_NAME + " null"
+                ),
+                requests
+        );
+    }
+
+    @Test
+    public void partIsReplacedWhenRangeIsIgnored() throws IOException {
+        final File target = new File(targetDir, FILE_NAME);
+        Files.write(new File(targetDir, FILE_NAME + ".part").toPath(), "garbage".getBytes(StandardCharsets.UTF_8));
+        final String hashSum = createDownloader().download(base + "/ignoring/" + FILE_NAME, target, createRpm(), null);
+
+        Assert.assertEquals(md5(content), hashSum);
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        Assert.assertArrayEquals(new String[]{FILE_NAME}, targetDir.list());
+        Assert.assertEquals(Arrays.asList("GET /ignoring/" + FILE_NAME + " bytes=7-"), requests);
+    }
+
+    @Test
+    public void partIsNotAppendedByOtherRange() throws IOException {
+        final File target = new File(targetDir, FILE_NAME);
+        Files.write(new File(targetDir, FILE_NAME + ".part").toPath(), Arrays.copyOf(content, 10));
+        // without koji's metadata, so the corrupted file would not be caught by verification
+        final String hashSum = createDownloader().download(base + "/shifted/" + FILE_NAME, target, null, null);
+
+        Assert.assertEquals(md5(content), hashSum);
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        Assert.assertEquals(
+                Arrays.asList(
+                        "GET /shifted/" + FILE_NAME + " bytes=10-",
+                        "GET /shifted/" + FILE_NAME + " null"
+                ),
+                requests
+        );
+    }
+
+    @Test
+    public void fileWithWrongHashSumIsRejected() {
+        final RPM rpm = createRpm();
+        rpm.setChecksum("0123456789abcdef0123456789abcdef");
+        assertRejected(rpm, "hash sum");
+    }
+
+    @Test
+    public void fileWithWrongSizeIsRejected() {
+        final RPM rpm = createRpm();
+        rpm.setSize((long) content.length - 1);
+        assertRejected(rpm, "size");
+    }
+
+    @Test
+    public void contentRangeStartIsParsed() {
+        Assert.assertEquals(4, KojiBuildDownloader.getContentRangeStart("bytes 4-9/10"));
+        Assert.assertEquals(0, KojiBuildDownloader.getContentRangeStart("bytes 0-9/*"));
+        Assert.assertEquals(-1, KojiBuildDownloader.getContentRangeStart(null));
+        Assert.assertEquals(-1, KojiBuildDownloader.getContentRangeStart("bytes */10"));
+        Assert.assertEquals(-1, KojiBuildDownloader.getContentRangeStart("items 4-9/10"));
+    }
+
+    @Test
+    public void rpmsAreDownloadedConcurrentlyAndReturnedInOrder() throws IOException {
+        final List<RPM> rpms = createRpms("x86_64");
+        final List<File> files = createDownloader().downloadRPMs(targetDir, createBuild(rpms), rpms, new KojiBuildDownloader.DownloadStatistics());
+
+        Assert.assertEquals(RPMS, files.size());
+        for (int i = 0; i < RPMS; i++) {
+            final RPM rpm = rpms.get(i);
+            Assert.assertEquals(new File(targetDir, rpm.getFilename("rpm")), files.get(i));
+            Assert.assertArrayEquals(rpmContent(i), Files.readAllBytes(files.get(i).toPath()));
+            Assert.assertEquals(md5(rpmContent(i)), rpm.getHashSum());
+            Assert.assertEquals(base + "/pkg/1/2/x86_64/" + rpm.getFilename("rpm"), rpm.getUrl());
+        }
+        if (Math.min(KojiBuildDownloader.DOWNLOAD_WORKERS, KojiBuildDownloader.MAX_CONNECTIONS_PER_HOST) > 1) {
+            Assert.assertTrue(String.valueOf(maxInFlight.get()), maxInFlight.get() > 1);
+        }
+        Assert.assertTrue(String.valueOf(maxInFlight.get()), maxInFlight.get() <= Math.max(1, KojiBuildDownloader.MAX_CONNECTIONS_PER_HOST));
+    }
+
+    @Test
+    public void failedRpmFailsWholeDownload() throws IOException {
+        final List<RPM> rpms = createRpms("x86_64");
+        final RPM failing = new RPM("pkg", "1", "2", "pkg-1-2", FAILING_ARCH, "pkg-failing-1-2." + FAILING_ARCH + ".rpm");
+        rpms.add(2, failing);
+        try {
+            createDownloader().downloadRPMs(targetDir, createBuild(rpms), rpms, new KojiBuildDownloader.DownloadStatistics());
+            Assert.fail("download of unavailable rpm must fail");
+        } catch (RuntimeException ex) {
+            // cause of the worker's failure, not wrapped in ExecutionException
+            Assert.assertEquals("Exception while downloading RPM", ex.getMessage());
+            Assert.assertTrue(String.valueOf(ex.getCause()), ex.getCause() instanceof IOException);
+            Assert.assertTrue(ex.getCause().getMessage(), ex.getCause().getMessage().contains("500"));
+            Assert.assertTrue(ex.getCause().getMessage(), ex.getCause().getMessage().contains(failing.getFilename("rpm")));
+        }
+        Assert.assertFalse(new File(targetDir, failing.getFilename("rpm")).exists());
+    }
+
+    @Test
+    public void failedRpmDisconnectsOtherDownloads() throws Exception {
+        Assume.assumeTrue(Math.min(KojiBuildDownloader.DOWNLOAD_WORKERS, KojiBuildDownloader.MAX_CONNECTIONS_PER_HOST) > 1);
+        final RPM failing = new RPM("pkg", "1", "2", "pkg-1-2", FAILING_ARCH, "pkg-failing-1-2." + FAILING_ARCH + ".rpm");
+        final RPM stalled = new RPM("pkg", "1", "2", "pkg-1-2", STALLED_ARCH, "pkg-stalled-1-2." + STALLED_ARCH + ".rpm");
+        final List<RPM> rpms = Arrays.asList(failing, stalled);
+        try {
+            createDownloader().downloadRPMs(targetDir, createBuild(rpms), rpms, new KojiBuildDownloader.DownloadStatistics());
+            Assert.fail("download of unavailable rpm must fail");
+        } catch (RuntimeException ex) {
+            Assert.assertTrue(ex.getCause().getMessage(), ex.getCause().getMessage().contains(failing.getFilename("rpm")));
+        }
+        // interrupt alone would leave the worker reading until the read timeout
+        Assert.assertTrue(stalledClosed.await(10, TimeUnit.SECONDS));
+        Assert.assertFalse(new File(targetDir, stalled.getFilename("rpm")).exists());
+    }
+
+    private List<RPM> createRpms(String arch) throws IOException {
+        final File archDir = new File(servedRoot, "pkg/1/2/" + arch);
+        Assert.assertTrue(archDir.mkdirs());
+        final List<RPM> rpms = new ArrayList<>(RPMS);
+        for (int i = 0; i < RPMS; i++) {
+            final String fileName = "pkg-sub" + i + "-1-2." + arch + ".rpm";
+            Files.write(new File(archDir, fileName).toPath(), rpmContent(i));
+            rpms.add(new RPM("pkg", "1", "2", "pkg-1-2", arch, fileName));
+        }
+        return rpms;
+    }
+
+    private byte[] rpmContent(int index) {
+        // first ones are the biggest, so they are finished last
+        return Arrays.copyOfRange(content, index, content.length / (index + 1));
+    }
+
+    private Build createBuild(List<RPM> rpms) {
+        return new Build(1, "pkg", "1", "2", "pkg-1-2", null, rpms, null, new BuildProvider(base + "/RPC2", base + "/"), null);
+    }
+
+    private void assertRejected(RPM rpm, String error) {
+        final File target = new File(targetDir, FILE_NAME);
+        try {
+            createDownloader().download(base + "/files/" + FILE_NAME, target, rpm, null);
+            Assert.fail("corrupted file must not be accepted");
+        } catch (IOException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains(error));
+        }
+        // every attempt starts from scratch
+        for (String request : requests) {
+            Assert.assertEquals("GET /files/" + FILE_NAME + " null", request);
+        }
+        Assert.assertEquals(Math.max(1, KojiBuildDownloader.DOWNLOAD_ATTEMPTS), requests.size());
+        Assert.assertEquals(0, targetDir.list().length);
+    }
+
+    private RPM createRpm() {
+        final RPM rpm = new RPM("pkg", "1", "2", "pkg-1-2", "x86_64", FILE_NAME);
+        rpm.setSize((long) content.length);
+        rpm.setChecksum(md5(content));
+        return rpm;
+    }
+
+    private static KojiBuildDownloader createDownloader() {
+        return new KojiBuildDownloader(null, null, null, null, null, 0, false, false);
+    }
+
+    private void record(HttpExchange exchange) {
+        requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath() + " "
+                + exchange.getRequestHeaders().getFirst("Range"));
+    }
+
+    private static void send(HttpExchange exchange, int code, String contentRange, byte[] body) throws IOException {
+        if (contentRange != null) {
+            exchange.getResponseHeaders().add("Content-Range", contentRange);
+        }
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static String md5(byte[] bytes) {
+        try {
+            return String.format("%032x", new BigInteger(1, MessageDigest.getInstance("MD5").digest(bytes)));
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
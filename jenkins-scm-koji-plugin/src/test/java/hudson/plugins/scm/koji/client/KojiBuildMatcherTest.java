@@ -0,0 +1,122 @@
+package hudson.plugins.scm.koji.client;
+
+import hudson.plugins.scm.koji.KojiBuildProvider;
+import hudson.plugins.scm.koji.RealKojiXmlRpcApi;
+import hudson.plugins.scm.koji.model.Build;
+import org.fakekoji.core.FakeKojiTestUtil;
+import org.fakekoji.server.JavaServer;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.GetPackageId;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListBuilds;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListTagsMultiCall;
+import org.fakekoji.xmlrpc.server.xmlrpcresponse.BuildList;
+import org.fakekoji.xmlrpc.server.xmlrpcresponse.PackageId;
+import org.fakekoji.xmlrpc.server.xmlrpcresponse.TagSetList;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KojiBuildMatcherTest {
+
+    private static final String PACKAGE = "java-1.8.0-openjdk";
+    private static final int BATCH_SIZE = 2;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private JavaServer javaServer;
+    private KojiBuildProvider provider;
+    private List<Build> builds;
+
+    @Before
+    public void start() throws Exception {
+        javaServer = FakeKojiTestUtil.createDefaultFakeKojiServerWithData(temporaryFolder.newFolder());
+        javaServer.start();
+        provider = KojiListBuildsTest.createLocalhostKojiBuildProvider();
+        final Integer packageId = PackageId.create(BuildMatcher.execute(provider.getTopUrl(), new GetPackageId(PACKAGE))).getValue();
+        builds = BuildList.create(BuildMatcher.execute(provider.getTopUrl(), new ListBuilds(packageId))).getValue();
+        // so they are listed in more batches
+        Assert.assertTrue(builds.size() > BATCH_SIZE);
+    }
+
+    @After
+    public void stop() {
+        javaServer.stop();
+    }
+
+    @Test
+    public void multiCallReturnsTagsInOrderOfBuildIds() {
+        final List<Integer> buildIds = new ArrayList<>();
+        for (Build build : builds) {
+            buildIds.add(build.getId());
+        }
+        // unknown build has no tags
+        buildIds.add(1, -1);
+        final List<Set<String>> tags = TagSetList.create(BuildMatcher.execute(provider.getTopUrl(), new ListTagsMultiCall(buildIds))).getValue();
+
+        Assert.assertEquals(buildIds.size(), tags.size());
+        Assert.assertEquals(Collections.emptySet(), tags.get(1));
+        final List<Set<String>> distinct = new ArrayList<>();
+        for (int i = 0; i < buildIds.size(); i++) {
+            if (i != 1) {
+                Assert.assertFalse(tags.get(i).isEmpty());
+                if (!distinct.contains(tags.get(i))) {
+                    distinct.add(tags.get(i));
+                }
+            }
+        }
+        // otherwise the order would not be checked
+        Assert.assertTrue(distinct.size() > 1);
+    }
+
+    @Test
+    public void batchedTagsAreSameAsListedOneByOne() {
+        final KojiBuildMatcher matcher = createMatcher();
+        final List<Set<String>> oneByOne = matcher.retrieveTags(provider.getTopUrl(), builds, 1);
+        Assert.assertEquals(builds.size(), oneByOne.size());
+        Assert.assertEquals(oneByOne, matcher.retrieveTags(provider.getTopUrl(), builds, BATCH_SIZE));
+        Assert.assertEquals(oneByOne, matcher.retrieveTags(provider.getTopUrl(), builds, builds.size() + 1));
+        final List<Build> reversed = new ArrayList<>(builds);
+        Collections.reverse(reversed);
+        final List<Set<String>> reversedTags = matcher.retrieveTags(provider.getTopUrl(), reversed, BATCH_SIZE);
+        Collections.reverse(reversedTags);
+        Assert.assertEquals(oneByOne, reversedTags);
+    }
+
+    @Test
+    public void failedMultiCallFallsBackToBuildByBuild() {
+        final List<Set<String>> oneByOne = createMatcher().retrieveTags(provider.getTopUrl(), builds, 1);
+        final AtomicInteger multiCalls = new AtomicInteger();
+        final KojiBuildMatcher matcher = new KojiBuildMatcher(
+                Collections.singletonList(provider),
+                nvr -> true,
+                10,
+                new RealKojiXmlRpcApi(PACKAGE, "x86_64", ".*", "", null)
+        ) {
+            @Override
+            List<Set<String>> retrieveTags(String url, ListTagsMultiCall params) {
+                multiCalls.incrementAndGet();
+                throw new RuntimeException("system.multicall is not supported");
+            }
+        };
+        Assert.assertEquals(oneByOne, matcher.retrieveTags(provider.getTopUrl(), builds, BATCH_SIZE));
+        Assert.assertEquals((builds.size() + BATCH_SIZE - 1) / BATCH_SIZE, multiCalls.get());
+    }
+
+    private KojiBuildMatcher createMatcher() {
+        return new KojiBuildMatcher(
+                Collections.singletonList(provider),
+                nvr -> true,
+                10,
+                new RealKojiXmlRpcApi(PACKAGE, "x86_64", ".*", "", null)
+        );
+    }
+}
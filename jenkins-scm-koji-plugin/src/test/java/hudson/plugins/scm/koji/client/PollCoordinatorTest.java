@@ -0,0 +1,88 @@
+package hudson.plugins.scm.koji.client;
+
+import hudson.plugins.scm.koji.model.Build;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class PollCoordinatorTest {
+
+    private static final Build BUILD = new Build(1, "a", "1", "1", "a-1-1", "2017-01-01 00:00:00.000000", null, null, null, null);
+
+    @Test
+    public void sameQueryIsRunOncePerInterval() {
+        final PollCoordinator coordinator = new PollCoordinator(TimeUnit.MINUTES.toMillis(1));
+        final AtomicInteger queries = new AtomicInteger();
+        final Supplier<List<Build>> query = () -> {
+            queries.incrementAndGet();
+            return Collections.singletonList(BUILD);
+        };
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(Collections.singletonList(BUILD), coordinator.getCandidates("a", query));
+        }
+        Assert.assertEquals(1, queries.get());
+        coordinator.getCandidates("b", query);
+        Assert.assertEquals(2, queries.get());
+        coordinator.getCandidates(null, query);
+        coordinator.getCandidates(null, query);
+        Assert.assertEquals(4, queries.get());
+        Assert.assertEquals(2, coordinator.size());
+    }
+
+    @Test
+    public void expiredQueryIsRunAgain() throws InterruptedException {
+        final PollCoordinator coordinator = new PollCoordinator(1);
+        final AtomicInteger queries = new AtomicInteger();
+        final Supplier<List<Build>> query = () -> queries.incrementAndGet() == 1
+                ? Collections.emptyList()
+                : Collections.singletonList(BUILD);
+        Assert.assertEquals(Collections.emptyList(), coordinator.getCandidates("a", query));
+        Thread.sleep(5);
+        Assert.assertEquals(Collections.singletonList(BUILD), coordinator.getCandidates("a", query));
+        Assert.assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void concurrentPollsWaitForRunningQuery() throws Exception {
+        final PollCoordinator coordinator = new PollCoordinator(TimeUnit.MINUTES.toMillis(1));
+        final AtomicInteger queries = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Supplier<List<Build>> query = () -> {
+            queries.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+            return Collections.singletonList(BUILD);
+        };
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<List<Build>>> polls = new ArrayList<>();
+            polls.add(executor.submit(() -> coordinator.getCandidates("a", query)));
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 7; i++) {
+                polls.add(executor.submit(() -> coordinator.getCandidates("a", query)));
+            }
+            release.countDown();
+            for (Future<List<Build>> poll : polls) {
+                Assert.assertEquals(Collections.singletonList(BUILD), poll.get(10, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(1, queries.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
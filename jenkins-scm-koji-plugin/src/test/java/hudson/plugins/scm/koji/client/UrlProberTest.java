@@ -0,0 +1,98 @@
+package hudson.plugins.scm.koji.client;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class UrlProberTest {
+
+    private static final String LISTING = "<html><body>\n"
+            + "<a href=\"/pkg/1/2/x86_64/pkg-1-2.x86_64.rpm\">pkg-1-2.x86_64.rpm</a>\n"
+            + "<a href=\"libstdc%2B%2B-1-2.x86_64.rpm\">libstdc++-1-2.x86_64.rpm</a>\n"
+            + "</body></html>\n";
+
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private HttpServer server;
+    private String base;
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            final String path = exchange.getRequestURI().getPath();
+            requests.add(exchange.getRequestMethod() + " " + path);
+            final byte[] body;
+            final int code;
+            if (path.equals("/pkg/1/2/x86_64/")) {
+                code = 200;
+                body = LISTING.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "text/html");
+            } else if (path.equals("/plain/file.rpm") || path.equals("/noindex/file.rpm")) {
+                code = 200;
+                body = new byte[0];
+            } else if (path.equals("/plain/")) {
+                code = 403;
+                body = new byte[0];
+            } else {
+                code = 404;
+                body = new byte[0];
+            }
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(code, -1);
+            } else {
+                exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        base = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    public void filesAreResolvedFromSingleListing() {
+        final UrlProber prober = new UrlProber();
+        Assert.assertTrue(prober.isReachable(base + "/pkg/1/2/x86_64/pkg-1-2.x86_64.rpm"));
+        Assert.assertTrue(prober.isReachable(base + "/pkg/1/2/x86_64/libstdc++-1-2.x86_64.rpm"));
+        Assert.assertFalse(prober.isReachable(base + "/pkg/1/2/x86_64/pkg-1-2.x86_64.tarxz"));
+        Assert.assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void directoryRefusingListingIsProbedByHead() {
+        // autoindex off: 404 for the directory, files are served
+        final UrlProber prober = new UrlProber();
+        Assert.assertTrue(prober.isReachable(base + "/noindex/file.rpm"));
+        Assert.assertFalse(prober.isReachable(base + "/noindex/other.rpm"));
+        Assert.assertEquals(3, requests.size());
+        Assert.assertEquals("GET /noindex/", requests.get(0));
+        Assert.assertEquals("HEAD /noindex/file.rpm", requests.get(1));
+        Assert.assertEquals("HEAD /noindex/other.rpm", requests.get(2));
+    }
+
+    @Test
+    public void unlistableDirectoryIsProbedByHead() {
+        final UrlProber prober = new UrlProber();
+        Assert.assertTrue(prober.isReachable(base + "/plain/file.rpm"));
+        Assert.assertFalse(prober.isReachable(base + "/plain/other.rpm"));
+        Assert.assertTrue(prober.isReachable(base + "/plain/file.rpm"));
+        Assert.assertEquals(3, requests.size());
+        Assert.assertEquals("HEAD /plain/file.rpm", requests.get(1));
+    }
+}
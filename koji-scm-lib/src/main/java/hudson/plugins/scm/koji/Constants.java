@@ -14,7 +14,17 @@ abstract public class Constants {
     public static final String getPackageID = "getPackageID";
     public static final String listBuilds = "listBuilds";
     public static final String packageID = "packageID";
+    public static final String queryOpts = "queryOpts";
+    public static final String order = "order";
+    public static final String limit = "limit";
+    public static final String offset = "offset";
+    public static final String newestFirst = "-completion_time";
     public static final String listTags = "listTags";
+    public static final String multicall = "system.multicall";
+    public static final String methodName = "methodName";
+    public static final String params = "params";
+    public static final String faultCode = "faultCode";
+    public static final String faultString = "faultString";
     public static final String listRPMs = "listRPMs";
     public static final String listArchives = "listArchives";
     public static final String buildID = "buildID";
@@ -31,6 +41,9 @@ abstract public class Constants {
     public static final String release = "release";
     public static final String arch = "arch";
     public static final String filename = "filename";
+    public static final String size = "size";
+    public static final String checksum = "checksum";
+    public static final String checksum_type = "checksum_type";
 
     public static final String getBuildList = "getBuildList";
     public static final String getBuildDetail = "getBuildDetail";
@@ -25,9 +25,7 @@ package hudson.plugins.scm.koji;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -35,7 +33,6 @@ import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,28 +40,19 @@ public class NotProcessedNvrPredicate implements Predicate<String>, java.io.Seri
 
     private static final Logger LOG = LoggerFactory.getLogger(NotProcessedNvrPredicate.class);
 
+    /**
+     * @param processedNvrFile processed.txt of job, indexed by {@link ProcessedNvrIndex}; may be null
+     * @param globalprocessedNvrFile processed.txt of all jobs, indexed by {@link ProcessedNvrIndex}; may be null
+     */
     public static Predicate<String> createNotProcessedNvrPredicateFromFile(File processedNvrFile, File globalprocessedNvrFile) throws IOException {
-        List<String> singleJobProcessed = fileToList(processedNvrFile);
-        List<String> globalProcessed = fileToList(globalprocessedNvrFile);
-        List<String> joinedList = new ArrayList<>(singleJobProcessed.size()+globalProcessed.size());
-        joinedList.addAll(singleJobProcessed);
-        joinedList.addAll(globalProcessed);
-        return new NotProcessedNvrPredicate(joinedList);
+        return new NotProcessedNvrPredicate(toSet(processedNvrFile), toSet(globalprocessedNvrFile));
     }
 
-    @SuppressFBWarnings(value="RCN_REDUNDANT_NULLCHECK_WOULD_HAVE_BEEN_A_NPE", justification = "Check is odne on bytecode level in try with resources")
-    private static List<String> fileToList(File processedNvrFile) throws IOException {    
-        if (processedNvrFile!= null && processedNvrFile.exists()) {
-            if (processedNvrFile.isFile() && processedNvrFile.canRead()) {
-                try (Stream<String> stream = Files.lines(processedNvrFile.toPath(), StandardCharsets.UTF_8)) {
-                    return streamToList(stream);
-                }
-            } else {
-                throw new IOException("Processed NVRs is not readable: " + processedNvrFile.getAbsolutePath());
-            }
-        } else {
-            return new ArrayList<>(0);
+    private static Set<String> toSet(File processedNvrFile) throws IOException {
+        if (processedNvrFile == null) {
+            return Collections.emptySet();
         }
+        return ProcessedNvrIndex.of(processedNvrFile).getNvrs();
     }
 
     public static List<String> streamToList(Stream<String> stream) throws IOException {
@@ -76,29 +64,25 @@ public class NotProcessedNvrPredicate implements Predicate<String>, java.io.Seri
     }
 
     private final Set<String> processedNvrs;
+    private final Set<String> globalProcessedNvrs;
 
-    private NotProcessedNvrPredicate(Set<String> processedNvrs) {
+    private NotProcessedNvrPredicate(Set<String> processedNvrs, Set<String> globalProcessedNvrs) {
         this.processedNvrs = processedNvrs;
+        this.globalProcessedNvrs = globalProcessedNvrs;
     }
 
     public NotProcessedNvrPredicate(List<String> processedNvrs) {
         Set<String> nvrsSet = new HashSet<>(processedNvrs.size());
         for (String string : processedNvrs) {
-            string = string.trim();
-            if (string.contains(" ")) {
-                string = string.split(" +")[0];
-                nvrsSet.add(string);
-            } else {
-                nvrsSet.add(string);
-            }
+            nvrsSet.add(ProcessedNvrIndex.toNvr(string));
         }
         this.processedNvrs = nvrsSet;
+        this.globalProcessedNvrs = Collections.emptySet();
     }
 
     @Override
     public boolean test(String nvr) {
-        LOG.info("Searching for " + nvr + " in " + processedNvrs.toString());
-        boolean result = !processedNvrs.contains(nvr);
+        boolean result = !processedNvrs.contains(nvr) && !globalProcessedNvrs.contains(nvr);
         LOG.info("found[" + nvr + "]: " + !result);
         return result;
     }
@@ -0,0 +1,220 @@
+package hudson.plugins.scm.koji;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cached set of nvrs listed in processed.txt file, shared by all polls and checkouts in this jvm.
+ * <p>
+ * The file is read again only if its size or time of last modification changed. If it only grew, and the already
+ * indexed part is still the same, only the appended lines are read. Otherwise (e.g. nvr was removed from it) the whole
+ * file is indexed again. Returned sets are immutable snapshots, so they can be shared by predicates.
+ * <p>
+ * Optionally, the file is compacted, when it has more than {@link #COMPACTION_MIN_LINES} lines and most of them are
+ * duplicates: only the first line of each nvr is kept.
+ */
+public final class ProcessedNvrIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessedNvrIndex.class);
+    /**
+     * Minimal number of lines of file to be compacted. 0 (default) disables compaction.
+     */
+    static final int COMPACTION_MIN_LINES = Integer.getInteger(ProcessedNvrIndex.class.getName() + ".compactionMinLines", 0);
+    private static final int TAIL_LENGTH = 64;
+    private static final Map<File, ProcessedNvrIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final File file;
+    private long size = -1;
+    private long lastModified = -1;
+    // length of complete lines indexed so far and their last bytes, to recognize the file was only appended
+    private long indexedLength = 0;
+    private byte[] indexedTail = new byte[0];
+    private long lines = 0;
+    // nvrs of complete lines only, the next append-only refresh starts from them
+    private Set<String> completeNvrs = Collections.emptySet();
+    private Set<String> nvrs = Collections.emptySet();
+
+    private ProcessedNvrIndex(final File file) {
+        this.file = file;
+    }
+
+    public static ProcessedNvrIndex of(final File file) {
+        return INDEXES.computeIfAbsent(file.getAbsoluteFile(), ProcessedNvrIndex::new);
+    }
+
+    /**
+     * @return nvr of line of processed.txt, which may be followed by comment
+     */
+    static String toNvr(final String line) {
+        final String trimmed = line.trim();
+        return trimmed.contains(" ") ? trimmed.split(" +")[0] : trimmed;
+    }
+
+    public synchronized Set<String> getNvrs() throws IOException {
+        refresh();
+        return nvrs;
+    }
+
+    public synchronized void append(final String line) throws IOException {
+        Files.write(
+                file.toPath(),
+                Collections.singletonList(line),
+                StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+    }
+
+    private void refresh() throws IOException {
+        if (!file.exists()) {
+            reset();
+            size = 0;
+            lastModified = 0;
+            return;
+        }
+        if (!file.isFile() || !file.canRead()) {
+            throw new IOException("Processed NVRs is not readable: " + file.getAbsolutePath());
+        }
+        final long newSize = file.length();
+        final long newLastModified = file.lastModified();
+        if (newSize == size && newLastModified == lastModified) {
+            return;
+        }
+        final boolean appended = newSize > size && size >= 0 && isIndexedPartUnchanged();
+        if (!appended) {
+            reset();
+        }
+        final Set<String> updated = appended ? new HashSet<>(completeNvrs) : new HashSet<>();
+        final long before = lines;
+        final String partialNvr = read(updated);
+        completeNvrs = Collections.unmodifiableSet(updated);
+        if (partialNvr == null || updated.contains(partialNvr)) {
+            nvrs = completeNvrs;
+        } else {
+            final Set<String> withPartial = new HashSet<>(updated);
+            withPartial.add(partialNvr);
+            nvrs = Collections.unmodifiableSet(withPartial);
+        }
+        size = newSize;
+        lastModified = newLastModified;
+        LOG.info((appended ? "Appended " + (lines - before) + " lines to " : "Indexed " + lines + " lines of ")
+                + file.getAbsolutePath() + ", " + nvrs.size() + " nvrs");
+        if (COMPACTION_MIN_LINES > 0 && lines > COMPACTION_MIN_LINES && lines > 2L * nvrs.size()) {
+            compact();
+        }
+    }
+
+    private void reset() {
+        indexedLength = 0;
+        indexedTail = new byte[0];
+        lines = 0;
+        completeNvrs = Collections.emptySet();
+        nvrs = Collections.emptySet();
+    }
+
+    private boolean isIndexedPartUnchanged() throws IOException {
+        if (indexedTail.length == 0) {
+            return indexedLength == 0;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final byte[] tail = new byte[indexedTail.length];
+            raf.seek(indexedLength - tail.length);
+            raf.readFully(tail);
+            return Arrays.equals(tail, indexedTail);
+        }
+    }
+
+    /**
+     * Reads complete lines after {@link #indexedLength} into target. Last line without new line may not have been
+     * written completely, so it is not added to target, but it is read again next time.
+     *
+     * @return nvr of last line without new line, null if there is none
+     */
+    private String read(final Set<String> target) throws IOException {
+        final byte[] bytes;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            bytes = new byte[(int) Math.max(0, raf.length() - indexedLength)];
+            raf.seek(indexedLength);
+            raf.readFully(bytes);
+        }
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                add(target, new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                lines++;
+                start = i + 1;
+            }
+        }
+        String partialNvr = null;
+        if (start < bytes.length) {
+            partialNvr = toNvr(new String(bytes, start, bytes.length - start, StandardCharsets.UTF_8));
+        }
+        if (start > 0) {
+            // few appended bytes are completed by end of previous tail
+            final int fromNew = Math.min(TAIL_LENGTH, start);
+            final int fromOld = Math.min(TAIL_LENGTH - fromNew, indexedTail.length);
+            final byte[] tail = new byte[fromOld + fromNew];
+            System.arraycopy(indexedTail, indexedTail.length - fromOld, tail, 0, fromOld);
+            System.arraycopy(bytes, start - fromNew, tail, fromOld, fromNew);
+            indexedTail = tail;
+            indexedLength += start;
+        }
+        return partialNvr == null || partialNvr.isEmpty() ? null : partialNvr;
+    }
+
+    private static void add(final Set<String> target, final String line) {
+        final String nvr = toNvr(line);
+        if (!nvr.isEmpty()) {
+            target.add(nvr);
+        }
+    }
+
+    private void compact() {
+        try {
+            final List<String> all = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            final Map<String, String> firstLines = new LinkedHashMap<>();
+            for (String line : all) {
+                final String nvr = toNvr(line);
+                if (!nvr.isEmpty()) {
+                    firstLines.putIfAbsent(nvr, line);
+                }
+            }
+            final File tmp = new File(file.getAbsolutePath() + ".tmp");
+            try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+                for (String line : firstLines.values()) {
+                    bw.write(line);
+                    bw.newLine();
+                }
+            }
+            if (file.length() != size || file.lastModified() != lastModified) {
+                // written by someone else meanwhile
+                Files.delete(tmp.toPath());
+                return;
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Compacted " + file.getAbsolutePath() + " from " + all.size() + " to " + firstLines.size() + " lines");
+            size = -1;
+            reset();
+            refresh();
+        } catch (IOException ex) {
+            LOG.warn("Failed to compact " + file.getAbsolutePath(), ex);
+        }
+    }
+}
@@ -23,11 +23,20 @@
  */
 package hudson.plugins.scm.koji.client.tools;
 
+import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 
 import org.apache.ws.commons.util.NamespaceContextImpl;
 import org.apache.xmlrpc.client.XmlRpcClient;
 import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcClientException;
+import org.apache.xmlrpc.client.XmlRpcSun15HttpTransport;
+import org.apache.xmlrpc.client.XmlRpcTransport;
+import org.apache.xmlrpc.client.XmlRpcTransportFactoryImpl;
 import org.apache.xmlrpc.common.TypeFactoryImpl;
 import org.apache.xmlrpc.common.XmlRpcController;
 import org.apache.xmlrpc.common.XmlRpcStreamConfig;
@@ -71,18 +80,124 @@ public class XmlRpcHelper {
         }
 
         private XmlRpcClient createClient() throws Exception {
-            XmlRpcClientConfigImpl xmlRpcConfig = new XmlRpcClientConfigImpl();
-            xmlRpcConfig.setEnabledForExtensions(true);
-            xmlRpcConfig.setServerURL(new URL(currentURL));
-            if (timeout != null) {
-                xmlRpcConfig.setConnectionTimeout(timeout);
-                xmlRpcConfig.setReplyTimeout(timeout);
-                xmlRpcConfig.setEnabledForExtensions(true);
+            return XmlRpcHelper.createClient(currentURL, timeout, timeout);
+        }
+
+    }
+
+    private static XmlRpcClient createClient(String url, Integer connectionTimeout, Integer replyTimeout) throws MalformedURLException {
+        XmlRpcClientConfigImpl xmlRpcConfig = new XmlRpcClientConfigImpl();
+        xmlRpcConfig.setEnabledForExtensions(true);
+        xmlRpcConfig.setServerURL(new URL(url));
+        if (connectionTimeout != null) {
+            xmlRpcConfig.setConnectionTimeout(connectionTimeout);
+        }
+        if (replyTimeout != null) {
+            xmlRpcConfig.setReplyTimeout(replyTimeout);
+        }
+        XmlRpcClient client = new XmlRpcClient();
+        client.setConfig(xmlRpcConfig);
+        client.setTypeFactory(new KojiTypeFactory(client));
+        return client;
+    }
+
+    /**
+     * Clients reused across requests, one per url. Unlike {@link XmlRpcExecutioner}, which creates client (and
+     * connection) for each call, pooled client does not close the connection after the response is read. Jdk then
+     * keeps it alive, so following request to the same hub skips tcp and tls handshake. Number of concurrent requests,
+     * and thus of open connections, per url is bounded. Note, that jdk keeps alive at most http.maxConnections (5 by
+     * default) idle connections per host.
+     */
+    public static class XmlRpcClientPool {
+
+        /**
+         * Pool used by the plugin. Its connection and reply timeouts default to 60 seconds, which
+         * {@link XmlRpcExecutioner} has always used for both, so a hung hub fails the same as before pooling. Zero
+         * means no timeout.
+         */
+        public static final XmlRpcClientPool DEFAULT = new XmlRpcClientPool(
+                Integer.getInteger(XmlRpcClientPool.class.getName() + ".maxConnectionsPerUrl", 5),
+                Integer.getInteger(XmlRpcClientPool.class.getName() + ".connectionTimeout", 60 * 1000),
+                Integer.getInteger(XmlRpcClientPool.class.getName() + ".replyTimeout", 60 * 1000)
+        );
+
+        private final int maxConnectionsPerUrl;
+        private final int connectionTimeout;
+        private final int replyTimeout;
+        private final Map<String, PooledClient> clients = new ConcurrentHashMap<>();
+
+        public XmlRpcClientPool(int maxConnectionsPerUrl, int connectionTimeout, int replyTimeout) {
+            this.maxConnectionsPerUrl = maxConnectionsPerUrl;
+            this.connectionTimeout = connectionTimeout;
+            this.replyTimeout = replyTimeout;
+        }
+
+        public Object execute(String url, XmlRpcRequestParams params) {
+            final PooledClient pooled = clients.computeIfAbsent(url, this::createPooledClient);
+            try {
+                pooled.connections.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for connection to " + url, ex);
+            }
+            try {
+                return pooled.client.execute(params.getMethodName(), params.toXmlRpcParams());
+            } catch (Exception ex) {
+                throw new RuntimeException("Exception while executing " + params.getMethodName(), ex);
+            } finally {
+                pooled.connections.release();
+            }
+        }
+
+        private PooledClient createPooledClient(String url) {
+            try {
+                final XmlRpcClient client = createClient(url, connectionTimeout, replyTimeout);
+                client.setTransportFactory(new KeepAliveTransportFactory(client));
+                return new PooledClient(client, new Semaphore(Math.max(1, maxConnectionsPerUrl)));
+            } catch (MalformedURLException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        private static class PooledClient {
+
+            private final XmlRpcClient client;
+            private final Semaphore connections;
+
+            private PooledClient(XmlRpcClient client, Semaphore connections) {
+                this.client = client;
+                this.connections = connections;
+            }
+        }
+    }
+
+    private static class KeepAliveTransportFactory extends XmlRpcTransportFactoryImpl {
+
+        public KeepAliveTransportFactory(XmlRpcClient pClient) {
+            super(pClient);
+        }
+
+        @Override
+        public XmlRpcTransport getTransport() {
+            return new KeepAliveTransport(getClient());
+        }
+
+    }
+
+    private static class KeepAliveTransport extends XmlRpcSun15HttpTransport {
+
+        public KeepAliveTransport(XmlRpcClient pClient) {
+            super(pClient);
+        }
+
+        @Override
+        protected void close() throws XmlRpcClientException {
+            // closing of fully read stream hands the socket back to jdk's keep-alive cache, disconnect() would close it
+            try {
+                getURLConnection().getInputStream().close();
+            } catch (IOException ex) {
+                super.close();
             }
-            XmlRpcClient client = new XmlRpcClient();
-            client.setConfig(xmlRpcConfig);
-            client.setTypeFactory(new KojiTypeFactory(client));
-            return client;
         }
 
     }
@@ -5,12 +5,13 @@ import hudson.plugins.scm.koji.Constants;
 
 import java.net.URL;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Pattern;
 import jakarta.xml.bind.annotation.XmlAccessType;
 import jakarta.xml.bind.annotation.XmlAccessorType;
 import jakarta.xml.bind.annotation.XmlElement;
@@ -22,6 +23,8 @@ import jakarta.xml.bind.annotation.XmlRootElement;
 @SuppressFBWarnings(value = {"EQ_COMPARETO_USE_OBJECT_EQUALS"}, justification = "is working like this, is serialised to xml, am afraid to fix this")
 public class Build implements Comparable<Build>, java.io.Serializable {
 
+    private static final Pattern BAD_KOJI_ZONE = Pattern.compile("\\+[0-9]{1,2}:[0-9]{1,2}$");
+
     @XmlElement(name = "manual")
     private final Boolean manual;
     @XmlElement(name = "id")
@@ -45,6 +48,10 @@ public class Build implements Comparable<Build>, java.io.Serializable {
     @XmlElement(name = "provider", type = BuildProvider.class)
     private BuildProvider provider;
     private URL srcUrl;
+    // sort keys, parsed when first needed
+    private transient volatile Long completionTimeKey;
+    private transient volatile VersionKey versionKey;
+    private transient volatile VersionKey releaseKey;
 
     public Build(
             Integer id,
@@ -120,6 +127,46 @@ public class Build implements Comparable<Build>, java.io.Serializable {
         return Collections.unmodifiableSet(tags);
     }
 
+    /**
+     * Completion time as nanoseconds since epoch, parsed only once. Koji's times have no zone (or broken one, which is
+     * dropped), so they are taken as UTC, what is enough to order them.
+     */
+    public long getCompletionTimeKey() {
+        Long key = completionTimeKey;
+        if (key == null) {
+            final LocalDateTime time = LocalDateTime.parse(sanitizeBadKojiDate(completionTime), Constants.DTF);
+            key = time.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + time.getNano();
+            completionTimeKey = key;
+        }
+        return key;
+    }
+
+    public VersionKey getVersionKey() {
+        VersionKey key = versionKey;
+        if (key == null) {
+            key = VersionKey.of(version);
+            versionKey = key;
+        }
+        return key;
+    }
+
+    public VersionKey getReleaseKey() {
+        VersionKey key = releaseKey;
+        if (key == null) {
+            key = VersionKey.of(release);
+            releaseKey = key;
+        }
+        return key;
+    }
+
+    public static String sanitizeBadKojiDate(String corruptedDate) {
+        if (corruptedDate.indexOf('+') >= 0) {
+            return BAD_KOJI_ZONE.matcher(corruptedDate).replaceAll("");
+        } else {
+            return corruptedDate;
+        }
+    }
+
     @Override
     public String toString() {
         return nvr;
@@ -133,11 +180,7 @@ public class Build implements Comparable<Build>, java.io.Serializable {
         if (this == build) {
             return 0;
         }
-        final String thisCompletionTime = DateTimeFormatter.ISO_DATE_TIME.format(LocalDateTime.parse(getCompletionTime(), Constants.DTF));
-        final String thatCompletionTime = DateTimeFormatter.ISO_DATE_TIME.format(LocalDateTime.parse(build.getCompletionTime(), Constants.DTF));
-        final LocalDateTime thisCompletionDateTime = LocalDateTime.parse(thisCompletionTime, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-        final LocalDateTime thatCompletionDateTime = LocalDateTime.parse(thatCompletionTime, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-        return thatCompletionDateTime.compareTo(thisCompletionDateTime);
+        return Long.compare(build.getCompletionTimeKey(), getCompletionTimeKey());
     }
 
     public BuildProvider getProvider() {
@@ -4,6 +4,7 @@ import hudson.plugins.scm.koji.Constants;
 import jakarta.xml.bind.annotation.XmlAccessType;
 import jakarta.xml.bind.annotation.XmlAccessorType;
 import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlTransient;
 
 import java.util.Arrays;
 import java.util.Optional;
@@ -25,6 +26,11 @@ public class RPM implements java.io.Serializable {
     private final String filename;
     private String url;
     private String hashSum;
+    // expected size and md5 of the file, as known to koji; used only to verify the download
+    @XmlTransient
+    private Long size;
+    @XmlTransient
+    private String checksum;
 
     public RPM(String name, String version, String release, String nvr, String arch, String filename) {
         this.name = name;
@@ -52,6 +58,19 @@ public class RPM implements java.io.Serializable {
         this.url = url;
     }
 
+    public RPM(RPM rpm) {
+        this.name = rpm.name;
+        this.version = rpm.version;
+        this.release = rpm.release;
+        this.nvr = rpm.nvr;
+        this.arch = rpm.arch;
+        this.filename = rpm.filename;
+        this.url = rpm.url;
+        this.hashSum = rpm.hashSum;
+        this.size = rpm.size;
+        this.checksum = rpm.checksum;
+    }
+
     public RPM() {
         this.name = null;
         this.version = null;
@@ -114,6 +133,22 @@ public class RPM implements java.io.Serializable {
         return hashSum;
     }
 
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
     public static enum Suffix {
         INSTANCE;
 
@@ -0,0 +1,70 @@
+package hudson.plugins.scm.koji.model;
+
+import java.util.StringTokenizer;
+
+/**
+ * Version (or release) split to tokens by '-' and '.', with numeric tokens already parsed, so versions can be compared
+ * repeatedly without tokenizing and parsing them again.
+ * <p>
+ * Tokens are compared one by one, numerically if both are numbers, otherwise as strings. If all common tokens are
+ * equal, the version with more tokens is bigger.
+ */
+public final class VersionKey implements Comparable<VersionKey> {
+
+    private static final long NOT_NUMBER = -1;
+    // longer numbers would not fit to long, they are compared as strings
+    private static final int MAX_DIGITS = 18;
+
+    private final String[] tokens;
+    private final long[] numbers;
+
+    private VersionKey(final String[] tokens, final long[] numbers) {
+        this.tokens = tokens;
+        this.numbers = numbers;
+    }
+
+    public static VersionKey of(final String version) {
+        final StringTokenizer tokenizer = new StringTokenizer(version, "-.");
+        final String[] tokens = new String[tokenizer.countTokens()];
+        final long[] numbers = new long[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = tokenizer.nextToken();
+            numbers[i] = toNumber(tokens[i]);
+        }
+        return new VersionKey(tokens, numbers);
+    }
+
+    private static long toNumber(final String token) {
+        if (token.length() > MAX_DIGITS) {
+            return NOT_NUMBER;
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isDigit(token.charAt(i))) {
+                return NOT_NUMBER;
+            }
+        }
+        return Long.parseLong(token);
+    }
+
+    @Override
+    public int compareTo(final VersionKey that) {
+        final int common = Math.min(tokens.length, that.tokens.length);
+        for (int i = 0; i < common; i++) {
+            final int compared;
+            if (numbers[i] != NOT_NUMBER && that.numbers[i] != NOT_NUMBER) {
+                compared = Long.compare(numbers[i], that.numbers[i]);
+            } else {
+                compared = tokens[i].compareTo(that.tokens[i]);
+            }
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return Integer.compare(tokens.length, that.tokens.length);
+    }
+
+    @Override
+    public String toString() {
+        return String.join(".", tokens);
+    }
+}
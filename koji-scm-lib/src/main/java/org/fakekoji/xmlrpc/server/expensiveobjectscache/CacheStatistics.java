@@ -0,0 +1,296 @@
+package org.fakekoji.xmlrpc.server.expensiveobjectscache;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Always-on counters of {@link RemoteRequestsCache}, kept per url and xml-rpc method.
+ * Cheap enough to be updated on each request; aggregations are computed only when asked for.
+ */
+public class CacheStatistics {
+
+    /**
+     * upper bounds of load latency histogram buckets; last bucket is for anything slower
+     */
+    static final long[] LATENCY_BUCKETS_MILLIS = {10, 50, 100, 500, 1000, 5000, 10000, 60000};
+
+    private final Map<String, Map<String, Counters>> perUrl = new ConcurrentHashMap<>();
+
+    Counters of(String url, String method) {
+        return perUrl.computeIfAbsent(url, u -> new ConcurrentHashMap<>()).computeIfAbsent(method, m -> new Counters());
+    }
+
+    void clear() {
+        perUrl.clear();
+    }
+
+    public Counters getTotal() {
+        final List<Counters> all = new ArrayList<>();
+        perUrl.values().forEach(methods -> all.addAll(methods.values()));
+        return Counters.sum(all);
+    }
+
+    public Map<String, Counters> getPerUrl() {
+        final Map<String, Counters> result = new TreeMap<>();
+        perUrl.forEach((url, methods) -> result.put(url, Counters.sum(methods.values())));
+        return result;
+    }
+
+    public Map<String, Counters> getPerMethod() {
+        final Map<String, List<Counters>> grouped = new TreeMap<>();
+        perUrl.values().forEach(methods -> methods.forEach((method, counters) ->
+                grouped.computeIfAbsent(method, m -> new ArrayList<>()).add(counters)));
+        final Map<String, Counters> result = new TreeMap<>();
+        grouped.forEach((method, counters) -> result.put(method, Counters.sum(counters)));
+        return result;
+    }
+
+    /**
+     * @return counters of given method on given url, or null if there was no such request
+     */
+    public Counters get(String url, String method) {
+        final Map<String, Counters> methods = perUrl.get(url);
+        return methods == null ? null : methods.get(method);
+    }
+
+    public String toJson() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"total\": ").append(getTotal().toJson()).append(",\n");
+        appendJson(sb, "perUrl", getPerUrl());
+        sb.append(",\n");
+        appendJson(sb, "perMethod", getPerMethod());
+        sb.append(",\n  \"perUrlAndMethod\": {");
+        final Map<String, Map<String, Counters>> sorted = new TreeMap<>(perUrl);
+        boolean first = true;
+        for (Map.Entry<String, Map<String, Counters>> url : sorted.entrySet()) {
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("    ").append(quote(url.getKey())).append(": {");
+            boolean firstMethod = true;
+            for (Map.Entry<String, Counters> method : new TreeMap<>(url.getValue()).entrySet()) {
+                sb.append(firstMethod ? "\n" : ",\n");
+                firstMethod = false;
+                sb.append("      ").append(quote(method.getKey())).append(": ").append(method.getValue().toJson());
+            }
+            sb.append("\n    }");
+        }
+        sb.append("\n  }\n}\n");
+        return sb.toString();
+    }
+
+    private static void appendJson(StringBuilder sb, String name, Map<String, Counters> counters) {
+        sb.append("  ").append(quote(name)).append(": {");
+        boolean first = true;
+        for (Map.Entry<String, Counters> entry : counters.entrySet()) {
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("    ").append(quote(entry.getKey())).append(": ").append(entry.getValue().toJson());
+        }
+        sb.append("\n  }");
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    void writeJson(File target) throws IOException {
+        final File tmp = new File(target.getAbsolutePath() + ".tmp");
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "utf-8"))) {
+            bw.write(toJson());
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public String toString() {
+        return getTotal().toString();
+    }
+
+    public static final class Counters {
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder staleHits = new LongAdder();
+        private final LongAdder diskHits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder loads = new LongAdder();
+        private final LongAdder loadFailures = new LongAdder();
+        private final LongAdder loadMillis = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final AtomicLong inFlight = new AtomicLong();
+        private final LongAdder[] latencyHistogram = new LongAdder[LATENCY_BUCKETS_MILLIS.length + 1];
+
+        Counters() {
+            for (int i = 0; i < latencyHistogram.length; i++) {
+                latencyHistogram[i] = new LongAdder();
+            }
+        }
+
+        private static Counters sum(Collection<Counters> counters) {
+            final Counters sum = new Counters();
+            for (Counters c : counters) {
+                sum.hits.add(c.getHits());
+                sum.staleHits.add(c.getStaleHits());
+                sum.diskHits.add(c.getDiskHits());
+                sum.misses.add(c.getMisses());
+                sum.loads.add(c.getLoads());
+                sum.loadFailures.add(c.getLoadFailures());
+                sum.loadMillis.add(c.getLoadMillis());
+                sum.evictions.add(c.getEvictions());
+                sum.inFlight.addAndGet(c.getInFlight());
+                for (int i = 0; i < sum.latencyHistogram.length; i++) {
+                    sum.latencyHistogram[i].add(c.latencyHistogram[i].sum());
+                }
+            }
+            return sum;
+        }
+
+        void hit() {
+            hits.increment();
+        }
+
+        void staleHit() {
+            staleHits.increment();
+        }
+
+        void diskHit() {
+            diskHits.increment();
+        }
+
+        void miss() {
+            misses.increment();
+        }
+
+        void eviction() {
+            evictions.increment();
+        }
+
+        void loadStarted() {
+            inFlight.incrementAndGet();
+        }
+
+        void loadFinished(long millis, boolean failed) {
+            inFlight.decrementAndGet();
+            loads.increment();
+            if (failed) {
+                loadFailures.increment();
+            }
+            loadMillis.add(millis);
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS_MILLIS.length && millis >= LATENCY_BUCKETS_MILLIS[bucket]) {
+                bucket++;
+            }
+            latencyHistogram[bucket].increment();
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        /**
+         * @return expired values returned, because they were already being replaced (or refreshed in background)
+         */
+        public long getStaleHits() {
+            return staleHits.sum();
+        }
+
+        /**
+         * @return values restored from disk tier
+         */
+        public long getDiskHits() {
+            return diskHits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getLoads() {
+            return loads.sum();
+        }
+
+        public long getLoadFailures() {
+            return loadFailures.sum();
+        }
+
+        public long getLoadMillis() {
+            return loadMillis.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        public long getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return counts of loads per {@link #LATENCY_BUCKETS_MILLIS}, last is for loads slower than last bound
+         */
+        public long[] getLatencyHistogram() {
+            final long[] result = new long[latencyHistogram.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = latencyHistogram[i].sum();
+            }
+            return result;
+        }
+
+        public double getHitRatio() {
+            final long served = getHits() + getStaleHits() + getDiskHits();
+            final long all = served + getMisses();
+            return all == 0 ? 0 : (double) served / all;
+        }
+
+        String toJson() {
+            final StringBuilder histogram = new StringBuilder();
+            final long[] values = getLatencyHistogram();
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    histogram.append(", ");
+                }
+                final String bound = i < LATENCY_BUCKETS_MILLIS.length ? "<" + LATENCY_BUCKETS_MILLIS[i] : ">=" + LATENCY_BUCKETS_MILLIS[i - 1];
+                histogram.append('"').append(bound).append("ms\": ").append(values[i]);
+            }
+            final long loadCount = getLoads();
+            return "{\"hits\": " + getHits()
+                    + ", \"staleHits\": " + getStaleHits()
+                    + ", \"diskHits\": " + getDiskHits()
+                    + ", \"misses\": " + getMisses()
+                    + ", \"hitRatio\": " + String.format(Locale.ROOT, "%.3f", getHitRatio())
+                    + ", \"loads\": " + loadCount
+                    + ", \"loadFailures\": " + getLoadFailures()
+                    + ", \"avgLoadMillis\": " + (loadCount == 0 ? 0 : getLoadMillis() / loadCount)
+                    + ", \"inFlight\": " + getInFlight()
+                    + ", \"evictions\": " + getEvictions()
+                    + ", \"loadLatency\": {" + histogram + "}}";
+        }
+
+        @Override
+        public String toString() {
+            final long loadCount = getLoads();
+            return "hits=" + getHits()
+                    + " staleHits=" + getStaleHits()
+                    + " diskHits=" + getDiskHits()
+                    + " misses=" + getMisses()
+                    + " loads=" + loadCount
+                    + " loadFailures=" + getLoadFailures()
+                    + " avgLoadMillis=" + (loadCount == 0 ? 0 : getLoadMillis() / loadCount)
+                    + " inFlight=" + getInFlight()
+                    + " evictions=" + getEvictions();
+        }
+    }
+}
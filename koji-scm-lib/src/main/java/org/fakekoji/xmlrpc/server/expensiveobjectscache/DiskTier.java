@@ -0,0 +1,405 @@
+package org.fakekoji.xmlrpc.server.expensiveobjectscache;
+
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Optional second tier of {@link RemoteRequestsCache}, so cached results survive restart of jvm.
+ * Results are appended to single file as records of header (url, request, date of creation) and serialized result.
+ * When first used, only headers are read to build index, results are deserialized when requested.
+ * Removal is recorded as header without result. The file is compacted (when indexed, or after any write) once
+ * overwritten and removed records outnumber the live ones, so it does not grow with number of writes.
+ * Results the {@link Expiry} considers expired are dropped when indexed and by {@link #prune()}, which also
+ * compacts the file, so results which are never requested again do not stay on disk forever.
+ * <p>
+ * Only the index is guarded by lock of this object. Results are read outside of it, through channel opened on the
+ * current file. Compaction closes that channel, and reader which hits the closed channel looks the result up again.
+ */
+class DiskTier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiskTier.class);
+    private static final String RECORDS_FILE = "responses.bin";
+    private static final int REMOVED = -1;
+    static final int COMPACTION_MIN_RECORDS = 100;
+
+    /**
+     * Decides, whether persisted result is too old to be kept at all.
+     */
+    interface Expiry {
+        Expiry NEVER = (url, params, dateCreated) -> false;
+
+        boolean isExpired(String url, XmlRpcRequestParams params, long dateCreated);
+    }
+
+    private final File dir;
+    private final File file;
+    private final Expiry expiry;
+    private final Map<Key, Location> index = new HashMap<>();
+    private boolean indexed = false;
+    // records in the file, including overwritten and removed ones
+    private int records = 0;
+    private FileChannel reader;
+
+    DiskTier(final File dir) {
+        this(dir, Expiry.NEVER);
+    }
+
+    DiskTier(final File dir, final Expiry expiry) {
+        this.dir = dir;
+        this.file = new File(dir, RECORDS_FILE);
+        this.expiry = expiry;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return persisted result or null, if there is none or it can not be read
+     */
+    SingleUrlResponseCache.ResultWithTimeStamp get(final String url, final XmlRpcRequestParams params) {
+        final Key key = new Key(url, params);
+        // second attempt only if the file was compacted meanwhile
+        for (int attempt = 0; attempt < 2; attempt++) {
+            final Location location;
+            final FileChannel channel;
+            synchronized (this) {
+                ensureIndexed();
+                location = index.get(key);
+                if (location == null) {
+                    return null;
+                }
+                try {
+                    channel = getReader();
+                } catch (IOException ex) {
+                    LOG.warn("Failed to open " + file.getAbsolutePath(), ex);
+                    return null;
+                }
+            }
+            try {
+                final byte[] result = read(channel, location);
+                return new SingleUrlResponseCache.ResultWithTimeStamp(deserialize(result), new Date(location.dateCreated));
+            } catch (ClosedByInterruptException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ClosedChannelException ex) {
+                // compacted, location is no longer valid
+            } catch (IOException | ClassNotFoundException | RuntimeException ex) {
+                LOG.warn("Failed to read persisted " + XmlRpcRequestParams.toNiceString(params) + " of " + url, ex);
+                synchronized (this) {
+                    index.remove(key, location);
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    synchronized void put(final String url, final XmlRpcRequestParams params, final Object result) {
+        ensureIndexed();
+        final byte[] serialized;
+        try {
+            serialized = serialize(result);
+        } catch (IOException ex) {
+            LOG.info("Not persisting " + XmlRpcRequestParams.toNiceString(params) + ": " + ex);
+            return;
+        }
+        append(url, params, new Date().getTime(), serialized);
+    }
+
+    synchronized void remove(final String url, final XmlRpcRequestParams params) {
+        ensureIndexed();
+        if (index.containsKey(new Key(url, params))) {
+            append(url, params, new Date().getTime(), null);
+        }
+    }
+
+    /**
+     * Removes expired results and compacts the file, if there were any. Not yet indexed file is left as it is,
+     * expired results are dropped once it is indexed.
+     */
+    synchronized void prune() {
+        if (!indexed) {
+            return;
+        }
+        if (index.entrySet().removeIf(entry -> isExpired(entry.getKey(), entry.getValue()))) {
+            compact();
+        }
+    }
+
+    synchronized void clear() {
+        index.clear();
+        indexed = true;
+        records = 0;
+        closeReader();
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Failed to delete " + file.getAbsolutePath());
+        }
+    }
+
+    private void append(final String url, final XmlRpcRequestParams params, final long dateCreated, final byte[] result) {
+        final Key key = new Key(url, params);
+        try {
+            final byte[] header = serialize(new Object[]{url, params, dateCreated});
+            final long offset = file.length();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+                writeRecord(out, header, result);
+            }
+            if (result == null) {
+                index.remove(key);
+            } else {
+                index.put(key, new Location(offset + 4 + header.length + 4, result.length, dateCreated));
+            }
+            records++;
+        } catch (IOException ex) {
+            LOG.warn("Failed to persist " + XmlRpcRequestParams.toNiceString(params) + " of " + url, ex);
+            index.remove(key);
+            return;
+        }
+        if (isMostlyGarbage()) {
+            compact();
+        }
+    }
+
+    private boolean isMostlyGarbage() {
+        return records > COMPACTION_MIN_RECORDS && records > 2 * index.size();
+    }
+
+    private FileChannel getReader() throws IOException {
+        if (reader == null || !reader.isOpen()) {
+            reader = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+        return reader;
+    }
+
+    private void closeReader() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException ex) {
+                LOG.info("Failed to close " + file.getAbsolutePath() + ": " + ex);
+            }
+            reader = null;
+        }
+    }
+
+    private static byte[] read(final FileChannel channel, final Location location) throws IOException {
+        final ByteBuffer result = ByteBuffer.allocate(location.resultLength);
+        while (result.hasRemaining()) {
+            // positional read, so the channel can be shared by concurrent readers
+            if (channel.read(result, location.resultOffset + result.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return result.array();
+    }
+
+    private static void writeRecord(final DataOutputStream out, final byte[] header, final byte[] result) throws IOException {
+        out.writeInt(header.length);
+        out.write(header);
+        if (result == null) {
+            out.writeInt(REMOVED);
+        } else {
+            out.writeInt(result.length);
+            out.write(result);
+        }
+    }
+
+    private void ensureIndexed() {
+        if (indexed) {
+            return;
+        }
+        indexed = true;
+        if (!dir.exists() && !dir.mkdirs()) {
+            LOG.warn("Failed to create " + dir.getAbsolutePath());
+            return;
+        }
+        if (!file.exists()) {
+            return;
+        }
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                final int headerLength = in.readInt();
+                final byte[] header = new byte[headerLength];
+                in.readFully(header);
+                final int resultLength = in.readInt();
+                final long resultOffset = offset + 4 + headerLength + 4;
+                if (resultLength > 0) {
+                    skipFully(in, resultLength);
+                }
+                final Object[] parsedHeader = (Object[]) deserialize(header);
+                final Key key = new Key((String) parsedHeader[0], (XmlRpcRequestParams) parsedHeader[1]);
+                final Location location = new Location(resultOffset, resultLength, (Long) parsedHeader[2]);
+                if (resultLength == REMOVED || isExpired(key, location)) {
+                    index.remove(key);
+                } else {
+                    index.put(key, location);
+                }
+                offset = resultOffset + Math.max(resultLength, 0);
+                records++;
+            }
+        } catch (EOFException ex) {
+            // regular end, or incomplete last record
+        } catch (IOException | ClassNotFoundException | RuntimeException ex) {
+            LOG.warn("Failed to read " + file.getAbsolutePath() + " after " + records + " records", ex);
+        }
+        LOG.info("Indexed " + index.size() + " persisted results out of " + records + " records in " + file.getAbsolutePath());
+        if (offset < file.length() || isMostlyGarbage()) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        final File tmp = new File(dir, RECORDS_FILE + ".tmp");
+        final Map<Key, Location> compacted = new HashMap<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            for (Map.Entry<Key, Location> entry : index.entrySet()) {
+                final Location location = entry.getValue();
+                if (isExpired(entry.getKey(), location)) {
+                    continue;
+                }
+                final byte[] header = serialize(new Object[]{entry.getKey().url, entry.getKey().params, location.dateCreated});
+                final byte[] result = new byte[location.resultLength];
+                raf.seek(location.resultOffset);
+                raf.readFully(result);
+                final long offset = out.size();
+                writeRecord(out, header, result);
+                compacted.put(entry.getKey(), new Location(offset + 4 + header.length + 4, result.length, location.dateCreated));
+            }
+        } catch (IOException ex) {
+            LOG.warn("Failed to compact " + file.getAbsolutePath(), ex);
+            return;
+        }
+        // readers holding the old channel will look their results up again
+        closeReader();
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            index.clear();
+            index.putAll(compacted);
+            records = compacted.size();
+        } catch (IOException ex) {
+            LOG.warn("Failed to replace " + file.getAbsolutePath() + " by compacted " + tmp.getAbsolutePath(), ex);
+        }
+    }
+
+    private boolean isExpired(final Key key, final Location location) {
+        try {
+            return expiry.isExpired(key.url, key.params, location.dateCreated);
+        } catch (RuntimeException ex) {
+            LOG.warn("Failed to check expiry of " + XmlRpcRequestParams.toNiceString(key.params) + " of " + key.url, ex);
+            return false;
+        }
+    }
+
+    private static void skipFully(final InputStream in, final long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            final long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static byte[] serialize(final Object o) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(o);
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressFBWarnings(value = "OBJECT_DESERIALIZATION", justification = "file is written only by this class")
+    private static Object deserialize(final byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                // within jenkins, the default loader does not see plugin's classes
+                try {
+                    return Class.forName(desc.getName(), false, DiskTier.class.getClassLoader());
+                } catch (ClassNotFoundException ex) {
+                    return super.resolveClass(desc);
+                }
+            }
+        }) {
+            return in.readObject();
+        }
+    }
+
+    private static final class Key {
+        private final String url;
+        private final XmlRpcRequestParams params;
+
+        private Key(String url, XmlRpcRequestParams params) {
+            this.url = url;
+            this.params = params;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(url, key.url) && Objects.equals(params, key.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(url, params);
+        }
+    }
+
+    private static final class Location {
+        private final long resultOffset;
+        private final int resultLength;
+        private final long dateCreated;
+
+        private Location(long resultOffset, int resultLength, long dateCreated) {
+            this.resultOffset = resultOffset;
+            this.resultLength = resultLength;
+            this.dateCreated = dateCreated;
+        }
+    }
+}
@@ -36,16 +36,47 @@ public class RemoteRequestCacheConfigKeys {
      * If set to 0, items remains in cache forever
      */
     public static final String CACHE_RELEASE_TIMEOUT_MULTIPLIER = "cacheReleaseTimeout";
+    /**
+     * Maximal number of items (all urls together) in cache. If exceeded, least recently used items are evicted.
+     * 0 (default) is unlimited
+     */
+    public static final String MAX_ENTRIES = "maxEntries";
+    /**
+     * Maximal approximate heap footprint of cached results in megabytes. If exceeded, least recently used items are
+     * evicted. 0 (default) is unlimited
+     */
+    public static final String MAX_WEIGHT_MEGABYTES = "maxWeightMegabytes";
+    /**
+     * If true, cached results are also persisted to directory next to the config file (config file name + .d),
+     * so they survive restart. Persisted results are read lazily, and used only if still valid.
+     */
+    public static final String DISK_TIER = "diskTier";
+    public static final String DISK_TIER_SUFFIX = ".d";
     /**
      * space separated list of regexex of  urls
      * matching urls are NOT cached
      */
     public static final String BLACK_LISTED_URLS_LIST = "blackListedUrlsList";
+    /**
+     * If true, expired item is returned as it is, and is refreshed in background, so the caller do not wait for
+     * the remote side. Defaults to false, when the caller which found the item expired waits for the new value.
+     */
+    public static final String ASYNC_REFRESH = "asyncRefresh";
+    /**
+     * Percentage of (per method) validity. If asyncRefresh is true, and item is accessed during this last part of its
+     * validity, it is refreshed in background ahead of expiry. 0 (default) disables the refresh ahead.
+     */
+    public static final String REFRESH_AHEAD_PERCENT = "refreshAheadPercent";
     /**
      * Cache is cleared any momnet, clean=true occure in config file
      */
     public static final String CACHE_CLEAN_COMMAND = "clean";
     public static final String DUMP_COMMAND = "dump";
+    /**
+     * If true, hits, misses, loads and their latencies per url and method are written as json to config file name +
+     * .statistics.json each time the config is reloaded
+     */
+    public static final String STATISTICS_COMMAND = "statistics";
     public static final String METHOD_AT_DELIMITER = "@";
     public static final String NEW_API_MACHINE = "hydra";
     public static final String NEW_API_DOMAIN = "brq.redhat.com";
@@ -71,10 +102,19 @@ public class RemoteRequestCacheConfigKeys {
                     + CACHE_REFRESH_RATE_MINUTES + "cacheRefreshRateMinutes=0\n"
                     + "# hopefully there is a lot of ram on hydra\n"
                     + CACHE_RELEASE_TIMEOUT_MULTIPLIER + "=10\n"
+                    + "# but not that much, least recently used items are evicted when any of those is exceeded\n"
+                    + "#" + MAX_ENTRIES + "=10000\n"
+                    + "#" + MAX_WEIGHT_MEGABYTES + "=512\n"
+                    + "# keep results over restart in " + DEFAULT_CONFIG_LOCATION.getName() + DISK_TIER_SUFFIX + "\n"
+                    + "#" + DISK_TIER + "=true\n"
                     + "\n"
                     + "# although  hydra is quick enough, it keeps reading FS, lower this  rate at least a bit\n"
                     + "#" + BLACK_LISTED_URLS_LIST + "=.*" + NEW_API_MACHINE + ".*\n"
                     + "\n"
+                    + "# serve expired values and refresh them in background, start refreshing in last 10% of validity\n"
+                    + "#" + ASYNC_REFRESH + "=true\n"
+                    + "#" + REFRESH_AHEAD_PERCENT + "=10\n"
+                    + "\n"
                     + "#### individual methods ####\n"
                     + "\n"
                     + "# list builds is listing new builds on koji/brew/old api hydra; thus is refrehed  every 20 minutes\n"
@@ -87,6 +127,9 @@ public class RemoteRequestCacheConfigKeys {
                     + "# on hydra, this method caching should be quite small,  as we use tag to swap from should be built -> built state on old api\n"
                     + Constants.listTags + "=60\n"
                     + Constants.listTags + METHOD_AT_DELIMITER + NEW_API_SERVER + "=20\n"
+                    + "# tags of many builds are listed at once via multicall, so it should follow " + Constants.listTags + "\n"
+                    + Constants.multicall + "=60\n"
+                    + Constants.multicall + METHOD_AT_DELIMITER + NEW_API_SERVER + "=20\n"
                     + "\n"
                     + "# listrpms and listarchives is listing RPMS/archives of given build.\n"
                     + "# although on koji/brew this is immutable, it is not so it on hydra\n"
@@ -110,6 +153,7 @@ public class RemoteRequestCacheConfigKeys {
                     + "3 runtime controls\n"
                     + "#"+CACHE_CLEAN_COMMAND+"=false\n"
                     + "#"+DUMP_COMMAND+"=false\n"
+                    + "#"+STATISTICS_COMMAND+"=false\n"
                     + "");
         }
     }
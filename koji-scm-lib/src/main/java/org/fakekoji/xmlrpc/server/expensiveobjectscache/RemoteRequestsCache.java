@@ -16,13 +16,15 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -33,7 +35,7 @@ public class RemoteRequestsCache {
     private static final Logger LOG = LoggerFactory.getLogger(RemoteRequestsCache.class);
     private static final long minutesToMillis = 60l * 1000l;
 
-    private final Map<String, SingleUrlResponseCache> cache = Collections.synchronizedMap(new HashMap<>());
+    private final Map<String, SingleUrlResponseCache> cache = new ConcurrentHashMap<>();
     private final File config;
     private static final long CONFIG_DEFAULT = 10;
     private long configRefreshRateMinutes = CONFIG_DEFAULT;
@@ -41,6 +43,27 @@ public class RemoteRequestsCache {
     private long cacheRefreshRateMinutes = CACHE_DEFAULT;
     static final long RELEASE_DEFAULT = CACHE_DEFAULT * 5;
     private long cacheReleaseRate = RELEASE_DEFAULT;
+    private boolean asyncRefresh = false;
+    static final long REFRESH_AHEAD_DEFAULT = 0;
+    private long refreshAheadPercent = REFRESH_AHEAD_DEFAULT;
+    private static final int REFRESH_THREADS = 2;
+    private final ExecutorService refresher = Executors.newFixedThreadPool(REFRESH_THREADS, r -> {
+        Thread t = new Thread(r, "expensiveobjectscacheRemoteRequestsRefresh");
+        t.setDaemon(true);
+        return t;
+    });
+    static final long MAX_ENTRIES_DEFAULT = 0;
+    private long maxEntries = MAX_ENTRIES_DEFAULT;
+    static final long MAX_WEIGHT_DEFAULT = 0;
+    private long maxWeightMegabytes = MAX_WEIGHT_DEFAULT;
+    /**
+     * once over limit, least recently used items are evicted until this percentage of limit is reached,
+     * so the eviction is not triggered by each single put
+     */
+    private static final long EVICTION_LOW_WATERMARK_PERCENT = 90;
+    private final LongAdder evictions = new LongAdder();
+    private volatile DiskTier diskTier;
+    private final CacheStatistics statistics = new CacheStatistics();
     private Properties propRaw = new Properties();
     private final OriginalObjectProvider originalProvider;
     private List<Pattern> blackListedUrlsList = new ArrayList<>();
@@ -54,12 +77,14 @@ public class RemoteRequestsCache {
             throw new RuntimeException(ex);
         }
         try {
-            final Object cached = this.get(u, params);
+            final Object cached = this.get(url, u, params);
             if (cached != null) {
                 return cached;
             } else {
-                Object answer = originalProvider.obtainOriginal(url, params);
-                this.put(answer, u, params);
+                // concurrent misses of the same request share single call to the original
+                final URL finalU = u;
+                final Object answer = ensure(u).load(params, () -> obtainOriginal(url, finalU, params));
+                evictOverLimits();
                 return answer;
             }
         } catch (Exception ex) {
@@ -118,6 +143,11 @@ public class RemoteRequestsCache {
                 } catch (Exception ex) {
                     LOG.warn("Failed to clear old items from cache", ex);
                 }
+                try {
+                    evictOverLimits();
+                } catch (Exception ex) {
+                    LOG.warn("Failed to evict items over limits from cache", ex);
+                }
             }
         }
     }
@@ -144,10 +174,100 @@ public class RemoteRequestsCache {
                 for (Map.Entry<XmlRpcRequestParams, SingleUrlResponseCache.ResultWithTimeStamp> kv : kvs) {
                     long t = getPerMethodValidnesMilis(kv.getKey().getMethodName(), cache.getId().getHost());
                     if (now.getTime() - kv.getValue().getDateCreated().getTime() > t * cacheReleaseRate) {
-                        cache.remove(kv.getKey());
+                        cache.remove(kv.getKey(), kv.getValue());
                     }
                 }
             }
+            DiskTier tier = diskTier;
+            if (tier != null) {
+                tier.prune();
+            }
+        }
+    }
+
+    /**
+     * Same rule as for in-memory items in {@link #freeOldItems()}, applied to results persisted in disk tier.
+     */
+    private boolean isReleased(String url, XmlRpcRequestParams params, long dateCreated) {
+        if (cacheReleaseRate <= 0) {
+            return false;
+        }
+        final String host;
+        try {
+            host = new URL(url).getHost();
+        } catch (MalformedURLException ex) {
+            return false;
+        }
+        long t = getPerMethodValidnesMilis(params.getMethodName(), host);
+        return new Date().getTime() - dateCreated > t * cacheReleaseRate;
+    }
+
+    private long getMaxWeightBytes() {
+        return maxWeightMegabytes * 1024 * 1024;
+    }
+
+    private boolean isOverLimits(long entries, long weight, long percent) {
+        return (maxEntries > 0 && entries > maxEntries * percent / 100)
+                || (maxWeightMegabytes > 0 && weight > getMaxWeightBytes() * percent / 100);
+    }
+
+    long getEntriesCount() {
+        return cache.values().stream().mapToLong(SingleUrlResponseCache::size).sum();
+    }
+
+    long getWeight() {
+        return cache.values().stream().mapToLong(SingleUrlResponseCache::getWeight).sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Least recently used items are removed while the cache is over maxEntries or maxWeightMegabytes.
+     */
+    private void evictOverLimits() {
+        if (!isOverLimits(getEntriesCount(), getWeight(), 100)) {
+            return;
+        }
+        synchronized (evictions) {
+            final List<EvictionCandidate> candidates = new ArrayList<>();
+            long entries = 0;
+            long weight = 0;
+            for (SingleUrlResponseCache urlCache : cache.values()) {
+                for (Map.Entry<XmlRpcRequestParams, SingleUrlResponseCache.ResultWithTimeStamp> kv : urlCache.getContent()) {
+                    candidates.add(new EvictionCandidate(urlCache, kv.getKey(), kv.getValue()));
+                    entries++;
+                    weight += kv.getValue().getWeight();
+                }
+            }
+            candidates.sort((o1, o2) -> Long.compare(o1.lastAccessed, o2.lastAccessed));
+            for (EvictionCandidate candidate : candidates) {
+                if (!isOverLimits(entries, weight, EVICTION_LOW_WATERMARK_PERCENT)) {
+                    break;
+                }
+                if (candidate.urlCache.remove(candidate.key, candidate.value)) {
+                    entries--;
+                    weight -= candidate.value.getWeight();
+                    evictions.increment();
+                    statistics.of(candidate.urlCache.getId().toExternalForm(), candidate.key.getMethodName()).eviction();
+                }
+            }
+        }
+    }
+
+    private static class EvictionCandidate {
+        private final SingleUrlResponseCache urlCache;
+        private final XmlRpcRequestParams key;
+        private final SingleUrlResponseCache.ResultWithTimeStamp value;
+        //snapshot, so the sort is stable even when the item is accessed meanwhile
+        private final long lastAccessed;
+
+        private EvictionCandidate(SingleUrlResponseCache urlCache, XmlRpcRequestParams key, SingleUrlResponseCache.ResultWithTimeStamp value) {
+            this.urlCache = urlCache;
+            this.key = key;
+            this.value = value;
+            this.lastAccessed = value.getLastAccessed();
         }
     }
 
@@ -156,6 +276,9 @@ public class RemoteRequestsCache {
         String cacheRefreshRateMinutesS = propRaw.getProperty(RemoteRequestCacheConfigKeys.CACHE_REFRESH_RATE_MINUTES);
         String cacheReleaseS = propRaw.getProperty(RemoteRequestCacheConfigKeys.CACHE_RELEASE_TIMEOUT_MULTIPLIER);
         String blackListedUrlsListS = propRaw.getProperty(RemoteRequestCacheConfigKeys.BLACK_LISTED_URLS_LIST);
+        String refreshAheadS = propRaw.getProperty(RemoteRequestCacheConfigKeys.REFRESH_AHEAD_PERCENT);
+        String maxEntriesS = propRaw.getProperty(RemoteRequestCacheConfigKeys.MAX_ENTRIES);
+        String maxWeightS = propRaw.getProperty(RemoteRequestCacheConfigKeys.MAX_WEIGHT_MEGABYTES);
         if (configRefreshRateMinutesS != null) {
             try {
                 configRefreshRateMinutes = Long.parseLong(configRefreshRateMinutesS);
@@ -187,6 +310,34 @@ public class RemoteRequestsCache {
         } else {
             cacheReleaseRate = CACHE_DEFAULT;
         }
+        asyncRefresh = "true".equals(propRaw.getProperty(RemoteRequestCacheConfigKeys.ASYNC_REFRESH));
+        if (refreshAheadS != null) {
+            try {
+                refreshAheadPercent = Long.parseLong(refreshAheadS);
+            } catch (Exception ex) {
+                LOG.warn("Failed to read or apply custom value  of (" + refreshAheadS + ") for " + RemoteRequestCacheConfigKeys.REFRESH_AHEAD_PERCENT, ex);
+            }
+        } else {
+            refreshAheadPercent = REFRESH_AHEAD_DEFAULT;
+        }
+        if (maxEntriesS != null) {
+            try {
+                maxEntries = Long.parseLong(maxEntriesS);
+            } catch (Exception ex) {
+                LOG.warn("Failed to read or apply custom value  of (" + maxEntriesS + ") for " + RemoteRequestCacheConfigKeys.MAX_ENTRIES, ex);
+            }
+        } else {
+            maxEntries = MAX_ENTRIES_DEFAULT;
+        }
+        if (maxWeightS != null) {
+            try {
+                maxWeightMegabytes = Long.parseLong(maxWeightS);
+            } catch (Exception ex) {
+                LOG.warn("Failed to read or apply custom value  of (" + maxWeightS + ") for " + RemoteRequestCacheConfigKeys.MAX_WEIGHT_MEGABYTES, ex);
+            }
+        } else {
+            maxWeightMegabytes = MAX_WEIGHT_DEFAULT;
+        }
         if (blackListedUrlsListS != null && blackListedUrlsListS.trim().length() > 0) {
             try {
                 blackListedUrlsList = Arrays.stream(blackListedUrlsListS.split("\\s+")).map(Pattern::compile).collect(Collectors.toList());
@@ -196,8 +347,28 @@ public class RemoteRequestsCache {
         } else {
             blackListedUrlsList = new ArrayList<>();
         }
+        if ("true".equals(propRaw.getProperty(RemoteRequestCacheConfigKeys.DISK_TIER)) && config != null) {
+            File diskTierDir = new File(config.getAbsolutePath() + RemoteRequestCacheConfigKeys.DISK_TIER_SUFFIX);
+            if (diskTier == null || !diskTier.getFile().getParentFile().equals(diskTierDir)) {
+                diskTier = new DiskTier(diskTierDir, this::isReleased);
+            }
+        } else {
+            diskTier = null;
+        }
         if ("true".equals(propRaw.getProperty(RemoteRequestCacheConfigKeys.CACHE_CLEAN_COMMAND))) {
             cache.clear();
+            DiskTier tier = diskTier;
+            if (tier != null) {
+                tier.clear();
+            }
+        }
+        if ("true".equals(propRaw.getProperty(RemoteRequestCacheConfigKeys.STATISTICS_COMMAND)) && config != null) {
+            File statisticsFile = new File(config.getAbsolutePath() + ".statistics.json");
+            try {
+                statistics.writeJson(statisticsFile);
+            } catch (Exception ex) {
+                LOG.info("failed to write cache statistics", ex);
+            }
         }
         if ("true".equals(propRaw.getProperty(RemoteRequestCacheConfigKeys.DUMP_COMMAND))) {
             File dumpFile = new File(config.getAbsolutePath() + ".dump");
@@ -220,6 +391,29 @@ public class RemoteRequestsCache {
                 bw.newLine();
                 bw.write("  cacheReleaseRate: " + cacheReleaseRate);
                 bw.newLine();
+                bw.write("  asyncRefresh: " + asyncRefresh);
+                bw.newLine();
+                bw.write("  refreshAheadPercent: " + refreshAheadPercent);
+                bw.newLine();
+                bw.write("  maxEntries: " + maxEntries);
+                bw.newLine();
+                bw.write("  maxWeightMegabytes: " + maxWeightMegabytes);
+                bw.newLine();
+                bw.write("  entries: " + getEntriesCount());
+                bw.newLine();
+                bw.write("  weight: " + getWeight() + "b");
+                bw.newLine();
+                bw.write("  evictions: " + getEvictions());
+                bw.newLine();
+                DiskTier tier = diskTier;
+                bw.write("  diskTier: " + (tier == null ? "disabled" : tier.getFile().getAbsolutePath() + " (" + tier.size() + " persisted)"));
+                bw.newLine();
+                bw.write("  statistics: " + statistics);
+                bw.newLine();
+                for (Map.Entry<String, CacheStatistics.Counters> perMethod : statistics.getPerMethod().entrySet()) {
+                    bw.write("    " + perMethod.getKey() + ": " + perMethod.getValue());
+                    bw.newLine();
+                }
                 bw.write("  originalProvider: " + originalProvider.getClass().getName());
                 bw.newLine();
                 bw.write("  blackListedUrlsList: " + blackListedUrlsList.stream().map(Pattern::pattern).collect(Collectors.joining(",")));
@@ -271,55 +465,137 @@ public class RemoteRequestsCache {
 
     private SingleUrlResponseCache ensure(final URL u) {
         //we can not use URL as key, becasue it includes resolved IP in hash. That can differ in reqests to same URL
-        SingleUrlResponseCache sux = cache.get(u.toExternalForm());
-        if (sux == null) {
-            sux = new SingleUrlResponseCache(u);
-            cache.put(u.toExternalForm(), sux);
-        }
-        return sux;
+        return cache.computeIfAbsent(u.toExternalForm(), key -> new SingleUrlResponseCache(u));
     }
 
     public void put(final Object result, final URL u, XmlRpcRequestParams params) {
         ensure(u).put(result, params);
+        evictOverLimits();
     }
 
     public void remove(final URL u, XmlRpcRequestParams params) {
         ensure(u).remove(params);
+        DiskTier tier = diskTier;
+        if (tier != null) {
+            tier.remove(u.toExternalForm(), params);
+        }
+    }
+
+    /**
+     * @return always-on counters of this cache, per url and method
+     */
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    private Object obtainOriginal(final String url, final URL u, XmlRpcRequestParams params) {
+        final CacheStatistics.Counters counters = statistics.of(u.toExternalForm(), params.getMethodName());
+        final long start = System.nanoTime();
+        boolean failed = true;
+        counters.loadStarted();
+        final Object answer;
+        try {
+            answer = originalProvider.obtainOriginal(url, params);
+            failed = false;
+        } finally {
+            counters.loadFinished((System.nanoTime() - start) / 1000000L, failed);
+        }
+        final DiskTier tier = diskTier;
+        if (tier != null && cacheRefreshRateMinutes != 0 && !isBlacklisted(u) && getPerMethodValidnesMilis(params.getMethodName(), u.getHost()) != 0) {
+            tier.put(u.toExternalForm(), params, answer);
+        }
+        return answer;
+    }
+
+    /**
+     * Result persisted by previous run is used only if it is still valid; its original date of creation is kept.
+     */
+    private Object restore(final URL u, XmlRpcRequestParams params) {
+        final DiskTier tier = diskTier;
+        if (tier == null) {
+            return null;
+        }
+        final SingleUrlResponseCache.ResultWithTimeStamp persisted = tier.get(u.toExternalForm(), params);
+        if (persisted == null || !Boolean.TRUE.equals(isValid(persisted, params.getMethodName(), u.getHost()))) {
+            return null;
+        }
+        ensure(u).restore(persisted, params);
+        evictOverLimits();
+        return persisted.getResult();
     }
 
-    private Object get(final URL u, XmlRpcRequestParams params) {
+    private Object get(final String url, final URL u, XmlRpcRequestParams params) {
+        final CacheStatistics.Counters counters = statistics.of(u.toExternalForm(), params.getMethodName());
         if (cacheRefreshRateMinutes == 0) {
+            counters.miss();
             return null;
         }
         if (isBlacklisted(u)) {
+            counters.miss();
             return null;
         }
         SingleUrlResponseCache cached = cache.get(u.toExternalForm());
-        if (cached == null) {
-            return null;
-        }
-        SingleUrlResponseCache.ResultWithTimeStamp cachedResult = cached.get(params);
+        SingleUrlResponseCache.ResultWithTimeStamp cachedResult = cached == null ? null : cached.get(params);
         if (cachedResult == null) {
-            return null;
+            final Object restored = restore(u, params);
+            if (restored == null) {
+                counters.miss();
+            } else {
+                counters.diskHit();
+            }
+            return restored;
         } else {
             Boolean validity = isValid(cachedResult, params.getMethodName(), u.getHost());
             if (validity == null) {
+                counters.miss();
                 return null; //disbaled by global or by method
             }
             if (validity) {
+                if (asyncRefresh && isToBeRefreshedAhead(cachedResult, params.getMethodName(), u.getHost()) && cachedResult.tryFlagBeingReplaced()) {
+                    refreshAsync(url, u, params);
+                }
+                counters.hit();
                 return cachedResult.getResult();
             } else {
                 //if the  objkect is already being replaced, we do not check the time and return it as valid, as we know, it will already be refreshed
-                if (cachedResult.isNotBeingReplaced()) {
-                    cachedResult.flagBeingReplaced();
+                if (cachedResult.tryFlagBeingReplaced()) {
+                    if (asyncRefresh) {
+                        //stale while revalidate; the caller do not wait for the remote side
+                        refreshAsync(url, u, params);
+                        counters.staleHit();
+                        return cachedResult.getResult();
+                    }
+                    counters.miss();
                     return null;
                 } else {
+                    counters.staleHit();
                     return cachedResult.getResult();
                 }
             }
         }
     }
 
+    private boolean isToBeRefreshedAhead(final SingleUrlResponseCache.ResultWithTimeStamp cachedResult, String methodName, String host) {
+        if (refreshAheadPercent <= 0) {
+            return false;
+        }
+        long ttl = getPerMethodValidnesMilis(methodName, host);
+        long age = new Date().getTime() - cachedResult.getDateCreated().getTime();
+        return age >= ttl - ttl * refreshAheadPercent / 100;
+    }
+
+    private void refreshAsync(final String url, final URL u, final XmlRpcRequestParams params) {
+        refresher.submit(() -> {
+            try {
+                ensure(u).load(params, () -> obtainOriginal(url, u, params));
+                evictOverLimits();
+            } catch (Exception ex) {
+                LOG.warn("Background refresh failed! Removing: " + ex.toString() + "[" + XmlRpcRequestParams.toNiceString(params) + "]");
+                this.remove(u, params);
+            }
+        });
+    }
+
     private boolean isBlacklisted(URL u) {
         String url = u.toExternalForm();
         for (Pattern p : blackListedUrlsList) {
@@ -9,12 +9,17 @@ import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import edu.umd.cs.findbugs.annotations.*;
 
@@ -22,7 +27,9 @@ public class SingleUrlResponseCache {
 
 
     private final URL id;
-    private final Map<XmlRpcRequestParams, ResultWithTimeStamp> cache = Collections.synchronizedMap(new HashMap<>());
+    private final Map<XmlRpcRequestParams, ResultWithTimeStamp> cache = new ConcurrentHashMap<>();
+    private final Map<XmlRpcRequestParams, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
 
 
     public SingleUrlResponseCache(final URL u) {
@@ -30,15 +37,89 @@ public class SingleUrlResponseCache {
     }
 
     public ResultWithTimeStamp get(final XmlRpcRequestParams params) {
-        return cache.get(params);
+        final ResultWithTimeStamp result = cache.get(params);
+        if (result != null) {
+            result.touch();
+        }
+        return result;
     }
 
     public void put(final Object result, XmlRpcRequestParams params) {
-        cache.put(params, new ResultWithTimeStamp(result));
+        final ResultWithTimeStamp added = new ResultWithTimeStamp(result);
+        final ResultWithTimeStamp replaced = cache.put(params, added);
+        weight.addAndGet(added.getWeight() - (replaced == null ? 0 : replaced.getWeight()));
+    }
+
+    /**
+     * Puts result obtained earlier (keeping its date of creation), unless there is newer one already.
+     */
+    void restore(final ResultWithTimeStamp restored, XmlRpcRequestParams params) {
+        if (cache.putIfAbsent(params, restored) == null) {
+            weight.addAndGet(restored.getWeight());
+        }
     }
 
     public void remove(XmlRpcRequestParams key) {
-        cache.remove(key);
+        final ResultWithTimeStamp removed = cache.remove(key);
+        if (removed != null) {
+            weight.addAndGet(-removed.getWeight());
+        }
+    }
+
+    boolean remove(XmlRpcRequestParams key, ResultWithTimeStamp expected) {
+        if (cache.remove(key, expected)) {
+            weight.addAndGet(-expected.getWeight());
+            return true;
+        }
+        return false;
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return approximate heap footprint of all cached results in bytes
+     */
+    long getWeight() {
+        return weight.get();
+    }
+
+    /**
+     * Obtains the value from the original and caches it. If the same request is already being obtained by another
+     * thread, its result (or failure) is shared instead of asking the original again.
+     */
+    public Object load(final XmlRpcRequestParams params, final Supplier<Object> original) {
+        final CompletableFuture<Object> mine = new CompletableFuture<>();
+        final CompletableFuture<Object> running = loading.putIfAbsent(params, mine);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            final Object answer = original.get();
+            put(answer, params);
+            mine.complete(answer);
+            return answer;
+        } catch (RuntimeException | Error ex) {
+            mine.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            loading.remove(params, mine);
+        }
+    }
+
+    private static Object await(final CompletableFuture<Object> running) {
+        try {
+            return running.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
     }
 
     public URL getId() {
@@ -74,7 +155,11 @@ public class SingleUrlResponseCache {
             bw.newLine();
             bw.write(preffix + "  dateCreated: " + entry.getValue().dateCreated);
             bw.newLine();
-            bw.write(preffix + "  notBeingRepalced: " + entry.getValue().notBeingRepalced);
+            bw.write(preffix + "  notBeingRepalced: " + entry.getValue().isNotBeingReplaced());
+            bw.newLine();
+            bw.write(preffix + "  lastAccessed: " + new Date(entry.getValue().getLastAccessed()));
+            bw.newLine();
+            bw.write(preffix + "  weight: " + entry.getValue().getWeight() + "b");
             bw.newLine();
             bw.write(preffix + "  validity: " + validator.isValid(entry.getValue(), entry.getKey().getMethodName(), id.getHost()));
             bw.newLine();
@@ -95,7 +180,7 @@ public class SingleUrlResponseCache {
                 entry.getValue().dump(preffix + "  ", bw);
             }
         }
-        bw.write(preffix + "total: " + entries.size());
+        bw.write(preffix + "total: " + entries.size() + ", weight: " + getWeight() + "b");
         bw.newLine();
     }
 
@@ -104,11 +189,31 @@ public class SingleUrlResponseCache {
 
         private final Date dateCreated;
         private final Object result;
-        private boolean notBeingRepalced = true;
+        private final AtomicBoolean notBeingRepalced = new AtomicBoolean(true);
+        private final long weight;
+        private volatile long lastAccessed;
 
         public ResultWithTimeStamp(final Object result) {
-            this.dateCreated = new Date();
+            this(result, new Date());
+        }
+
+        public ResultWithTimeStamp(final Object result, final Date dateCreated) {
+            this.dateCreated = dateCreated;
             this.result = result;
+            this.weight = estimateWeight(result);
+            this.lastAccessed = dateCreated.getTime();
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+
+        public long getLastAccessed() {
+            return lastAccessed;
+        }
+
+        void touch() {
+            lastAccessed = System.currentTimeMillis();
         }
 
         public Date getDateCreated() {
@@ -120,11 +225,18 @@ public class SingleUrlResponseCache {
         }
 
         public boolean isNotBeingReplaced() {
-            return notBeingRepalced;
+            return notBeingRepalced.get();
         }
 
         public void flagBeingReplaced() {
-            this.notBeingRepalced = false;
+            this.notBeingRepalced.set(false);
+        }
+
+        /**
+         * @return true only for the single caller, which switched the flag, and so is responsible for the replacement
+         */
+        public boolean tryFlagBeingReplaced() {
+            return notBeingRepalced.compareAndSet(true, false);
         }
 
         public void dump(String preffix, BufferedWriter bw) throws IOException {
@@ -132,6 +244,51 @@ public class SingleUrlResponseCache {
         }
 
         private static final String FINAL_INCREMENT = "  ";
+        private static final long OBJECT_HEADER = 16;
+        private static final long REFERENCE = 8;
+
+        /**
+         * Rough estimate of heap occupied by xml-rpc result, which is tree of maps, arrays, collections and
+         * primitive wrappers. It is not exact, it is just good enough to weight results against each other.
+         */
+        public static long estimateWeight(Object o) {
+            if (o == null) {
+                return 0;
+            }
+            if (o instanceof String) {
+                return OBJECT_HEADER + 24 + ((String) o).length() * 2L;
+            }
+            if (WRAPPER_TYPE_MAP.containsKey(o.getClass()) || o instanceof Date) {
+                return OBJECT_HEADER + REFERENCE;
+            }
+            if (o instanceof Map) {
+                long sum = OBJECT_HEADER + 48;
+                for (Object e : ((Map) o).entrySet()) {
+                    Map.Entry entry = (Map.Entry) e;
+                    sum += OBJECT_HEADER + 3 * REFERENCE + estimateWeight(entry.getKey()) + estimateWeight(entry.getValue());
+                }
+                return sum;
+            }
+            if (o instanceof Object[]) {
+                long sum = OBJECT_HEADER + ((Object[]) o).length * REFERENCE;
+                for (Object e : (Object[]) o) {
+                    sum += estimateWeight(e);
+                }
+                return sum;
+            }
+            if (o.getClass().isArray()) {
+                return OBJECT_HEADER + Array.getLength(o) * REFERENCE;
+            }
+            if (o instanceof Iterable) {
+                long sum = OBJECT_HEADER + 32;
+                for (Object e : (Iterable) o) {
+                    sum += REFERENCE + estimateWeight(e);
+                }
+                return sum;
+            }
+            //unknown object, eg. model class from new api
+            return OBJECT_HEADER + 8 * REFERENCE;
+        }
 
         public static void dump(String preffix, Object o, BufferedWriter bw) throws IOException {
             if (o == null) {
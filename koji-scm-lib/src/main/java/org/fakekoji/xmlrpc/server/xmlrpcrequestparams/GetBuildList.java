@@ -6,26 +6,42 @@ import hudson.plugins.scm.koji.Constants;
 
 public class GetBuildList implements XmlRpcRequestParams {
 
+    // value computed before limit was added, keeps old clients and servers compatible
+    private static final long serialVersionUID = 8980731365846532405L;
+
     private final String projectName;
     private final String buildVariants;
     private final String platforms;
     private final boolean isBuilt;
+    // null when sent by client not knowing about it
+    private final Integer limit;
 
     public GetBuildList(
             String projectName,
             String buildVariants,
             String platforms,
             boolean isBuilt
+    ) {
+        this(projectName, buildVariants, platforms, isBuilt, null);
+    }
+
+    public GetBuildList(
+            String projectName,
+            String buildVariants,
+            String platforms,
+            boolean isBuilt,
+            Integer limit
     ) {
         this.projectName = projectName;
         this.buildVariants = buildVariants;
         this.platforms = platforms;
         this.isBuilt = isBuilt;
+        this.limit = limit;
     }
 
     @Override
     public String toString() {
-        return projectName + "; " + buildVariants + "; " + isBuilt;
+        return projectName + "; " + buildVariants + "; " + isBuilt + (limit == null ? "" : "; " + limit);
     }
 
     @Override
@@ -64,6 +80,16 @@ public class GetBuildList implements XmlRpcRequestParams {
         return !isBuilt;
     }
 
+    /**
+     * Maximal number of builds the caller is interested in. Server returns
+     * the newest ones and stops searching once it has enough.
+     *
+     * @return limit, or null if not limited
+     */
+    public Integer getLimit() {
+        return limit;
+    }
+
     public static GetBuildList create(Object object) {
         return (GetBuildList) object;
     }
@@ -77,11 +103,12 @@ public class GetBuildList implements XmlRpcRequestParams {
                 Objects.equals(projectName, that.projectName) &&
                 Objects.equals(buildVariants, that.buildVariants) &&
                 Objects.equals(platforms, that.platforms) &&
+                Objects.equals(limit, that.limit) &&
                 Objects.equals(getMethodName(), that.getMethodName());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(getMethodName(), projectName, buildVariants, platforms, isBuilt);
+        return Objects.hash(getMethodName(), projectName, buildVariants, platforms, isBuilt, limit);
     }
 }
@@ -15,9 +15,18 @@ public class ListBuilds implements XmlRpcRequestParams {
     private static final String stateLabel = "state";
 
     private final Integer packageId;
+    // if set, builds are listed newest first, page of limit builds starting at offset
+    private final Integer limit;
+    private final Integer offset;
 
     public ListBuilds(Integer packageId) {
+        this(packageId, null, null);
+    }
+
+    public ListBuilds(Integer packageId, Integer limit, Integer offset) {
         this.packageId = packageId;
+        this.limit = limit;
+        this.offset = offset;
     }
 
     @Override
@@ -26,6 +35,13 @@ public class ListBuilds implements XmlRpcRequestParams {
         map.put(Constants.packageID, packageId);
         map.put(starStarLabel, Boolean.TRUE);
         map.put(stateLabel, 1);
+        if (limit != null) {
+            final Map<String, Object> queryOpts = new HashMap<>();
+            queryOpts.put(Constants.order, Constants.newestFirst);
+            queryOpts.put(Constants.limit, limit);
+            queryOpts.put(Constants.offset, offset == null ? 0 : offset);
+            map.put(Constants.queryOpts, queryOpts);
+        }
         return new Object[]{map};
     }
 
@@ -38,9 +54,25 @@ public class ListBuilds implements XmlRpcRequestParams {
         return packageId;
     }
 
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public Integer getOffset() {
+        return offset;
+    }
+
     public static ListBuilds create(Object object) {
         final Map<String, Object> map = toMap(object);
-        return new ListBuilds((Integer) map.get(Constants.packageID));
+        final Map<String, Object> queryOpts = toMap(map.get(Constants.queryOpts));
+        if (queryOpts == null || !Constants.newestFirst.equals(queryOpts.get(Constants.order))) {
+            return new ListBuilds((Integer) map.get(Constants.packageID));
+        }
+        return new ListBuilds(
+                (Integer) map.get(Constants.packageID),
+                (Integer) queryOpts.get(Constants.limit),
+                (Integer) queryOpts.get(Constants.offset)
+        );
     }
 
     @Override
@@ -49,11 +81,13 @@ public class ListBuilds implements XmlRpcRequestParams {
         if (o == null || getClass() != o.getClass()) return false;
         ListBuilds that = (ListBuilds) o;
         return Objects.equals(packageId, that.packageId) &&
+                Objects.equals(limit, that.limit) &&
+                Objects.equals(offset, that.offset) &&
                 Objects.equals(getMethodName(), that.getMethodName());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(getMethodName(), packageId);
+        return Objects.hash(getMethodName(), packageId, limit, offset);
     }
 }
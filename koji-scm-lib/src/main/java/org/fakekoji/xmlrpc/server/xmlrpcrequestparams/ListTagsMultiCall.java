@@ -0,0 +1,73 @@
+package org.fakekoji.xmlrpc.server.xmlrpcrequestparams;
+
+import hudson.plugins.scm.koji.Constants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestUtils.toMaps;
+
+/**
+ * {@link ListTags} of several builds in single round trip, via koji's system.multicall.
+ * The response is array of one-element arrays (result of each call) or fault maps, in order of build ids.
+ */
+public class ListTagsMultiCall implements XmlRpcRequestParams {
+
+    private final List<Integer> buildIds;
+
+    public ListTagsMultiCall(List<Integer> buildIds) {
+        this.buildIds = Collections.unmodifiableList(new ArrayList<>(buildIds));
+    }
+
+    @Override
+    public Object[] toXmlRpcParams() {
+        final Object[] calls = new Object[buildIds.size()];
+        for (int i = 0; i < calls.length; i++) {
+            final ListTags call = new ListTags(buildIds.get(i));
+            final Map<String, Object> map = new HashMap<>();
+            map.put(Constants.methodName, call.getMethodName());
+            map.put(Constants.params, call.toXmlRpcParams());
+            calls[i] = map;
+        }
+        return new Object[]{calls};
+    }
+
+    @Override
+    public String getMethodName() {
+        return Constants.multicall;
+    }
+
+    public List<Integer> getBuildIds() {
+        return buildIds;
+    }
+
+    public static ListTagsMultiCall create(Object object) {
+        final List<Map<String, Object>> calls = toMaps(object);
+        final List<Integer> buildIds = new ArrayList<>(calls.size());
+        for (Map<String, Object> call : calls) {
+            if (!Constants.listTags.equals(call.get(Constants.methodName))) {
+                throw new IllegalArgumentException("Not a " + Constants.listTags + " call: " + call.get(Constants.methodName));
+            }
+            buildIds.add(ListTags.create(((Object[]) call.get(Constants.params))[0]).getBuildId());
+        }
+        return new ListTagsMultiCall(buildIds);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ListTagsMultiCall that = (ListTagsMultiCall) o;
+        return Objects.equals(buildIds, that.buildIds) &&
+                Objects.equals(getMethodName(), that.getMethodName());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getMethodName(), buildIds);
+    }
+}
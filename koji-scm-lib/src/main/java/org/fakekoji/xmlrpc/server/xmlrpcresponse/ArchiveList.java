@@ -4,6 +4,7 @@ import hudson.plugins.scm.koji.Constants;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -11,7 +12,12 @@ import static org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestUtils.
 
 public class ArchiveList implements XmlRpcResponse<List<String>> {
 
+    // koji's checksum_type of md5
+    private static final int MD5 = 0;
+
     private final List<String> archives;
+    private final Map<String, Long> sizes = new HashMap<>();
+    private final Map<String, String> md5s = new HashMap<>();
 
     public ArchiveList(List<String> archives) {
         this.archives = archives;
@@ -31,6 +37,20 @@ public class ArchiveList implements XmlRpcResponse<List<String>> {
         return archives;
     }
 
+    /**
+     * @return size of archive as known to koji, or null if unknown
+     */
+    public Long getSize(String filename) {
+        return sizes.get(filename);
+    }
+
+    /**
+     * @return md5 of archive as known to koji, or null if unknown or koji used other algorithm
+     */
+    public String getMd5(String filename) {
+        return md5s.get(filename);
+    }
+
     private static List<String> parseArchiveMaps(List<Map<String, Object>> maps) {
         if (maps == null) {
             return Collections.emptyList();
@@ -42,11 +62,31 @@ public class ArchiveList implements XmlRpcResponse<List<String>> {
         return archives;
     }
 
+    private void parseArchiveMetadata(List<Map<String, Object>> maps) {
+        if (maps == null) {
+            return;
+        }
+        for (Map<String, Object> map : maps) {
+            final String filename = parseArchiveMap(map);
+            final Object size = map.get(Constants.size);
+            if (size instanceof Number) {
+                sizes.put(filename, ((Number) size).longValue());
+            }
+            final Object checksumType = map.get(Constants.checksum_type);
+            if (checksumType instanceof Number && ((Number) checksumType).intValue() == MD5) {
+                md5s.put(filename, (String) map.get(Constants.checksum));
+            }
+        }
+    }
+
     private static String parseArchiveMap(Map<String, Object> map) {
         return (String) map.get(Constants.filename);
     }
 
     public static ArchiveList create(Object object) {
-        return new ArchiveList(parseArchiveMaps(toMaps(object)));
+        final List<Map<String, Object>> maps = toMaps(object);
+        final ArchiveList archiveList = new ArchiveList(parseArchiveMaps(maps));
+        archiveList.parseArchiveMetadata(maps);
+        return archiveList;
     }
 }
@@ -41,7 +41,7 @@ public class RPMList implements XmlRpcResponse<List<RPM>> {
     }
 
     private static RPM parseRpmMap(Map<String, Object> map) {
-        return new RPM(
+        final RPM rpm = new RPM(
                 (String) map.get(Constants.name),
                 (String) map.get(Constants.version),
                 (String) map.get(Constants.release),
@@ -49,6 +49,11 @@ public class RPMList implements XmlRpcResponse<List<RPM>> {
                 (String) map.get(Constants.arch),
                 (String) map.get(Constants.filename)
         );
+        final Object size = map.get(Constants.size);
+        if (size instanceof Number) {
+            rpm.setSize(((Number) size).longValue());
+        }
+        return rpm;
     }
 
     private List<Map<String, Object>> parseRpms() {
@@ -0,0 +1,49 @@
+package org.fakekoji.xmlrpc.server.xmlrpcresponse;
+
+import hudson.plugins.scm.koji.Constants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Response of {@link org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListTagsMultiCall}, tags of each build in order
+ * of requested build ids.
+ */
+public class TagSetList implements XmlRpcResponse<List<Set<String>>> {
+
+    private final List<Set<String>> tagSets;
+
+    public TagSetList(List<Set<String>> tagSets) {
+        this.tagSets = tagSets;
+    }
+
+    @Override
+    public Object toObject() {
+        final Object[] results = new Object[tagSets.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new Object[]{new TagSet(tagSets.get(i)).toObject()};
+        }
+        return results;
+    }
+
+    @Override
+    public List<Set<String>> getValue() {
+        return tagSets;
+    }
+
+    public static TagSetList create(Object object) {
+        final Object[] results = (Object[]) object;
+        final List<Set<String>> tagSets = new ArrayList<>(results.length);
+        for (Object result : results) {
+            if (result instanceof Map) {
+                final Map<?, ?> fault = (Map<?, ?>) result;
+                throw new RuntimeException("Call in " + Constants.multicall + " failed: "
+                        + fault.get(Constants.faultCode) + " " + fault.get(Constants.faultString));
+            }
+            tagSets.add(TagSet.create(((Object[]) result)[0]).getValue());
+        }
+        return new TagSetList(tagSets);
+    }
+}
@@ -0,0 +1,76 @@
+package hudson.plugins.scm.koji;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProcessedNvrIndexTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void appendedLinesAreIndexed() throws IOException {
+        final File processed = new File(temporaryFolder.getRoot(), "processed.txt");
+        final ProcessedNvrIndex index = ProcessedNvrIndex.of(processed);
+        Assert.assertTrue(index.getNvrs().isEmpty());
+        index.append("a-1-1  # 2017-01-01_00:00:00_+01:00");
+        index.append("b-1-1");
+        Assert.assertEquals(set("a-1-1", "b-1-1"), index.getNvrs());
+        index.append("c-1-1");
+        Assert.assertEquals(set("a-1-1", "b-1-1", "c-1-1"), index.getNvrs());
+    }
+
+    @Test
+    public void lineAppendedInTwoWritesIsIndexedWhole() throws IOException {
+        final File processed = new File(temporaryFolder.getRoot(), "processed.txt");
+        final ProcessedNvrIndex index = ProcessedNvrIndex.of(processed);
+        index.append("a-1-1");
+        Assert.assertEquals(set("a-1-1"), index.getNvrs());
+        Files.write(processed.toPath(), "foo-1-1".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Assert.assertEquals(set("a-1-1", "foo-1-1"), index.getNvrs());
+        Files.write(processed.toPath(), "0\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Assert.assertEquals(set("a-1-1", "foo-1-10"), index.getNvrs());
+        index.append("b-1-1");
+        Assert.assertEquals(set("a-1-1", "foo-1-10", "b-1-1"), index.getNvrs());
+    }
+
+    @Test
+    public void rewrittenFileIsIndexedAgain() throws IOException {
+        final File processed = new File(temporaryFolder.getRoot(), "processed.txt");
+        final ProcessedNvrIndex index = ProcessedNvrIndex.of(processed);
+        Files.write(processed.toPath(), Arrays.asList("a-1-1", "b-1-1", "c-1-1"), StandardCharsets.UTF_8);
+        Assert.assertEquals(set("a-1-1", "b-1-1", "c-1-1"), index.getNvrs());
+        // nvr removed and other one added, so the file is longer, but not appended
+        Files.write(processed.toPath(), Arrays.asList("a-1-1", "c-1-1", "d-1-10000"), StandardCharsets.UTF_8);
+        Assert.assertEquals(set("a-1-1", "c-1-1", "d-1-10000"), index.getNvrs());
+        Files.write(processed.toPath(), Arrays.asList("a-1-1"), StandardCharsets.UTF_8);
+        Assert.assertEquals(set("a-1-1"), index.getNvrs());
+    }
+
+    @Test
+    public void predicateUsesBothFiles() throws IOException {
+        final File job = temporaryFolder.newFile("job.txt");
+        final File global = temporaryFolder.newFile("global.txt");
+        Files.write(job.toPath(), Arrays.asList("a-1-1 # comment"), StandardCharsets.UTF_8);
+        Files.write(global.toPath(), Arrays.asList("b-1-1"), StandardCharsets.UTF_8);
+        Assert.assertFalse(NotProcessedNvrPredicate.createNotProcessedNvrPredicateFromFile(job, global).test("a-1-1"));
+        Assert.assertFalse(NotProcessedNvrPredicate.createNotProcessedNvrPredicateFromFile(job, global).test("b-1-1"));
+        Assert.assertTrue(NotProcessedNvrPredicate.createNotProcessedNvrPredicateFromFile(job, null).test("b-1-1"));
+        Assert.assertTrue(NotProcessedNvrPredicate.createNotProcessedNvrPredicateFromFile(job, global).test("c-1-1"));
+    }
+
+    private static Set<String> set(String... nvrs) {
+        return new HashSet<>(Arrays.asList(nvrs));
+    }
+}
@@ -0,0 +1,145 @@
+package hudson.plugins.scm.koji.model;
+
+import hudson.plugins.scm.koji.Constants;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+public class BuildSortKeyTest {
+
+    @Test
+    public void completionTimeKeyOrdersAsParsedTime() {
+        final List<Build> builds = createBuilds(2000, new Random(7));
+        final List<Build> byKey = new ArrayList<>(builds);
+        byKey.sort(Comparator.comparingLong(Build::getCompletionTimeKey).reversed());
+        final List<Build> byParsing = new ArrayList<>(builds);
+        byParsing.sort(BuildSortKeyTest::compareByParsing);
+        assertSameTimes(byParsing, byKey);
+        Assert.assertEquals(
+                builds.get(0).getCompletionTimeKey(),
+                build("a", "1", "1", builds.get(0).getCompletionTime() + "+00:00").getCompletionTimeKey()
+        );
+    }
+
+    /**
+     * Sorts builds by completion time as BuildMatcher used to, parsing the time at each comparison, and by parsed keys.
+     * Runs only if number of builds is set by build.benchmark.count property (e.g. -Dbuild.benchmark.count=50000).
+     */
+    @Test
+    public void sortBenchmark() {
+        final int count = Integer.getInteger("build.benchmark.count", 0);
+        Assume.assumeTrue(count > 0);
+        final List<Build> template = createBuilds(count, new Random(42));
+        long parsing = Long.MAX_VALUE;
+        long keys = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            final List<Build> builds = new ArrayList<>(template);
+            long started = System.nanoTime();
+            builds.sort(BuildSortKeyTest::compareByParsing);
+            parsing = Math.min(parsing, System.nanoTime() - started);
+
+            // fresh builds, so keys are parsed within measured time
+            final List<Build> fresh = new ArrayList<>(count);
+            for (Build b : template) {
+                fresh.add(build(b.getName(), b.getVersion(), b.getRelease(), b.getCompletionTime()));
+            }
+            started = System.nanoTime();
+            fresh.sort((b1, b2) -> Long.compare(b2.getCompletionTimeKey(), b1.getCompletionTimeKey()));
+            keys = Math.min(keys, System.nanoTime() - started);
+            assertSameTimes(builds, fresh);
+        }
+        System.out.println("Sorting " + count + " builds: parsing at each comparison " + parsing / 1_000_000
+                + "ms, parsed keys " + keys / 1_000_000 + "ms");
+    }
+
+    @Test
+    public void versionKeyOrdersAsTokenizedVersion() {
+        final String[] versions = {
+                "1.8.0.131", "1.8.0.141", "1.8.0.14", "1.8.0.141.1", "jdk8u144.b01", "jdk8u144.b02", "jdk8u162.b00",
+                "11.0.1.13", "11.0.10.9", "11-0-10-9", "a", "b", "1", "10", "9.a", "9.10", "99999999999999999999"
+        };
+        for (String v1 : versions) {
+            for (String v2 : versions) {
+                Assert.assertEquals(v1 + " vs " + v2,
+                        Integer.signum(compareStrings(v1, v2)),
+                        Integer.signum(VersionKey.of(v2).compareTo(VersionKey.of(v1))));
+            }
+        }
+    }
+
+    private static void assertSameTimes(List<Build> expected, List<Build> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getCompletionTime(), actual.get(i).getCompletionTime());
+        }
+    }
+
+    private static List<Build> createBuilds(int count, Random random) {
+        final List<Build> builds = new ArrayList<>(count);
+        final LocalDateTime start = LocalDateTime.of(2015, 1, 1, 0, 0);
+        for (int i = 0; i < count; i++) {
+            final LocalDateTime time = start
+                    .plusSeconds(random.nextInt(200_000_000))
+                    .plusNanos(random.nextInt(1_000_000) * 1000L);
+            builds.add(build(
+                    "java-1.8.0-openjdk",
+                    "1.8.0." + random.nextInt(300),
+                    random.nextInt(20) + ".b" + random.nextInt(30) + ".el7",
+                    Constants.DTF.format(time)
+            ));
+        }
+        return builds;
+    }
+
+    private static Build build(String name, String version, String release, String completionTime) {
+        return new Build(null, name, version, release, name + "-" + version + "-" + release, completionTime, null, null, null, null);
+    }
+
+    // comparison as it was done before the keys
+    private static int compareByParsing(Build b1, Build b2) {
+        final LocalDateTime thisCompletionTime = LocalDateTime.parse(sanitize(b1.getCompletionTime()), Constants.DTF);
+        final LocalDateTime thatCompletionTime = LocalDateTime.parse(sanitize(b2.getCompletionTime()), Constants.DTF);
+        return thatCompletionTime.compareTo(thisCompletionTime);
+    }
+
+    private static String sanitize(String corruptedDate) {
+        if (corruptedDate.contains("+")) {
+            return corruptedDate.replaceAll("\\+[0-9]{1,2}:[0-9]{1,2}$", "");
+        }
+        return corruptedDate;
+    }
+
+    private static int compareStrings(String s1, String s2) {
+        StringTokenizer tokenizer1 = new StringTokenizer(s1, "-.");
+        StringTokenizer tokenizer2 = new StringTokenizer(s2, "-.");
+        while (tokenizer1.hasMoreTokens() && tokenizer2.hasMoreTokens()) {
+            String t1 = tokenizer1.nextToken();
+            String t2 = tokenizer2.nextToken();
+            if (t1.chars().allMatch(Character::isDigit) && t2.chars().allMatch(Character::isDigit) && t1.length() < 10 && t2.length() < 10) {
+                int intCompared = Integer.parseInt(t1) - Integer.parseInt(t2);
+                if (intCompared != 0) {
+                    return intCompared > 0 ? -1 : 1;
+                }
+                continue;
+            }
+            int stringCompared = t1.compareTo(t2);
+            if (stringCompared != 0) {
+                return stringCompared > 0 ? -1 : 1;
+            }
+        }
+        if (tokenizer1.hasMoreTokens()) {
+            return -1;
+        }
+        if (tokenizer2.hasMoreTokens()) {
+            return 1;
+        }
+        return 0;
+    }
+}
@@ -3,6 +3,8 @@ package org.fakekoji.xmlrpc.server.expensiveobjectscache;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.ArrayList;
@@ -755,9 +757,10 @@ public class RemoteRequestsCacheTest {
         l2.start();
         l1.join();
         l2.join();
-        //both attempted to get null fromdb, hard to say which was first
-        Assert.assertTrue((1 == l1.getR()) ^ (1 == l2.getR()));
-        Assert.assertTrue((2 == l1.getR()) ^ (2 == l2.getR()));
+        //both attempted to get null fromdb, the second one joined the first one's request
+        Assert.assertEquals(1, l1.getR());
+        Assert.assertEquals(1, l2.getR());
+        Assert.assertEquals(1, provider.i.get());
         Thread.sleep(1000);//timeout the value
         l1 = new LongReturningThread(new DummyRequestparam("m1", new Object[]{"p1"}), cache);
         l2 = new LongReturningThread(new DummyRequestparam("m1", new Object[]{"p1"}), cache);
@@ -770,12 +773,259 @@ public class RemoteRequestsCacheTest {
         l1.join();
         l2.join();
         //both attempting cached value, first have to wait for new one, invalidating result, but second get old vlaue again
-        Assert.assertEquals(3, l1.getR()); //new value
-        Assert.assertTrue(2 == l2.getR() || 1 == l2.getR()); //no guarantee which result was added to db; cached value obtained anyway
+        Assert.assertEquals(2, l1.getR()); //new value
+        Assert.assertEquals(1, l2.getR()); //cached value obtained anyway
         dump(cache);
     }
 
 
+    @Test
+    public void concurrentMissesObtainOriginalOnce() throws InterruptedException {
+        SlowOriginalObjectProvider provider = new SlowOriginalObjectProvider();
+        AccessibleRemoteRequestsCache cache = new AccessibleRemoteRequestsCache(null, provider);
+        Properties p = new Properties();
+        p.setProperty(RemoteRequestCacheConfigKeys.CACHE_REFRESH_RATE_MINUTES, "1000");
+        cache.setProperties(p);
+        LongReturningThread[] threads = new LongReturningThread[10];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new LongReturningThread(new DummyRequestparam("m1", new Object[]{"p1"}), cache);
+            threads[i].start();
+        }
+        for (LongReturningThread thread : threads) {
+            thread.join();
+            Assert.assertEquals(1, thread.getR());
+        }
+        Assert.assertEquals(1, provider.i.get());
+        LongReturningThread other = new LongReturningThread(new DummyRequestparam("m1", new Object[]{"p2"}), cache);
+        other.start();
+        other.join();
+        Assert.assertEquals(2, other.getR());
+    }
+
+    @Test
+    public void asyncRefreshServesStaleValue() throws InterruptedException {
+        SlowOriginalObjectProvider provider = new SlowOriginalObjectProvider();
+        AccessibleRemoteRequestsCache cache = new AccessibleRemoteRequestsCache(null, provider) {
+            @Override
+            protected long toUnits(long time) {
+                return time;
+            }
+        };
+        Properties p = new Properties();
+        p.setProperty(RemoteRequestCacheConfigKeys.CACHE_REFRESH_RATE_MINUTES, "100");
+        p.setProperty(RemoteRequestCacheConfigKeys.ASYNC_REFRESH, "true");
+        cache.setProperties(p);
+        long r1 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        Thread.sleep(200);//timeout the value
+        long start = System.currentTimeMillis();
+        long r2 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        long r3 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        Assert.assertTrue(System.currentTimeMillis() - start < 500); //nobody waited for slow provider
+        Thread.sleep(1500);//background refresh done
+        long r4 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        Assert.assertEquals(1, r1);
+        Assert.assertEquals(1, r2);
+        Assert.assertEquals(1, r3);
+        Assert.assertEquals(2, r4);
+        Assert.assertEquals(2, provider.i.get());
+    }
+
+    @Test
+    public void refreshAheadWorks() throws InterruptedException {
+        DummyOriginalObjectProvider provider = new DummyOriginalObjectProvider();
+        AccessibleRemoteRequestsCache cache = new AccessibleRemoteRequestsCache(null, provider) {
+            @Override
+            protected long toUnits(long time) {
+                return time;
+            }
+        };
+        Properties p = new Properties();
+        p.setProperty(RemoteRequestCacheConfigKeys.CACHE_REFRESH_RATE_MINUTES, "1000");
+        p.setProperty(RemoteRequestCacheConfigKeys.ASYNC_REFRESH, "true");
+        p.setProperty(RemoteRequestCacheConfigKeys.REFRESH_AHEAD_PERCENT, "50");
+        cache.setProperties(p);
+        long r1 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        long r2 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        Thread.sleep(600);//still valid, but in last half of validity
+        long r3 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        //wait for background refresh; the old value is served until it is done
+        long deadline = System.currentTimeMillis() + 10_000;
+        long r4 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        while (r4 == 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+            r4 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        }
+        Assert.assertEquals(1, r1);
+        Assert.assertEquals(1, r2);
+        Assert.assertEquals(1, r3);
+        Assert.assertEquals(2, r4);
+        Assert.assertEquals(2, provider.i.get());
+    }
+
+    @Test
+    public void maxEntriesEvictsLeastRecentlyUsed() throws InterruptedException {
+        DummyOriginalObjectProvider provider = new DummyOriginalObjectProvider();
+        AccessibleRemoteRequestsCache cache = new AccessibleRemoteRequestsCache(null, provider);
+        Properties p = new Properties();
+        p.setProperty(RemoteRequestCacheConfigKeys.CACHE_REFRESH_RATE_MINUTES, "1000");
+        p.setProperty(RemoteRequestCacheConfigKeys.MAX_ENTRIES, "3");
+        cache.setProperties(p);
+        long r1 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        Thread.sleep(5);
+        long r2 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p2"}));
+        Thread.sleep(5);
+        long r3 = (long) cache.obtain("http://url:2/path", new DummyRequestparam("m1", new Object[]{"p3"}));
+        Thread.sleep(5);
+        long r4 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        Assert.assertEquals(3, cache.getEntriesCount());
+        Assert.assertEquals(0, cache.getEvictions());
+        Thread.sleep(5);
+        long r5 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p4"}));
+        //over limit, evicted down to 90% of limit, least recently used p2 and p3 first
+        Assert.assertEquals(2, cache.getEntriesCount());
+        Assert.assertEquals(2, cache.getEvictions());
+        long r6 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        long r7 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p2"}));
+        Assert.assertEquals(1, r1);
+        Assert.assertEquals(2, r2);
+        Assert.assertEquals(3, r3);
+        Assert.assertEquals(1, r4);
+        Assert.assertEquals(4, r5);
+        Assert.assertEquals(1, r6);
+        Assert.assertEquals(5, r7);
+        dump(cache);
+    }
+
+    @Test
+    public void weightIsEstimated() {
+        Map<String, Object> small = new HashMap<>();
+        small.put("nvr", "java-1.8.0-openjdk-1.8.0.222.b10-0.el7");
+        Map<String, Object> big = new HashMap<>(small);
+        big.put("rpms", new Object[]{"a.rpm", "b.rpm", 1, 2L, true});
+        long smallWeight = SingleUrlResponseCache.ResultWithTimeStamp.estimateWeight(new Object[]{small});
+        long bigWeight = SingleUrlResponseCache.ResultWithTimeStamp.estimateWeight(new Object[]{big});
+        Assert.assertEquals(0, SingleUrlResponseCache.ResultWithTimeStamp.estimateWeight(null));
+        Assert.assertTrue(smallWeight > 0);
+        Assert.assertTrue(bigWeight > smallWeight);
+    }
+
+    private static File diskTierConfig(String refreshRate) throws IOException {
+        File f = File.createTempFile("cache", ".config");
+        f.deleteOnExit();
+        Properties p = new Properties();
+        p.setProperty(RemoteRequestCacheConfigKeys.CACHE_REFRESH_RATE_MINUTES, refreshRate);
+        p.setProperty(RemoteRequestCacheConfigKeys.DISK_TIER, "true");
+        try (FileWriter fw = new FileWriter(f)) {
+            p.store(fw, null);
+        }
+        return f;
+    }
+
+    @Test
+    public void diskTierSurvivesRestart() throws IOException {
+        File f = diskTierConfig("10");
+        DummyOriginalObjectProvider provider1 = new DummyOriginalObjectProvider();
+        AccessibleRemoteRequestsCache cache1 = new AccessibleRemoteRequestsCache(f, provider1);
+        long r1 = (long) cache1.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        long r2 = (long) cache1.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p2"}));
+        long r3 = (long) cache1.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p3"}));
+        cache1.remove(new URL("http://url:1/path"), new DummyRequestparam("m1", new Object[]{"p3"}));
+        //restart
+        DummyOriginalObjectProvider provider2 = new DummyOriginalObjectProvider();
+        provider2.i.set(10);
+        AccessibleRemoteRequestsCache cache2 = new AccessibleRemoteRequestsCache(f, provider2);
+        long r4 = (long) cache2.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        long r5 = (long) cache2.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p2"}));
+        long r6 = (long) cache2.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p3"}));
+        long r7 = (long) cache2.obtain("http://url:2/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        Assert.assertEquals(1, r1);
+        Assert.assertEquals(2, r2);
+        Assert.assertEquals(3, r3);
+        Assert.assertEquals(1, r4);//persisted
+        Assert.assertEquals(2, r5);//persisted
+        Assert.assertEquals(11, r6);//removed
+        Assert.assertEquals(12, r7);//other url
+        Assert.assertEquals(12, provider2.i.get());
+        dump(cache2);
+    }
+
+    @Test
+    public void diskTierIsCompactedWhenKeyIsOverwritten() throws IOException {
+        final File dir = Files.createTempDirectory("diskTier").toFile();
+        final DiskTier tier = new DiskTier(dir);
+        final DummyRequestparam params = new DummyRequestparam("m1", new Object[]{"p1"});
+        tier.put("http://url:1/path", params, 0L);
+        final long singleRecord = tier.getFile().length();
+        for (long i = 1; i <= 10 * DiskTier.COMPACTION_MIN_RECORDS; i++) {
+            tier.put("http://url:1/path", params, i);
+            Assert.assertTrue(tier.getFile().length() <= 2 * (DiskTier.COMPACTION_MIN_RECORDS + 1) * singleRecord);
+            Assert.assertEquals(i, tier.get("http://url:1/path", params).getResult());
+        }
+        Assert.assertEquals(1, tier.size());
+        // and survives restart
+        Assert.assertEquals(10L * DiskTier.COMPACTION_MIN_RECORDS, new DiskTier(dir).get("http://url:1/path", params).getResult());
+    }
+
+    @Test
+    public void diskTierRespectsValidity() throws IOException, InterruptedException {
+        File f = diskTierConfig("100");
+        DummyOriginalObjectProvider provider1 = new DummyOriginalObjectProvider();
+        AccessibleRemoteRequestsCache cache1 = new AccessibleRemoteRequestsCache(f, provider1) {
+            @Override
+            protected long toUnits(long time) {
+                return time;
+            }
+        };
+        long r1 = (long) cache1.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        Thread.sleep(200);//timeout the value
+        DummyOriginalObjectProvider provider2 = new DummyOriginalObjectProvider();
+        provider2.i.set(10);
+        AccessibleRemoteRequestsCache cache2 = new AccessibleRemoteRequestsCache(f, provider2) {
+            @Override
+            protected long toUnits(long time) {
+                return time;
+            }
+        };
+        long r2 = (long) cache2.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        Assert.assertEquals(1, r1);
+        Assert.assertEquals(11, r2);
+    }
+
+    @Test
+    public void statisticsAreCollected() throws IOException {
+        File f = File.createTempFile("cache", ".config");
+        f.deleteOnExit();
+        Properties p = new Properties();
+        p.setProperty(RemoteRequestCacheConfigKeys.CACHE_REFRESH_RATE_MINUTES, "10");
+        p.setProperty(RemoteRequestCacheConfigKeys.STATISTICS_COMMAND, "true");
+        try (FileWriter fw = new FileWriter(f)) {
+            p.store(fw, null);
+        }
+        DummyOriginalObjectProvider provider = new DummyOriginalObjectProvider();
+        AccessibleRemoteRequestsCache cache = new AccessibleRemoteRequestsCache(f, provider);
+        cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        cache.obtain("http://url:1/path", new DummyRequestparam("m2", new Object[]{"p1"}));
+        cache.obtain("http://url:2/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        CacheStatistics statistics = cache.getStatistics();
+        Assert.assertEquals(2, statistics.getTotal().getHits());
+        Assert.assertEquals(3, statistics.getTotal().getMisses());
+        Assert.assertEquals(3, statistics.getTotal().getLoads());
+        Assert.assertEquals(0, statistics.getTotal().getInFlight());
+        Assert.assertEquals(3, Arrays.stream(statistics.getTotal().getLatencyHistogram()).sum());
+        Assert.assertEquals(2, statistics.getPerMethod().get("m1").getMisses());
+        Assert.assertEquals(2, statistics.getPerMethod().get("m1").getHits());
+        Assert.assertEquals(2, statistics.getPerUrl().get("http://url:1/path").getLoads());
+        Assert.assertEquals(1, statistics.get("http://url:1/path", "m2").getMisses());
+        Assert.assertNull(statistics.get("http://url:2/path", "m2"));
+        Assert.assertTrue(statistics.toJson().contains("\"http://url:2/path\""));
+        cache.setProperties(p);
+        File json = new File(f.getAbsolutePath() + ".statistics.json");
+        json.deleteOnExit();
+        Assert.assertEquals(statistics.toJson(), new String(Files.readAllBytes(json.toPath()), "utf-8"));
+    }
+
     @Test
     public void disablingPerMethodWorks() throws InterruptedException {
         DummyOriginalObjectProvider provider = new DummyOriginalObjectProvider();
@@ -910,9 +1160,10 @@ public class RemoteRequestsCacheTest {
         l2.start();
         l1.join();
         l2.join();
-        //both attempted to get null fromdb, hard to say which was first
-        Assert.assertTrue((1 == l1.getR()) ^ (1 == l2.getR()));
-        Assert.assertTrue((2 == l1.getR()) ^ (2 == l2.getR()));
+        //both attempted to get null fromdb, the second one joined the first one's request
+        Assert.assertEquals(1, l1.getR());
+        Assert.assertEquals(1, l2.getR());
+        Assert.assertEquals(1, provider.i.get());
         Thread.sleep(300);//timeout the value so much, it get actually errased from cache
         l1 = new LongReturningThread(new DummyRequestparam("m1", new Object[]{"p1"}), cache);
         l2 = new LongReturningThread(new DummyRequestparam("m1", new Object[]{"p1"}), cache);
@@ -925,8 +1176,8 @@ public class RemoteRequestsCacheTest {
         l1.join();
         l2.join();
         //both are again trying value, which was removed from cache
-        Assert.assertEquals(3, l1.getR()); //so both get new value
-        Assert.assertEquals(4, l2.getR()); //so both get new value, compare with lazyRefreshWorks
+        Assert.assertEquals(2, l1.getR()); //so both get new value
+        Assert.assertEquals(2, l2.getR()); //so both get the same new value, as second joined the first's request, compare with lazyRefreshWorks
         dump(cache);
     }
 